@@ -0,0 +1,21 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 追加写入的确认信息，返回时数据已经hflush（或hsync）到DataNode
+ */
+@Data
+public class HDFSAppendAck {
+
+    private String stream;
+    // 数据所在的文件
+    private String path;
+    // 数据在文件中的起始偏移量
+    private long offset;
+    private long bytes;
+    // 同一批提交的记录数
+    private int batchRecords;
+    // 是否已经hsync到磁盘，false表示只保证hflush后对读者可见
+    private boolean synced;
+}
@@ -0,0 +1,406 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 高频小记录的追加写入服务
+ * 记录先进入每个数据流的无锁队列，由写线程成批写入滚动文件，每批只做一次hflush/hsync（组提交），
+ * 提交完成后再通知调用方，避免每条记录创建一个小文件给NameNode带来压力。
+ * 文件大小或打开时间超过阈值时关闭并切换到新文件；一段时间没有写入的数据流关闭文件、释放租约并从内存中移除，
+ * 同时存在的数据流数量有上限
+ */
+@Component
+@Slf4j
+public class HDFSAppendWriter {
+
+    private static final Pattern STREAM_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    // 追加文件的根目录，每个数据流一个子目录
+    @Value("${hdfs.append.base-dir:/append}")
+    private String baseDir;
+    @Value("${hdfs.append.threads:4}")
+    private int threads;
+    // 第一条记录到达后最多等待多久提交，等待期间到达的记录一起提交
+    @Value("${hdfs.append.linger-ms:10}")
+    private long lingerMillis;
+    // 待提交数据达到该大小时立即提交，也是单批的上限
+    @Value("${hdfs.append.commit-bytes:1048576}")
+    private long commitBytes;
+    // 默认是否hsync，false时只hflush
+    @Value("${hdfs.append.hsync:false}")
+    private boolean defaultSync;
+    @Value("${hdfs.append.roll-bytes:134217728}")
+    private long rollBytes;
+    @Value("${hdfs.append.roll-interval-ms:3600000}")
+    private long rollIntervalMillis;
+    // 每个数据流待写入数据的上限，超过后拒绝写入
+    @Value("${hdfs.append.max-pending-bytes:67108864}")
+    private long maxPendingBytes;
+    // 数据流超过该时间没有写入时关闭文件并移除
+    @Value("${hdfs.append.idle-close-ms:300000}")
+    private long idleCloseMillis;
+    // 同时存在的数据流数量上限，每个数据流最多占用一个打开的文件和租约
+    @Value("${hdfs.append.max-streams:1000}")
+    private int maxStreams;
+
+    private final ConcurrentMap<String, Stream> streams = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor writerPool;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder recordCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private final LongAdder commitCount = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final LongAdder rollCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        writerPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("hdfs-append-"));
+        writerPool.allowCoreThreadTimeOut(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hdfs-append-timer-"));
+        long checkInterval = Math.max(1000, Math.min(Math.min(rollIntervalMillis, idleCloseMillis), 60000) / 10);
+        scheduler.scheduleWithFixedDelay(this::rollExpired, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        // 写完已经接收的记录再关闭文件
+        for (Stream stream : streams.values()) {
+            synchronized (stream) {
+                while (!stream.queue.isEmpty()) {
+                    commit(stream);
+                }
+                stream.closeFile();
+            }
+        }
+        writerPool.shutdown();
+    }
+
+    /**
+     * 追加一条记录，数据提交后完成返回的Future
+     * @param streamName 数据流名称，只能包含字母、数字、下划线、点和中划线
+     * @param data
+     * @param sync 是否hsync，为空时使用默认配置
+     * @return 待写入数据或数据流数量超过上限时以RejectedExecutionException失败
+     */
+    public CompletableFuture<HDFSAppendAck> append(String streamName, byte[] data, Boolean sync) {
+        if (streamName == null || !STREAM_NAME.matcher(streamName).matches()) {
+            throw new IllegalArgumentException("数据流名称不合法: " + streamName);
+        }
+        CompletableFuture<HDFSAppendAck> future = new CompletableFuture<>();
+        Record record = new Record(data, sync != null ? sync : defaultSync, future);
+        AtomicReference<String> rejection = new AtomicReference<>();
+        // 入队和空闲数据流的移除都在compute中进行，记录不会进入已经被移除的数据流
+        Stream stream = streams.compute(streamName, (name, existing) -> {
+            if (existing == null && streams.size() >= maxStreams) {
+                rejection.set("数据流数量超过上限: " + maxStreams);
+                return null;
+            }
+            Stream s = existing != null ? existing : new Stream(name);
+            if (s.pendingBytes.addAndGet(data.length) > maxPendingBytes) {
+                s.pendingBytes.addAndGet(-data.length);
+                rejection.set("待写入数据超过上限: " + name);
+                return existing;
+            }
+            s.queue.add(record);
+            return s;
+        });
+        if (rejection.get() != null) {
+            rejectedCount.increment();
+            future.completeExceptionally(new RejectedExecutionException(rejection.get()));
+            return future;
+        }
+        schedule(stream, stream.pendingBytes.get() >= commitBytes);
+        return future;
+    }
+
+    /**
+     * 安排一次提交，每个数据流同一时刻最多只有一个提交任务
+     * @param stream
+     * @param immediate 是否立即提交，否则等待lingerMillis让更多记录进入同一批
+     */
+    private void schedule(Stream stream, boolean immediate) {
+        if (!stream.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (immediate || lingerMillis <= 0) {
+                writerPool.execute(() -> drain(stream));
+            } else {
+                scheduler.schedule(() -> writerPool.execute(() -> drain(stream)), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // 服务正在关闭，由shutdown写完剩余记录
+            stream.scheduled.set(false);
+        }
+    }
+
+    private void drain(Stream stream) {
+        try {
+            synchronized (stream) {
+                while (!stream.queue.isEmpty()) {
+                    commit(stream);
+                }
+            }
+        } finally {
+            stream.scheduled.set(false);
+        }
+        // 重置标志前到达的记录不会触发新的提交，这里补上
+        if (!stream.queue.isEmpty()) {
+            schedule(stream, true);
+        }
+    }
+
+    /**
+     * 提交一批记录：写入、hflush/hsync，然后通知调用方；需要持有stream的锁
+     * @param stream
+     */
+    private void commit(Stream stream) {
+        List<Record> batch = new ArrayList<>();
+        long bytes = 0;
+        boolean sync = false;
+        Record record;
+        while (bytes < commitBytes && (record = stream.queue.poll()) != null) {
+            batch.add(record);
+            bytes += record.data.length;
+            sync |= record.sync;
+        }
+        stream.pendingBytes.addAndGet(-bytes);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(stream, batch, bytes, sync);
+        } finally {
+            // 出现未预料的异常时调用方也能立即得到失败，不必等到超时
+            for (Record r : batch) {
+                if (!r.future.isDone()) {
+                    r.future.completeExceptionally(new IOException("追加写入失败: " + stream.name));
+                }
+            }
+        }
+    }
+
+    private void write(Stream stream, List<Record> batch, long bytes, boolean sync) {
+        long start = System.nanoTime();
+        List<HDFSAppendAck> acks = new ArrayList<>(batch.size());
+        try {
+            if (stream.out == null) {
+                stream.openFile();
+            }
+            for (Record r : batch) {
+                HDFSAppendAck ack = new HDFSAppendAck();
+                ack.setStream(stream.name);
+                ack.setPath(stream.path.toUri().getPath());
+                ack.setOffset(stream.fileBytes);
+                ack.setBytes(r.data.length);
+                ack.setBatchRecords(batch.size());
+                ack.setSynced(sync);
+                stream.out.write(r.data);
+                stream.fileBytes += r.data.length;
+                acks.add(ack);
+            }
+            if (sync) {
+                stream.out.hsync();
+            } else {
+                stream.out.hflush();
+            }
+        } catch (IOException | RuntimeException e) {
+            failureCount.increment();
+            log.error("追加写入失败, stream={}, path={}", stream.name, stream.path, e);
+            // 当前文件可能已经损坏，下一批写入新文件
+            stream.closeFile();
+            for (Record r : batch) {
+                r.future.completeExceptionally(e);
+            }
+            return;
+        }
+        stream.lastWriteAt = System.currentTimeMillis();
+        long elapsed = System.nanoTime() - start;
+        commitCount.increment();
+        commitNanos.add(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+        recordCount.add(batch.size());
+        byteCount.add(bytes);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(acks.get(i));
+        }
+        if (stream.fileBytes >= rollBytes) {
+            stream.closeFile();
+        }
+    }
+
+    /**
+     * 关闭打开时间超过roll-interval-ms或空闲超过idle-close-ms的文件，并移除空闲的数据流
+     * 定时线程同时负责所有数据流的提交调度，只做检查；关闭文件有网络I/O，并且要等待正在进行的提交，交给写线程执行
+     */
+    private void rollExpired() {
+        long now = System.currentTimeMillis();
+        for (Stream stream : streams.values()) {
+            if (stream.out != null && stream.isExpired(now) && stream.rolling.compareAndSet(false, true)) {
+                try {
+                    writerPool.execute(() -> roll(stream));
+                } catch (RejectedExecutionException e) {
+                    // 服务正在关闭，由shutdown关闭文件
+                    stream.rolling.set(false);
+                }
+            }
+            // 空闲时间要求保证重新创建的数据流不会在同一秒内生成同名文件
+            streams.computeIfPresent(stream.name,
+                    (name, s) -> s == stream && s.isIdle(now) ? null : s);
+        }
+    }
+
+    private void roll(Stream stream) {
+        try {
+            synchronized (stream) {
+                if (stream.out != null && stream.isExpired(System.currentTimeMillis())) {
+                    stream.closeFile();
+                }
+            }
+        } finally {
+            stream.rolling.set(false);
+        }
+    }
+
+    /**
+     * 追加写入的统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        long commits = commitCount.sum();
+        long records = recordCount.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("streams", streams.size());
+        metrics.put("records", records);
+        metrics.put("bytes", byteCount.sum());
+        metrics.put("commits", commits);
+        metrics.put("avgBatchRecords", commits == 0 ? 0 : (double) records / commits);
+        metrics.put("avgCommitMicros", commits == 0 ? 0 : commitNanos.sum() / commits / 1000);
+        metrics.put("maxCommitMicros", maxCommitNanos.get() / 1000);
+        metrics.put("rolls", rollCount.sum());
+        metrics.put("failures", failureCount.sum());
+        metrics.put("rejected", rejectedCount.sum());
+        long pending = 0;
+        for (Stream stream : streams.values()) {
+            pending += stream.pendingBytes.get();
+        }
+        metrics.put("pendingBytes", pending);
+        return metrics;
+    }
+
+    private static class Record {
+        private final byte[] data;
+        private final boolean sync;
+        private final CompletableFuture<HDFSAppendAck> future;
+
+        private Record(byte[] data, boolean sync, CompletableFuture<HDFSAppendAck> future) {
+            this.data = data;
+            this.sync = sync;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 一个数据流，文件相关的字段只在持有锁时访问
+     */
+    private class Stream {
+        private final String name;
+        private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // 已安排关闭过期文件的任务
+        private final AtomicBoolean rolling = new AtomicBoolean();
+        private volatile FSDataOutputStream out;
+        private Path path;
+        private volatile long openedAt;
+        private volatile long lastWriteAt = System.currentTimeMillis();
+        private long fileBytes;
+        private int fileSequence;
+
+        private Stream(String name) {
+            this.name = name;
+        }
+
+        private boolean isExpired(long now) {
+            return now - openedAt >= rollIntervalMillis || now - lastWriteAt >= idleCloseMillis;
+        }
+
+        /**
+         * 文件已关闭、没有待写入的记录且空闲超过idle-close-ms
+         */
+        private boolean isIdle(long now) {
+            return out == null && queue.isEmpty() && pendingBytes.get() == 0 && !scheduled.get()
+                    && now - lastWriteAt >= idleCloseMillis;
+        }
+
+        private void openFile() throws IOException {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            // 同一秒内多次滚动时用序号区分文件
+            path = new Path(baseDir + "/" + name,
+                    name + "-" + LocalDateTime.now().format(FILE_TIME) + "-" + (fileSequence++) + ".log");
+            out = fs.create(path, false);
+            metadataCache.invalidate(fs, path);
+            fileBytes = 0;
+            openedAt = System.currentTimeMillis();
+            log.info("打开追加文件, stream={}, path={}", name, path);
+        }
+
+        private void closeFile() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+                rollCount.increment();
+                metadataCache.invalidate(fileSystemProvider.getFileSystem(), path);
+            } catch (IOException e) {
+                log.error("关闭追加文件失败, path={}", path, e);
+            }
+            out = null;
+        }
+    }
+}
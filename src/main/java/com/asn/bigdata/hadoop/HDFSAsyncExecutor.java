@@ -0,0 +1,233 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * HDFS请求的异步执行器
+ * 元数据操作和数据传输分别使用独立的有界线程池，不占用Tomcat线程。
+ * 线程池和队列都满时直接返回503，超时的请求返回503并中断执行线程，
+ * 耗时较长的操作需要响应中断及时停止，并通过metadata(task, timeout)使用比自身时间预算更长的超时时间
+ */
+@Component
+@Slf4j
+public class HDFSAsyncExecutor {
+
+    private static final String BUSY_MESSAGE = "服务繁忙，请稍后重试";
+    private static final String TIMEOUT_MESSAGE = "请求超时，请稍后重试";
+
+    @Value("${hdfs.async.metadata.threads:16}")
+    private int metadataThreads;
+    @Value("${hdfs.async.metadata.queue-capacity:200}")
+    private int metadataQueueCapacity;
+    @Value("${hdfs.async.metadata.timeout-ms:30000}")
+    private long metadataTimeout;
+    @Value("${hdfs.async.transfer.threads:16}")
+    private int transferThreads;
+    @Value("${hdfs.async.transfer.queue-capacity:32}")
+    private int transferQueueCapacity;
+    @Value("${hdfs.async.transfer.timeout-ms:600000}")
+    private long transferTimeout;
+    // 流式响应（readFile、listFileStream）的超时时间
+    @Value("${hdfs.async.stream.timeout-ms:3600000}")
+    private long streamTimeout;
+
+    private ThreadPoolTaskExecutor metadataExecutor;
+    private ThreadPoolTaskExecutor transferExecutor;
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        metadataExecutor = newExecutor("hdfs-metadata-", metadataThreads, metadataQueueCapacity);
+        transferExecutor = newExecutor("hdfs-transfer-", transferThreads, transferQueueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        metadataExecutor.shutdown();
+        transferExecutor.shutdown();
+    }
+
+    private static ThreadPoolTaskExecutor newExecutor(String prefix, int threads, int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(prefix);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 在元数据线程池上执行
+     * @param task
+     * @return
+     */
+    public DeferredResult<Object> metadata(Callable<Object> task) {
+        return submit(metadataExecutor, metadataTimeout, task);
+    }
+
+    /**
+     * 在元数据线程池上执行，使用单独的超时时间
+     * 用于遍历目录树等耗时与数据规模相关的操作，超时时间应大于操作自身的时间预算
+     * @param task
+     * @param timeoutMillis
+     * @return
+     */
+    public DeferredResult<Object> metadata(Callable<Object> task, long timeoutMillis) {
+        return submit(metadataExecutor, timeoutMillis, task);
+    }
+
+    /**
+     * 在数据传输线程池上执行
+     * @param task
+     * @return
+     */
+    public DeferredResult<Object> transfer(Callable<Object> task) {
+        return submit(transferExecutor, transferTimeout, task);
+    }
+
+    private DeferredResult<Object> submit(ThreadPoolTaskExecutor executor, long timeout, Callable<Object> task) {
+        DeferredResult<Object> result = new DeferredResult<>(timeout,
+                () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(TIMEOUT_MESSAGE));
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                try {
+                    result.setResult(task.call());
+                } catch (Exception e) {
+                    result.setErrorResult(e);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            rejectedCount.increment();
+            result.setResult(busy());
+            return result;
+        }
+        result.onTimeout(() -> {
+            timeoutCount.increment();
+            future.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * 在ForkJoinPool上执行任务并等待完成
+     * ForkJoinPool.invoke不响应中断，请求超时后任务会继续执行；这里改为可中断的等待，
+     * 等待线程被中断时调用onCancel通知任务停止展开，并抛出InterruptedIOException
+     * @param pool
+     * @param task
+     * @param onCancel
+     * @return
+     * @throws IOException
+     */
+    public static <T> T invoke(ForkJoinPool pool, ForkJoinTask<T> task, Runnable onCancel) throws IOException {
+        pool.execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            onCancel.run();
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("操作已取消");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 线程池和队列都已满时返回的响应
+     * @return
+     */
+    public ResponseEntity<Object> busy() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(BUSY_MESSAGE);
+    }
+
+    /**
+     * 数据传输线程池是否已经没有空闲线程和队列空间
+     * @return
+     */
+    public boolean isTransferSaturated() {
+        ThreadPoolExecutor executor = transferExecutor.getThreadPoolExecutor();
+        return executor.getActiveCount() >= executor.getMaximumPoolSize()
+                && executor.getQueue().remainingCapacity() == 0;
+    }
+
+    /**
+     * 流式响应使用的线程池，由Spring MVC异步处理使用
+     * @return
+     */
+    public AsyncTaskExecutor getStreamExecutor() {
+        return transferExecutor;
+    }
+
+    public long getStreamTimeout() {
+        return streamTimeout;
+    }
+
+    /**
+     * 线程池使用情况
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("metadata", metricsOf(metadataExecutor));
+        metrics.put("transfer", metricsOf(transferExecutor));
+        metrics.put("rejectedCount", rejectedCount.sum());
+        metrics.put("timeoutCount", timeoutCount.sum());
+        return metrics;
+    }
+
+    /**
+     * 记录一次被拒绝的请求
+     */
+    public void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    private static Map<String, Object> metricsOf(ThreadPoolTaskExecutor executor) {
+        ThreadPoolExecutor pool = executor.getThreadPoolExecutor();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("activeThreads", pool.getActiveCount());
+        metrics.put("poolSize", pool.getPoolSize());
+        metrics.put("maxPoolSize", pool.getMaximumPoolSize());
+        metrics.put("queueSize", pool.getQueue().size());
+        metrics.put("queueRemaining", pool.getQueue().remainingCapacity());
+        metrics.put("completedTasks", pool.getCompletedTaskCount());
+        return metrics;
+    }
+}
@@ -0,0 +1,159 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量执行HDFS修改操作
+ * 所有操作在共享的有界线程池上并发执行，单个操作失败不影响其他操作
+ */
+@Component
+@Slf4j
+public class HDFSBatchExecutor {
+
+    @Value("${hdfs.batch.threads:16}")
+    private int threads;
+    @Value("${hdfs.batch.parallelism:8}")
+    private int defaultParallelism;
+    @Value("${hdfs.batch.max-operations:10000}")
+    private int maxOperations;
+    @Value("${hdfs.batch.timeout-ms:300000}")
+    private long timeout;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * 16), new CustomizableThreadFactory("hdfs-batch-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 批量请求的超时时间，超时后尚未开始的操作不再执行
+     * @return
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 批量执行操作
+     * @param operations
+     * @param parallelism 同时执行的操作数，为空时使用默认值
+     * @return 与请求顺序一致的执行结果
+     * @throws Exception
+     */
+    public List<HDFSBatchResult> execute(List<HDFSBatchOperation> operations, Integer parallelism)
+            throws Exception {
+        if (operations.size() > maxOperations) {
+            throw new IllegalArgumentException("单次批量操作数不能超过" + maxOperations);
+        }
+        HDFSBatchResult[] results = new HDFSBatchResult[operations.size()];
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(parallelism != null ? parallelism : defaultParallelism,
+                Math.min(threads, operations.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                int index;
+                while (!Thread.currentThread().isInterrupted()
+                        && (index = next.getAndIncrement()) < results.length) {
+                    results[index] = execute(index, operations.get(index));
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        List<HDFSBatchResult> list = new ArrayList<>(results.length);
+        for (HDFSBatchResult result : results) {
+            list.add(result);
+        }
+        return list;
+    }
+
+    private HDFSBatchResult execute(int index, HDFSBatchOperation operation) {
+        HDFSBatchResult result = new HDFSBatchResult();
+        result.setIndex(index);
+        result.setOp(operation.getOp());
+        result.setPath(operation.getPath());
+        long start = System.currentTimeMillis();
+        try {
+            result.setSuccess(apply(operation));
+            if (!result.isSuccess()) {
+                result.setMessage("操作未生效");
+            }
+        } catch (Exception e) {
+            log.debug("批量操作失败: {}", operation, e);
+            result.setSuccess(false);
+            result.setMessage(e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 通过HDFSUtils执行操作，保证元数据缓存同步失效
+     */
+    private boolean apply(HDFSBatchOperation operation) throws Exception {
+        String path = operation.getPath();
+        if (StringUtils.isEmpty(operation.getOp()) || StringUtils.isEmpty(path)) {
+            throw new IllegalArgumentException("请求参数为空");
+        }
+        switch (operation.getOp()) {
+            case "mkdir":
+                return HDFSUtils.mkdir(path);
+            case "rename":
+                requireTarget(operation);
+                return HDFSUtils.renameFile(path, operation.getTarget());
+            case "delete":
+                return HDFSUtils.deleteFile(path, !Boolean.FALSE.equals(operation.getRecursive()),
+                        Boolean.TRUE.equals(operation.getSkipTrash()));
+            case "copy":
+                requireTarget(operation);
+                HDFSUtils.copyFile(path, operation.getTarget());
+                return true;
+            case "setReplication":
+                if (operation.getReplication() == null) {
+                    throw new IllegalArgumentException("副本数为空");
+                }
+                return HDFSUtils.setReplication(path, operation.getReplication());
+            default:
+                throw new IllegalArgumentException("不支持的操作: " + operation.getOp());
+        }
+    }
+
+    private static void requireTarget(HDFSBatchOperation operation) {
+        if (StringUtils.isEmpty(operation.getTarget())) {
+            throw new IllegalArgumentException("目标路径为空");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 批量操作中的单个操作
+ * op取值：mkdir、rename、delete、copy、setReplication
+ */
+@Data
+public class HDFSBatchOperation {
+
+    private String op;
+    private String path;
+    // rename、copy的目标路径
+    private String target;
+    // setReplication的副本数
+    private Short replication;
+    // delete是否递归删除目录，默认递归
+    private Boolean recursive;
+    // delete是否跳过回收站，默认放入回收站
+    private Boolean skipTrash;
+}
@@ -0,0 +1,17 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 批量操作中单个操作的执行结果，index与请求中的顺序一致
+ */
+@Data
+public class HDFSBatchResult {
+
+    private int index;
+    private String op;
+    private String path;
+    private boolean success;
+    private String message;
+    private long elapsedMillis;
+}
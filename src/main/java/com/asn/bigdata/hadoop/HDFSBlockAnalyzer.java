@@ -0,0 +1,227 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 块分布分析
+ * 通过listFiles（底层为listLocatedStatus）遍历目录，文件状态和块位置随目录列表分批返回，
+ * 不需要对每个文件单独调用getFileStatus和getFileBlockLocations。
+ * 统计每个DataNode上的块数和字节数、副本不足的块、数据倾斜程度，以及本机可以直接读取的数据比例
+ */
+@Component
+@Slf4j
+public class HDFSBlockAnalyzer {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    // 本机的主机名或IP，多个用逗号分隔，为空时自动获取本机所有地址
+    @Value("${hdfs.blocks.local-hosts:}")
+    private String localHostsConfig;
+    @Value("${hdfs.blocks.max-files:1000000}")
+    private long maxFiles;
+    @Value("${hdfs.blocks.max-samples:100}")
+    private int maxSamples;
+    @Value("${hdfs.blocks.timeout-ms:300000}")
+    private long timeout;
+
+    private Set<String> localHosts;
+
+    @PostConstruct
+    public void init() {
+        localHosts = new LinkedHashSet<>();
+        if (StringUtils.isNotBlank(localHostsConfig)) {
+            for (String host : localHostsConfig.split(",")) {
+                if (StringUtils.isNotBlank(host)) {
+                    localHosts.add(host.trim());
+                }
+            }
+            return;
+        }
+        try {
+            InetAddress localHost = InetAddress.getLocalHost();
+            localHosts.add(localHost.getHostName());
+            localHosts.add(localHost.getCanonicalHostName());
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (!address.isLoopbackAddress()) {
+                        localHosts.add(StringUtils.substringBefore(address.getHostAddress(), "%"));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("获取本机地址失败，本地读比例按0计算", e);
+        }
+    }
+
+    /**
+     * 分析请求的超时时间，超时后停止遍历
+     * @return
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 分析文件或目录的块分布
+     * @param path
+     * @param recursive 是否包含子目录
+     * @return
+     * @throws IOException
+     */
+    public HDFSBlockDistribution analyze(String path, boolean recursive) throws IOException {
+        long start = System.currentTimeMillis();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        HDFSBlockDistribution result = new HDFSBlockDistribution();
+        result.setPath(path);
+        result.setRecursive(recursive);
+        result.setLocalHosts(new ArrayList<>(localHosts));
+        Map<String, HDFSBlockDistribution.DataNode> dataNodes = new HashMap<>();
+        addLiveDataNodes(fs, dataNodes);
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(new Path(path), recursive);
+        while (iterator.hasNext()) {
+            // 请求超时时执行线程被中断，停止继续列出文件
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("块分布分析已取消: " + path);
+            }
+            if (result.getFiles() >= maxFiles) {
+                result.setTruncated(true);
+                break;
+            }
+            LocatedFileStatus status = iterator.next();
+            result.setFiles(result.getFiles() + 1);
+            result.setBytes(result.getBytes() + status.getLen());
+            BlockLocation[] locations = status.getBlockLocations();
+            if (locations == null) {
+                continue;
+            }
+            for (BlockLocation location : locations) {
+                addBlock(result, dataNodes, status, location);
+            }
+        }
+        summarize(result, dataNodes);
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private void addBlock(HDFSBlockDistribution result, Map<String, HDFSBlockDistribution.DataNode> dataNodes,
+                          LocatedFileStatus status, BlockLocation location) throws IOException {
+        String[] hosts = location.getHosts();
+        String[] names = location.getNames();
+        long length = location.getLength();
+        result.setBlocks(result.getBlocks() + 1);
+        result.setReplicas(result.getReplicas() + hosts.length);
+        result.setReplicaBytes(result.getReplicaBytes() + length * hosts.length);
+        if (location.isCorrupt()) {
+            result.setCorruptBlocks(result.getCorruptBlocks() + 1);
+        }
+        if (hosts.length == 0) {
+            result.setMissingBlocks(result.getMissingBlocks() + 1);
+        }
+        if (hosts.length < status.getReplication()) {
+            result.setUnderReplicatedBlocks(result.getUnderReplicatedBlocks() + 1);
+            result.setMissingReplicas(result.getMissingReplicas() + status.getReplication() - hosts.length);
+            if (result.getUnderReplicatedSamples().size() < maxSamples) {
+                result.getUnderReplicatedSamples().add(status.getPath().toUri().getPath() + "@" + location.getOffset());
+            }
+        }
+        boolean local = false;
+        for (int i = 0; i < hosts.length; i++) {
+            HDFSBlockDistribution.DataNode dataNode = dataNodes.computeIfAbsent(hosts[i], this::newDataNode);
+            dataNode.setBlocks(dataNode.getBlocks() + 1);
+            dataNode.setBytes(dataNode.getBytes() + length);
+            // names为ip:port，主机名无法匹配时按IP判断
+            String ip = i < names.length ? StringUtils.substringBeforeLast(names[i], ":") : null;
+            if (dataNode.isLocal() || (ip != null && localHosts.contains(ip))) {
+                dataNode.setLocal(true);
+                local = true;
+            }
+        }
+        if (local) {
+            result.setLocalBlocks(result.getLocalBlocks() + 1);
+            result.setLocalBytes(result.getLocalBytes() + length);
+        }
+    }
+
+    /**
+     * 加入所有存活的DataNode，没有副本的节点也参与倾斜计算；需要超级用户权限，失败时只统计有副本的节点
+     */
+    private void addLiveDataNodes(FileSystem fs, Map<String, HDFSBlockDistribution.DataNode> dataNodes) {
+        if (!(fs instanceof DistributedFileSystem)) {
+            return;
+        }
+        try {
+            for (DatanodeInfo info : ((DistributedFileSystem) fs).getDataNodeStats(
+                    HdfsConstants.DatanodeReportType.LIVE)) {
+                HDFSBlockDistribution.DataNode dataNode = dataNodes.computeIfAbsent(info.getHostName(),
+                        this::newDataNode);
+                if (localHosts.contains(info.getIpAddr())) {
+                    dataNode.setLocal(true);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("获取DataNode列表失败，只统计有副本的节点", e);
+        }
+    }
+
+    private HDFSBlockDistribution.DataNode newDataNode(String host) {
+        HDFSBlockDistribution.DataNode dataNode = new HDFSBlockDistribution.DataNode();
+        dataNode.setHost(host);
+        dataNode.setLocal(localHosts.contains(host));
+        return dataNode;
+    }
+
+    private static void summarize(HDFSBlockDistribution result, Map<String, HDFSBlockDistribution.DataNode> dataNodes) {
+        List<HDFSBlockDistribution.DataNode> nodes = new ArrayList<>(dataNodes.values());
+        nodes.sort((a, b) -> Long.compare(b.getBytes(), a.getBytes()));
+        result.setDataNodes(nodes);
+        if (result.getBytes() > 0) {
+            result.setLocalReadFraction((double) result.getLocalBytes() / result.getBytes());
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+        double mean = (double) result.getReplicaBytes() / nodes.size();
+        double variance = 0;
+        for (HDFSBlockDistribution.DataNode node : nodes) {
+            variance += (node.getBytes() - mean) * (node.getBytes() - mean);
+            if (result.getReplicaBytes() > 0) {
+                node.setShare((double) node.getBytes() / result.getReplicaBytes());
+            }
+            if (mean > 0) {
+                node.setDeviation(node.getBytes() / mean - 1);
+            }
+        }
+        double stdDev = Math.sqrt(variance / nodes.size());
+        result.setMeanBytes(mean);
+        result.setStdDevBytes(stdDev);
+        if (mean > 0) {
+            result.setCoefficientOfVariation(stdDev / mean);
+            result.setMaxToMeanRatio(nodes.get(0).getBytes() / mean);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 文件或目录的块分布统计
+ */
+@Data
+public class HDFSBlockDistribution {
+
+    private String path;
+    private boolean recursive;
+    private long files;
+    private long blocks;
+    // 文件的逻辑大小，不含副本
+    private long bytes;
+    private long replicas;
+    private long replicaBytes;
+    // 副本数少于文件设置的副本数的块
+    private long underReplicatedBlocks;
+    // 所有副本都不可用的块
+    private long missingBlocks;
+    // 缺少的副本总数
+    private long missingReplicas;
+    private long corruptBlocks;
+    // 应用所在的主机，用于计算本地读比例
+    private List<String> localHosts = new ArrayList<>();
+    // 至少有一个副本在本机的块
+    private long localBlocks;
+    private long localBytes;
+    // 可以从本机读取的字节占比
+    private double localReadFraction;
+    // 各DataNode副本字节数的均值、标准差、变异系数以及最大值与均值之比，用于判断数据倾斜
+    private double meanBytes;
+    private double stdDevBytes;
+    private double coefficientOfVariation;
+    private double maxToMeanRatio;
+    // 按副本字节数从多到少排序
+    private List<DataNode> dataNodes = new ArrayList<>();
+    // 副本不足的块示例，格式为 路径@偏移量
+    private List<String> underReplicatedSamples = new ArrayList<>();
+    // 文件数超过上限时只统计前面的部分
+    private boolean truncated;
+    private long elapsedMillis;
+
+    @Data
+    public static class DataNode {
+        private String host;
+        private long blocks;
+        private long bytes;
+        // 占全部副本字节数的比例
+        private double share;
+        // 与均值的相对偏差，正数表示比平均多
+        private double deviation;
+        private boolean local;
+    }
+}
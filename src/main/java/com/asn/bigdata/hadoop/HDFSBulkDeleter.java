@@ -0,0 +1,209 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.asn.bigdata.utils.UUIDUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按通配符批量删除
+ * 在后台展开globStatus，并发删除匹配的路径，并按每秒删除数限流，避免对NameNode造成压力
+ */
+@Component
+@Slf4j
+public class HDFSBulkDeleter {
+
+    // Hadoop通配符中的特殊字符
+    private static final String GLOB_CHARS = "*?[]{}\\";
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.delete.threads:8}")
+    private int threads;
+    @Value("${hdfs.delete.rate-per-second:100}")
+    private int defaultRatePerSecond;
+    @Value("${hdfs.delete.max-jobs:100}")
+    private int maxJobs;
+
+    private ExecutorService jobExecutor;
+    private ThreadPoolExecutor deleteExecutor;
+    private final Map<String, HDFSDeleteJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        jobExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("hdfs-bulk-delete-"));
+        deleteExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * 16), new CustomizableThreadFactory("hdfs-delete-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        deleteExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+        deleteExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交批量删除任务，立即返回任务状态，任务按提交顺序依次执行
+     * @param pattern 路径通配符，如/data/dt=2019-*
+     * @param recursive 是否递归删除目录
+     * @param skipTrash 是否跳过回收站
+     * @param ratePerSecond 每秒最多删除的路径数，为空时使用默认值
+     * @return
+     * @throws IllegalArgumentException 通配符出现在第一级目录时，如/*、/user*，误操作会删除整个文件系统
+     */
+    public HDFSDeleteJob submit(String pattern, boolean recursive, boolean skipTrash, Integer ratePerSecond) {
+        checkPattern(pattern);
+        HDFSDeleteJob job = new HDFSDeleteJob();
+        job.setId(UUIDUtils.generateShortUuid8());
+        job.setPattern(pattern);
+        job.setRecursive(recursive);
+        job.setSkipTrash(skipTrash);
+        job.setStartTime(System.currentTimeMillis());
+        evictFinishedJobs();
+        jobs.put(job.getId(), job);
+        RateLimiter rateLimiter = new RateLimiter(ratePerSecond != null ? ratePerSecond : defaultRatePerSecond);
+        jobExecutor.execute(() -> run(job, rateLimiter));
+        return job;
+    }
+
+    /**
+     * 通配符至少要从第二级目录开始，根目录下的第一级目录必须写明
+     */
+    private static void checkPattern(String pattern) {
+        String path = new Path(pattern).toUri().getPath();
+        String first = StringUtils.substringBefore(StringUtils.stripStart(path, "/"), "/");
+        if (first.isEmpty() || StringUtils.containsAny(first, GLOB_CHARS)) {
+            throw new IllegalArgumentException("不允许在根目录下使用通配符批量删除: " + pattern);
+        }
+    }
+
+    /**
+     * 查询任务状态
+     * @param id
+     * @return 任务不存在或已被清理时返回null
+     */
+    public HDFSDeleteJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(HDFSDeleteJob job, RateLimiter rateLimiter) {
+        try {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            FileStatus[] statuses = fs.globStatus(new Path(job.getPattern()));
+            if (statuses == null || statuses.length == 0) {
+                finish(job, HDFSDeleteJob.FINISHED);
+                return;
+            }
+            job.setMatched(statuses.length);
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < Math.min(threads, statuses.length); i++) {
+                futures.add(deleteExecutor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < statuses.length) {
+                        String path = statuses[index].getPath().toUri().getPath();
+                        try {
+                            rateLimiter.acquire();
+                            if (HDFSUtils.deleteFile(path, job.isRecursive(), job.isSkipTrash())) {
+                                job.getDeleted().incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            log.debug("删除失败: {}", path, e);
+                            job.addFailure(path, e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            finish(job, HDFSDeleteJob.FINISHED);
+        } catch (Exception e) {
+            log.error("批量删除失败: " + job.getPattern(), e);
+            job.setMessage(e.getMessage());
+            finish(job, HDFSDeleteJob.FAILED);
+        }
+    }
+
+    /**
+     * 先记录结束时间再修改状态，已结束的任务一定有结束时间，清理时按结束时间排序
+     */
+    private static void finish(HDFSDeleteJob job, String state) {
+        job.setEndTime(System.currentTimeMillis());
+        job.setState(state);
+    }
+
+    /**
+     * 只保留最近的任务状态，超过上限时按结束时间从早到晚清理已结束的任务
+     */
+    private synchronized void evictFinishedJobs() {
+        if (jobs.size() < maxJobs) {
+            return;
+        }
+        List<HDFSDeleteJob> finished = new ArrayList<>();
+        for (HDFSDeleteJob job : jobs.values()) {
+            if (job.isDone()) {
+                finished.add(job);
+            }
+        }
+        finished.sort(Comparator.comparingLong(HDFSDeleteJob::getEndTime));
+        Iterator<HDFSDeleteJob> iterator = finished.iterator();
+        while (iterator.hasNext() && jobs.size() >= maxJobs) {
+            jobs.remove(iterator.next().getId());
+        }
+    }
+
+    /**
+     * 简单的令牌限流，按固定间隔发放许可
+     */
+    private static class RateLimiter {
+        private final long intervalNanos;
+        private long nextFreeNanos = System.nanoTime();
+
+        private RateLimiter(int permitsPerSecond) {
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(permitsPerSecond, 1);
+        }
+
+        private void acquire() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (nextFreeNanos < now) {
+                    nextFreeNanos = now;
+                }
+                waitNanos = nextFreeNanos - now;
+                nextFreeNanos += intervalNanos;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
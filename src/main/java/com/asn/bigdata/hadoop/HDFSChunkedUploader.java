@@ -0,0 +1,384 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.asn.bigdata.utils.UUIDUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 可续传的分片上传
+ * 每个上传会话在暂存目录下有一个子目录，分片可以并行、乱序、重复上传，先写临时文件，
+ * 校验通过后再改名为正式分片，因此暂存目录中出现的分片都是完整的。
+ * 完成上传时在HDFS上用concat把分片合并成一个文件（只修改元数据，不复制数据），
+ * 其他文件系统按顺序流式合并。HDFS上分片和目标文件都用rename(OVERWRITE)原子替换，
+ * 不会出现旧文件已删除、新文件还没就位的中间状态。合并结果先保存在会话目录中，
+ * 改名到目标路径失败时再次完成上传直接使用合并结果。长时间没有更新的会话定时清理
+ */
+@Component
+@Slf4j
+public class HDFSChunkedUploader {
+
+    private static final String SESSION_FILE = "_session";
+    // 合并后的文件，存在时分片已经合并（concat后源分片已被删除），完成上传只需改名
+    private static final String MERGED_FILE = "_merged";
+    private static final String CHUNK_PREFIX = "chunk-";
+    private static final Pattern CHUNK_NAME = Pattern.compile(CHUNK_PREFIX + "(\\d{6})");
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${hdfs.upload.staging-dir:/.uploads}")
+    private String stagingDir;
+    @Value("${hdfs.upload.max-chunks:10000}")
+    private int maxChunks;
+    // 会话超过该时间没有上传新的分片即被清理
+    @Value("${hdfs.upload.session-ttl-ms:86400000}")
+    private long sessionTtlMillis;
+    @Value("${hdfs.upload.gc-interval-ms:600000}")
+    private long gcIntervalMillis;
+
+    private final Set<String> completing = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hdfs-upload-gc-"));
+        scheduler.scheduleWithFixedDelay(this::collectGarbage, gcIntervalMillis, gcIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 创建上传会话
+     * @param path 目标路径
+     * @param chunkCount 分片总数，可选
+     * @param overwrite 目标已存在时是否覆盖
+     * @return
+     * @throws IOException
+     */
+    public HDFSUploadSession init(String path, Integer chunkCount, boolean overwrite) throws IOException {
+        if (chunkCount != null && (chunkCount <= 0 || chunkCount > maxChunks)) {
+            throw new IllegalArgumentException("分片数不合法: " + chunkCount);
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        if (!overwrite && fs.exists(new Path(path))) {
+            throw new IllegalArgumentException("目标文件已存在: " + path);
+        }
+        HDFSUploadSession session = new HDFSUploadSession();
+        session.setPath(path);
+        session.setChunkCount(chunkCount);
+        session.setOverwrite(overwrite);
+        session.setCreatedAt(System.currentTimeMillis());
+        Path sessionDir;
+        do {
+            session.setUploadId(UUIDUtils.generateShortUuid8());
+            sessionDir = sessionDir(session.getUploadId());
+        } while (!fs.mkdirs(sessionDir) || fs.exists(new Path(sessionDir, SESSION_FILE)));
+        try (FSDataOutputStream out = fs.create(new Path(sessionDir, SESSION_FILE), false)) {
+            out.write(objectMapper.writeValueAsBytes(session));
+        }
+        return session;
+    }
+
+    /**
+     * 上传一个分片，同一分片重复上传时覆盖之前的内容
+     * @param uploadId
+     * @param index 分片序号，从0开始
+     * @param md5 分片内容的MD5（十六进制），可选，不一致时丢弃该分片
+     * @param in
+     * @return 服务端计算的分片内容MD5，不论客户端是否传了md5都会返回，客户端可用来校验传输结果
+     * @throws IOException
+     */
+    public String putChunk(String uploadId, int index, String md5, InputStream in) throws IOException {
+        HDFSUploadSession session = readSession(uploadId);
+        int limit = session.getChunkCount() != null ? session.getChunkCount() : maxChunks;
+        if (index < 0 || index >= limit) {
+            throw new IllegalArgumentException("分片序号不合法: " + index);
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path sessionDir = sessionDir(uploadId);
+        if (fs.exists(new Path(sessionDir, MERGED_FILE))) {
+            throw new IllegalStateException("分片已合并，不能再上传: " + uploadId);
+        }
+        Path chunkPath = new Path(sessionDir, chunkName(index));
+        // 每次上传使用不同的临时文件，同一分片并发重传时互不影响
+        Path tmpPath = new Path(sessionDir, "." + chunkName(index) + "." + UUIDUtils.generateShortUuid8() + ".tmp");
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            try (FSDataOutputStream out = fs.create(tmpPath, true)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String actual = Hex.encodeHexString(digest.digest());
+            if (md5 != null && !md5.isEmpty() && !md5.equalsIgnoreCase(actual)) {
+                throw new IllegalArgumentException("分片校验失败, 期望MD5=" + md5 + ", 实际MD5=" + actual);
+            }
+            HDFSUtils.rename(fs, tmpPath, chunkPath, true);
+            return actual;
+        } finally {
+            if (fs.exists(tmpPath)) {
+                fs.delete(tmpPath, false);
+            }
+        }
+    }
+
+    /**
+     * 查询会话状态和已上传的分片
+     * @param uploadId
+     * @return
+     * @throws IOException
+     */
+    public HDFSUploadSession getSession(String uploadId) throws IOException {
+        HDFSUploadSession session = readSession(uploadId);
+        List<HDFSUploadSession.Chunk> chunks = listChunks(uploadId);
+        long uploadedBytes = 0;
+        for (HDFSUploadSession.Chunk chunk : chunks) {
+            uploadedBytes += chunk.getLength();
+        }
+        session.setChunks(chunks);
+        session.setUploadedBytes(uploadedBytes);
+        FileStatus merged = metadataCache.getLatestFileStatus(fileSystemProvider.getFileSystem(),
+                new Path(sessionDir(uploadId), MERGED_FILE));
+        if (merged != null) {
+            session.setMerged(true);
+            session.setUploadedBytes(merged.getLen());
+            session.setMissing(new ArrayList<>());
+        } else if (session.getChunkCount() != null) {
+            session.setMissing(missing(chunks, session.getChunkCount()));
+        }
+        return session;
+    }
+
+    /**
+     * 合并所有分片，生成目标文件并删除会话
+     * 合并前检查目标文件，合并后改名到目标路径失败时保留合并结果，可以再次调用完成上传
+     * @param uploadId
+     * @return
+     * @throws IOException
+     */
+    public HDFSUploadResult complete(String uploadId) throws IOException {
+        if (!completing.add(uploadId)) {
+            throw new IllegalStateException("上传正在合并: " + uploadId);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            HDFSUploadSession session = getSession(uploadId);
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            Path sessionDir = sessionDir(uploadId);
+            Path target = new Path(session.getPath());
+            // 合并会删除源分片，目标文件已存在时先失败，会话保持可以重试的状态
+            if (!session.isOverwrite() && fs.exists(target)) {
+                throw new IllegalStateException("目标文件已存在: " + target);
+            }
+            Path merged = new Path(sessionDir, MERGED_FILE);
+            if (!session.isMerged()) {
+                List<HDFSUploadSession.Chunk> chunks = session.getChunks();
+                int expected = session.getChunkCount() != null ? session.getChunkCount() : chunks.size();
+                List<Integer> missing = missing(chunks, expected);
+                if (chunks.isEmpty() || !missing.isEmpty() || chunks.size() != expected) {
+                    throw new IllegalStateException("分片不完整, 缺少分片: " + missing);
+                }
+                Path result = fs instanceof DistributedFileSystem
+                        ? concat((DistributedFileSystem) fs, sessionDir, chunks)
+                        : merge(fs, sessionDir, chunks);
+                HDFSUtils.rename(fs, result, merged, false);
+            }
+            fs.mkdirs(target.getParent());
+            // 不覆盖时使用Rename.NONE，检查之后才出现的目标文件也不会被替换
+            HDFSUtils.rename(fs, merged, target, session.isOverwrite());
+            metadataCache.invalidate(fs, target);
+            fs.delete(sessionDir, true);
+
+            FileStatus status = fs.getFileStatus(target);
+            long elapsed = System.currentTimeMillis() - start;
+            HDFSUploadResult result = new HDFSUploadResult();
+            result.setPath(session.getPath());
+            result.setBytes(status.getLen());
+            result.setElapsedMillis(elapsed);
+            result.setBytesPerSecond(elapsed == 0 ? status.getLen() : status.getLen() * 1000 / elapsed);
+            result.setReplication(status.getReplication());
+            result.setBlockSize(status.getBlockSize());
+            return result;
+        } finally {
+            completing.remove(uploadId);
+        }
+    }
+
+    /**
+     * 放弃上传，删除会话和已上传的分片
+     * @param uploadId
+     * @throws IOException
+     */
+    public void abort(String uploadId) throws IOException {
+        readSession(uploadId);
+        fileSystemProvider.getFileSystem().delete(sessionDir(uploadId), true);
+    }
+
+    /**
+     * HDFS上把其他分片concat到第一个分片，concat要求所有文件在同一目录下，空文件不能参与合并
+     * @param fs
+     * @param sessionDir
+     * @param chunks
+     * @return
+     * @throws IOException
+     */
+    private Path concat(DistributedFileSystem fs, Path sessionDir, List<HDFSUploadSession.Chunk> chunks)
+            throws IOException {
+        Path first = new Path(sessionDir, chunkName(chunks.get(0).getIndex()));
+        List<Path> sources = new ArrayList<>();
+        for (HDFSUploadSession.Chunk chunk : chunks.subList(1, chunks.size())) {
+            if (chunk.getLength() > 0) {
+                sources.add(new Path(sessionDir, chunkName(chunk.getIndex())));
+            }
+        }
+        if (chunks.get(0).getLength() == 0 && !sources.isEmpty()) {
+            // 第一个分片为空时换成第一个非空分片作为合并目标
+            first = sources.remove(0);
+        }
+        if (!sources.isEmpty()) {
+            fs.concat(first, sources.toArray(new Path[0]));
+        }
+        return first;
+    }
+
+    /**
+     * 不支持concat的文件系统按顺序复制分片内容
+     * @param fs
+     * @param sessionDir
+     * @param chunks
+     * @return
+     * @throws IOException
+     */
+    private Path merge(FileSystem fs, Path sessionDir, List<HDFSUploadSession.Chunk> chunks) throws IOException {
+        Path merged = new Path(sessionDir, "." + MERGED_FILE + ".tmp");
+        try (FSDataOutputStream out = fs.create(merged, true)) {
+            for (HDFSUploadSession.Chunk chunk : chunks) {
+                try (FSDataInputStream in = fs.open(new Path(sessionDir, chunkName(chunk.getIndex())))) {
+                    IOUtils.copyBytes(in, out, BUFFER_SIZE, false);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 清理长时间没有更新的上传会话
+     */
+    private void collectGarbage() {
+        try {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            long expireBefore = System.currentTimeMillis() - sessionTtlMillis;
+            for (FileStatus status : fs.listStatus(new Path(stagingDir))) {
+                String uploadId = status.getPath().getName();
+                if (status.isDirectory() && lastUpdated(fs, status) < expireBefore && !completing.contains(uploadId)) {
+                    fs.delete(status.getPath(), true);
+                    log.info("清理过期的上传会话, uploadId={}", uploadId);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // 还没有任何上传会话
+        } catch (Exception e) {
+            log.warn("清理上传会话失败", e);
+        }
+    }
+
+    private static long lastUpdated(FileSystem fs, FileStatus dir) throws IOException {
+        long lastUpdated = dir.getModificationTime();
+        for (FileStatus child : fs.listStatus(dir.getPath())) {
+            lastUpdated = Math.max(lastUpdated, child.getModificationTime());
+        }
+        return lastUpdated;
+    }
+
+    private HDFSUploadSession readSession(String uploadId) throws IOException {
+        if (uploadId == null || !uploadId.matches("[A-Za-z0-9]+")) {
+            throw new IllegalArgumentException("uploadId不合法: " + uploadId);
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        try (FSDataInputStream in = fs.open(new Path(sessionDir(uploadId), SESSION_FILE))) {
+            return objectMapper.readValue((InputStream) in, HDFSUploadSession.class);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("上传会话不存在: " + uploadId);
+        }
+    }
+
+    private List<HDFSUploadSession.Chunk> listChunks(String uploadId) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        List<HDFSUploadSession.Chunk> chunks = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(sessionDir(uploadId))) {
+            Matcher matcher = CHUNK_NAME.matcher(status.getPath().getName());
+            if (status.isFile() && matcher.matches()) {
+                HDFSUploadSession.Chunk chunk = new HDFSUploadSession.Chunk();
+                chunk.setIndex(Integer.parseInt(matcher.group(1)));
+                chunk.setLength(status.getLen());
+                chunks.add(chunk);
+            }
+        }
+        chunks.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        return chunks;
+    }
+
+    private static List<Integer> missing(List<HDFSUploadSession.Chunk> chunks, int chunkCount) {
+        boolean[] present = new boolean[chunkCount];
+        for (HDFSUploadSession.Chunk chunk : chunks) {
+            if (chunk.getIndex() < chunkCount) {
+                present[chunk.getIndex()] = true;
+            }
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!present[i]) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    private Path sessionDir(String uploadId) {
+        return new Path(stagingDir, uploadId);
+    }
+
+    private static String chunkName(int index) {
+        return String.format(CHUNK_PREFIX + "%06d", index);
+    }
+}
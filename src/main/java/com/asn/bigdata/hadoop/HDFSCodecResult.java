@@ -0,0 +1,25 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 压缩读写的结果
+ */
+@Data
+public class HDFSCodecResult {
+
+    private String path;
+    // 转换压缩格式时的源文件
+    private String sourcePath;
+    // 压缩格式，为空表示不压缩
+    private String codec;
+    // 压缩前的字节数
+    private long rawBytes;
+    // 压缩后的字节数
+    private long compressedBytes;
+    // 压缩后与压缩前的大小比例
+    private double ratio;
+    // 压缩、解压占用的CPU时间
+    private long cpuMillis;
+    private long elapsedMillis;
+}
@@ -0,0 +1,334 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+
+import com.asn.bigdata.utils.UUIDUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 压缩格式感知的读写
+ * 压缩格式按请求参数或文件扩展名确定，支持io.compression.codecs中配置的所有格式
+ * （gzip、bzip2、deflate，加载了本地库时还支持snappy、lz4），压缩器和解压器从CodecPool中复用。
+ * 每次操作返回压缩比和CPU耗时，并按压缩格式累计统计，用来权衡CPU和磁盘、网络IO
+ */
+@Component
+@Slf4j
+public class HDFSCodecService {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String NONE = "none";
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+
+    private CompressionCodecFactory codecFactory;
+    private final ConcurrentMap<String, CodecStats> stats = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        codecFactory = new CompressionCodecFactory(fileSystemProvider.getConfiguration());
+    }
+
+    /**
+     * 确定压缩格式
+     * @param codecName 压缩格式名称，如gzip、bzip2、snappy，为空时按扩展名判断
+     * @param path
+     * @return 不压缩时返回null
+     */
+    public CompressionCodec resolve(String codecName, Path path) {
+        CompressionCodec codec;
+        if (codecName != null && !codecName.isEmpty()) {
+            if (NONE.equalsIgnoreCase(codecName)) {
+                return null;
+            }
+            codec = codecFactory.getCodecByName(codecName);
+            if (codec == null) {
+                throw new IllegalArgumentException("不支持的压缩格式: " + codecName);
+            }
+        } else {
+            codec = codecFactory.getCodec(path);
+        }
+        if (codec != null && !isAvailable(codec)) {
+            throw new IllegalArgumentException("压缩格式需要的本地库没有加载: " + codecName(codec));
+        }
+        return codec;
+    }
+
+    /**
+     * 支持的压缩格式
+     * @return
+     */
+    public List<Map<String, Object>> listCodecs() {
+        List<Map<String, Object>> codecs = new ArrayList<>();
+        for (Class<? extends CompressionCodec> codecClass
+                : CompressionCodecFactory.getCodecClasses(fileSystemProvider.getConfiguration())) {
+            CompressionCodec codec = codecFactory.getCodecByClassName(codecClass.getName());
+            if (codec == null) {
+                continue;
+            }
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", codecName(codec));
+            info.put("extension", codec.getDefaultExtension());
+            info.put("available", isAvailable(codec));
+            codecs.add(info);
+        }
+        return codecs;
+    }
+
+    /**
+     * 压缩写入新文件，指定了压缩格式而路径没有对应扩展名时自动补上，读取时可以按扩展名识别
+     * @param path
+     * @param in 原始内容
+     * @param codecName 为空时按扩展名判断
+     * @param overwrite
+     * @return
+     * @throws IOException
+     */
+    public HDFSCodecResult write(String path, InputStream in, String codecName, boolean overwrite) throws IOException {
+        CompressionCodec codec = resolve(codecName, new Path(path));
+        if (codec == null) {
+            throw new IllegalArgumentException("无法确定压缩格式: " + path);
+        }
+        if (!path.endsWith(codec.getDefaultExtension())) {
+            path = path + codec.getDefaultExtension();
+        }
+        HDFSCodecResult result = transcode(null, in, -1, null, path, codec, overwrite);
+        record("compress", result);
+        return result;
+    }
+
+    /**
+     * 复制文件并转换压缩格式：源文件按扩展名解压，目标文件按参数或扩展名压缩，都不压缩时等同于普通复制
+     * @param sourcePath
+     * @param targetPath
+     * @param codecName 目标文件的压缩格式，为空时按扩展名判断，none表示不压缩
+     * @param overwrite
+     * @return
+     * @throws IOException
+     */
+    public HDFSCodecResult copy(String sourcePath, String targetPath, String codecName, boolean overwrite)
+            throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path source = new Path(sourcePath);
+        CompressionCodec sourceCodec = codecFactory.getCodec(source);
+        CompressionCodec targetCodec = resolve(codecName, new Path(targetPath));
+        if (targetCodec != null && !targetPath.endsWith(targetCodec.getDefaultExtension())) {
+            targetPath = targetPath + targetCodec.getDefaultExtension();
+        }
+        long sourceLength = fs.getFileStatus(source).getLen();
+        try (FSDataInputStream in = fs.open(source, BUFFER_SIZE)) {
+            HDFSCodecResult result = transcode(sourceCodec, in, sourceLength, sourcePath, targetPath,
+                    targetCodec, overwrite);
+            record(targetCodec != null ? "compress" : "decompress", result);
+            return result;
+        }
+    }
+
+    /**
+     * 解压读取文件，写入输出流
+     * @param path
+     * @param codecName 为空时按扩展名判断
+     * @param out
+     * @return
+     * @throws IOException
+     */
+    public HDFSCodecResult read(String path, String codecName, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        long cpuStart = cpuTime();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path filePath = new Path(path);
+        CompressionCodec codec = resolve(codecName, filePath);
+        if (codec == null) {
+            throw new IllegalArgumentException("无法确定压缩格式: " + path);
+        }
+        Decompressor decompressor = CodecPool.getDecompressor(codec);
+        long rawBytes;
+        long compressedBytes;
+        try (FSDataInputStream fsIn = fs.open(filePath, BUFFER_SIZE);
+             CompressionInputStream in = codec.createInputStream(fsIn, decompressor)) {
+            rawBytes = copyBytes(in, out);
+            compressedBytes = fsIn.getPos();
+        } finally {
+            CodecPool.returnDecompressor(decompressor);
+        }
+        out.flush();
+        HDFSCodecResult result = result(path, null, codec, rawBytes, compressedBytes, cpuStart, start);
+        record("decompress", result);
+        return result;
+    }
+
+    /**
+     * 读取（必要时解压）输入流，写入（必要时压缩）目标文件
+     * 先写入同目录下的临时文件，完成后再改名为目标文件，失败时不会留下不完整的目标文件，也不会覆盖原有文件
+     */
+    private HDFSCodecResult transcode(CompressionCodec sourceCodec, InputStream in, long sourceLength,
+                                      String sourcePath, String targetPath, CompressionCodec targetCodec,
+                                      boolean overwrite) throws IOException {
+        long start = System.currentTimeMillis();
+        long cpuStart = cpuTime();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path target = new Path(targetPath);
+        if (!overwrite && fs.exists(target)) {
+            throw new FileAlreadyExistsException("目标文件已存在: " + targetPath);
+        }
+        Path tmp = new Path(target.getParent(), "." + target.getName() + "." + UUIDUtils.generateShortUuid8() + ".tmp");
+        Decompressor decompressor = sourceCodec != null ? CodecPool.getDecompressor(sourceCodec) : null;
+        Compressor compressor = targetCodec != null ? CodecPool.getCompressor(targetCodec) : null;
+        long rawBytes;
+        long targetBytes;
+        try (InputStream rawIn = sourceCodec != null ? sourceCodec.createInputStream(in, decompressor) : in;
+             FSDataOutputStream fsOut = fs.create(tmp, false, BUFFER_SIZE)) {
+            if (targetCodec != null) {
+                CompressionOutputStream out = targetCodec.createOutputStream(fsOut, compressor);
+                rawBytes = copyBytes(rawIn, out);
+                out.finish();
+            } else {
+                rawBytes = copyBytes(rawIn, fsOut);
+            }
+            fsOut.hflush();
+            targetBytes = fsOut.getPos();
+        } catch (IOException | RuntimeException e) {
+            fs.delete(tmp, false);
+            throw e;
+        } finally {
+            CodecPool.returnDecompressor(decompressor);
+            CodecPool.returnCompressor(compressor);
+        }
+        try {
+            HDFSUtils.rename(fs, tmp, target, overwrite);
+        } catch (IOException e) {
+            fs.delete(tmp, false);
+            throw e;
+        } finally {
+            metadataCache.invalidate(fs, target);
+        }
+        // 目标不压缩时，压缩后的大小指源文件的大小
+        long compressedBytes = targetCodec != null ? targetBytes : sourceLength;
+        return result(targetPath, sourcePath, targetCodec != null ? targetCodec : sourceCodec, rawBytes,
+                compressedBytes, cpuStart, start);
+    }
+
+    private HDFSCodecResult result(String path, String sourcePath, CompressionCodec codec, long rawBytes,
+                                   long compressedBytes, long cpuStart, long start) {
+        HDFSCodecResult result = new HDFSCodecResult();
+        result.setPath(path);
+        result.setSourcePath(sourcePath);
+        result.setCodec(codec != null ? codecName(codec) : NONE);
+        result.setRawBytes(rawBytes);
+        result.setCompressedBytes(compressedBytes);
+        result.setRatio(rawBytes == 0 ? 0 : (double) compressedBytes / rawBytes);
+        result.setCpuMillis((cpuTime() - cpuStart) / 1000000);
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static long copyBytes(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    private static long cpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * snappy、lz4等需要本地库的格式在没有加载本地库时不可用
+     */
+    private static boolean isAvailable(CompressionCodec codec) {
+        try {
+            codec.getCompressorType();
+            codec.getDecompressorType();
+            return true;
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static String codecName(CompressionCodec codec) {
+        String name = codec.getClass().getSimpleName();
+        return (name.endsWith("Codec") ? name.substring(0, name.length() - "Codec".length()) : name).toLowerCase();
+    }
+
+    private void record(String operation, HDFSCodecResult result) {
+        log.debug("压缩读写完成, operation={}, result={}", operation, result);
+        stats.computeIfAbsent(result.getCodec() + ":" + operation, k -> new CodecStats()).add(result);
+    }
+
+    /**
+     * 按压缩格式和操作类型累计的统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, CodecStats> entry : stats.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return metrics;
+    }
+
+    private static class CodecStats {
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+        private final LongAdder cpuMillis = new LongAdder();
+        private final LongAdder elapsedMillis = new LongAdder();
+
+        private void add(HDFSCodecResult result) {
+            operations.increment();
+            rawBytes.add(result.getRawBytes());
+            compressedBytes.add(result.getCompressedBytes());
+            cpuMillis.add(result.getCpuMillis());
+            elapsedMillis.add(result.getElapsedMillis());
+        }
+
+        private Map<String, Object> snapshot() {
+            long raw = rawBytes.sum();
+            long cpu = cpuMillis.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("operations", operations.sum());
+            snapshot.put("rawBytes", raw);
+            snapshot.put("compressedBytes", compressedBytes.sum());
+            snapshot.put("ratio", raw == 0 ? 0 : (double) compressedBytes.sum() / raw);
+            snapshot.put("cpuMillis", cpu);
+            snapshot.put("elapsedMillis", elapsedMillis.sum());
+            // 每CPU秒处理的原始字节数
+            snapshot.put("rawBytesPerCpuSecond", cpu == 0 ? 0 : raw * 1000 / cpu);
+            return snapshot;
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package com.asn.bigdata.hadoop;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 
 @Configuration
-public class HDFSConfig {
+public class HDFSConfig implements WebMvcConfigurer {
     @Value("${hdfs.path}")
     private String path;
 
+    @Autowired
+    private HDFSAsyncExecutor asyncExecutor;
+
     public String getPath() {
         return path;
     }
@@ -16,5 +22,14 @@ public class HDFSConfig {
     public void setPath(String path) {
         this.path = path;
     }
-}
 
+    /**
+     * 流式响应在数据传输线程池上执行，不占用Tomcat线程
+     * @param configurer
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(asyncExecutor.getStreamExecutor());
+        configurer.setDefaultTimeout(asyncExecutor.getStreamTimeout());
+    }
+}
@@ -1,18 +1,42 @@
 package com.asn.bigdata.hadoop;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
@@ -21,79 +45,427 @@ public class HDFSController {
 
     private static Logger LOGGER = LoggerFactory.getLogger(HDFSController.class);
 
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSParallelDownloader parallelDownloader;
+    @Autowired
+    private HDFSFileLister fileLister;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    @Autowired
+    private HDFSBatchExecutor batchExecutor;
+    @Autowired
+    private HDFSDiskUsageAnalyzer diskUsageAnalyzer;
+    @Autowired
+    private HDFSBulkDeleter bulkDeleter;
+    @Autowired
+    private HDFSFileFinder fileFinder;
+    @Autowired
+    private HDFSAsyncExecutor asyncExecutor;
+    @Autowired
+    private HDFSReadLatencyTracker latencyTracker;
+    @Autowired
+    private HDFSZeroCopyReader zeroCopyReader;
+    @Autowired
+    private HDFSSplitReader splitReader;
+    @Autowired
+    private HDFSFileFollower fileFollower;
+    @Autowired
+    private HDFSAppendWriter appendWriter;
+    @Autowired
+    private HDFSChunkedUploader chunkedUploader;
+    @Autowired
+    private HDFSDirectorySync directorySync;
+    @Autowired
+    private HDFSSmallFilePacker smallFilePacker;
+    @Autowired
+    private HDFSCodecService codecService;
+    @Autowired
+    private HDFSStorageTiering storageTiering;
+    @Autowired
+    private HDFSSnapshotService snapshotService;
+    @Autowired
+    private HDFSEventStream eventStream;
+    @Autowired
+    private HDFSLocalReadCache localReadCache;
+    @Autowired
+    private HDFSBlockAnalyzer blockAnalyzer;
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * 创建文件夹
      * @param path
      * @return
-     * @throws Exception
      */
     @RequestMapping(value = "mkdir", method = RequestMethod.GET)
-    public String mkdir(@RequestParam("path") String path) throws Exception {
-        if (StringUtils.isEmpty(path)) {
-            LOGGER.debug("请求参数为空");
-            return "请求参数为空";
-        }
-        // 创建空文件夹
-        boolean isOk = HDFSUtils.mkdir(path);
-        if (isOk) {
-            LOGGER.debug("文件夹创建成功");
-            return "文件夹创建成功";
-        } else {
-            LOGGER.debug("文件夹创建失败");
-            return "文件夹创建失败";
-        }
+    public DeferredResult<Object> mkdir(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                LOGGER.debug("请求参数为空");
+                return "请求参数为空";
+            }
+            // 创建空文件夹
+            boolean isOk = HDFSUtils.mkdir(path);
+            if (isOk) {
+                LOGGER.debug("文件夹创建成功");
+                return "文件夹创建成功";
+            } else {
+                LOGGER.debug("文件夹创建失败");
+                return "文件夹创建失败";
+            }
+        });
     }
 
     /**
      * 读取HDFS目录信息
      * @param path
      * @return
-     * @throws Exception
      */
     @PostMapping("/readPathInfo")
-    public String readPathInfo(@RequestParam("path") String path) throws Exception {
-        List<Map<String, Object>> list = HDFSUtils.readPathInfo(path);
-        return "读取HDFS目录信息成功";
+    public DeferredResult<Object> readPathInfo(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            List<Map<String, Object>> list = HDFSUtils.readPathInfo(path);
+            return "读取HDFS目录信息成功";
+        });
+    }
+
+    /**
+     * 统计目录树的磁盘占用、文件数、小文件数和大小分布
+     * @param path
+     * @param maxDepth 最大遍历深度，可选
+     * @param smallFileThreshold 小文件阈值（字节），可选
+     * @param timeBudgetMillis 时间预算（毫秒），可选
+     * @return
+     */
+    @RequestMapping(value = "/du", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> du(@RequestParam("path") String path,
+                                     @RequestParam(value = "maxDepth", required = false) Integer maxDepth,
+                                     @RequestParam(value = "smallFileThreshold", required = false) Long smallFileThreshold,
+                                     @RequestParam(value = "timeBudgetMillis", required = false) Long timeBudgetMillis) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            return diskUsageAnalyzer.analyze(path, maxDepth, smallFileThreshold, timeBudgetMillis);
+        }, diskUsageAnalyzer.getTimeout(timeBudgetMillis));
     }
 
     /**
      * 获取HDFS文件在集群中的位置
      * @param path
+     * @return 每个块的偏移量、长度和副本所在的主机
+     */
+    @PostMapping("/getFileBlockLocations")
+    public DeferredResult<Object> getFileBlockLocations(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            BlockLocation[] blockLocations = HDFSUtils.getFileBlockLocations(path);
+            if (blockLocations == null) {
+                return "文件不存在";
+            }
+            List<Map<String, Object>> blocks = new ArrayList<>();
+            for (BlockLocation location : blockLocations) {
+                Map<String, Object> block = new LinkedHashMap<>();
+                block.put("offset", location.getOffset());
+                block.put("length", location.getLength());
+                block.put("hosts", location.getHosts());
+                block.put("names", location.getNames());
+                block.put("corrupt", location.isCorrupt());
+                blocks.add(block);
+            }
+            return blocks;
+        });
+    }
+
+    /**
+     * 分析文件或目录的块分布：各DataNode的块数和字节数、副本不足的块、数据倾斜程度和本机读取比例
+     * @param path
+     * @param recursive 是否包含子目录，默认包含
+     * @return
+     */
+    @RequestMapping(value = "/blockDistribution", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> blockDistribution(@RequestParam("path") String path,
+                                                    @RequestParam(value = "recursive", defaultValue = "true") boolean recursive) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            try {
+                return blockAnalyzer.analyze(path, recursive);
+            } catch (FileNotFoundException e) {
+                return "路径不存在";
+            }
+        }, blockAnalyzer.getTimeout());
+    }
+
+    /**
+     * 创建文件，上传内容以流的方式分块写入HDFS
+     * @param path
+     * @param file
+     * @param replication 副本数，可选
+     * @param blockSize 块大小，可选
+     * @param overwrite 是否覆盖已存在的文件，默认覆盖
+     * @return 写入字节数、速率和MD5
+     */
+    @PostMapping("/createFile")
+    public DeferredResult<Object> createFile(@RequestParam("path") String path,
+                                             @RequestParam("file") MultipartFile file,
+                                             @RequestParam(value = "replication", required = false) Short replication,
+                                             @RequestParam(value = "blockSize", required = false) Long blockSize,
+                                             @RequestParam(value = "overwrite", defaultValue = "true") boolean overwrite) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(path) || null == file) {
+                return "请求参数为空";
+            }
+            HDFSUploadResult result = HDFSUtils.createFile(path, file, replication, blockSize, overwrite);
+            LOGGER.debug("创建文件成功: {}", result);
+            return result;
+        });
+    }
+
+    /**
+     * 压缩上传文件
+     * @param path 目标路径，指定了压缩格式而没有对应扩展名时自动补上
+     * @param file
+     * @param codec 压缩格式，如gzip、bzip2、deflate、snappy、lz4，为空时按扩展名判断
+     * @param overwrite 目标已存在时是否覆盖，默认覆盖
+     * @return 压缩比和CPU耗时
+     */
+    @PostMapping("/createCompressedFile")
+    public DeferredResult<Object> createCompressedFile(@RequestParam("path") String path,
+                                                       @RequestParam("file") MultipartFile file,
+                                                       @RequestParam(value = "codec", required = false) String codec,
+                                                       @RequestParam(value = "overwrite", defaultValue = "true") boolean overwrite) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(path) || null == file) {
+                return "请求参数为空";
+            }
+            try (InputStream in = file.getInputStream()) {
+                return codecService.write(path, in, codec, overwrite);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 解压读取文件，以字节流写入响应，压缩格式按参数或扩展名确定
+     * @param path
+     * @param codec 压缩格式，可选
+     * @param response
      * @return
      * @throws Exception
      */
-    @PostMapping("/getFileBlockLocations")
-    public String getFileBlockLocations(@RequestParam("path") String path) throws Exception {
-        BlockLocation[] blockLocations = HDFSUtils.getFileBlockLocations(path);
-        return "获取HDFS文件在集群中的位置";
+    @RequestMapping(value = "/readCompressedFile", method = {RequestMethod.GET, RequestMethod.POST})
+    public StreamingResponseBody readCompressedFile(@RequestParam("path") String path,
+                                                    @RequestParam(value = "codec", required = false) String codec,
+                                                    HttpServletResponse response) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "请求参数为空");
+            return null;
+        }
+        if (asyncExecutor.isTransferSaturated()) {
+            asyncExecutor.recordRejected();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙，请稍后重试");
+            return null;
+        }
+        FileStatus fileStatus = HDFSUtils.getFileStatus(path);
+        if (fileStatus == null || fileStatus.isDirectory()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在");
+            return null;
+        }
+        try {
+            if (codecService.resolve(codec, fileStatus.getPath()) == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "无法确定压缩格式");
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+        storageTiering.recordRead(path);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        return out -> {
+            HDFSCodecResult result = codecService.read(path, codec, out);
+            LOGGER.debug("解压读取文件: {}", result);
+        };
     }
 
     /**
-     * 创建文件
+     * 读取HDFS文件内容，直接以字节流写入响应
+     * 支持Range/If-Range断点续传和分段并行下载
+     * 文件内容在数据传输线程池上写出，线程池已满时返回503
+     * 本地块可以mmap时走零拷贝读取，否则使用普通读取；已打包的小文件从容器文件中读取
      * @param path
+     * @param skipChecksums 是否跳过校验和
+     * @param request
+     * @param response
      * @return
      * @throws Exception
      */
-    @PostMapping("/createFile")
-    public String createFile(@RequestParam("path") String path, @RequestParam("file") MultipartFile file)
-            throws Exception {
-        if (StringUtils.isEmpty(path) || null == file.getBytes()) {
-            return "请求参数为空";
+    @RequestMapping(value = "/readFile", method = {RequestMethod.GET, RequestMethod.POST})
+    public StreamingResponseBody readFile(@RequestParam("path") String path,
+                                          @RequestParam(value = "skipChecksums", defaultValue = "false") boolean skipChecksums,
+                                          HttpServletRequest request, HttpServletResponse response) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "请求参数为空");
+            return null;
+        }
+        if (asyncExecutor.isTransferSaturated()) {
+            asyncExecutor.recordRejected();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙，请稍后重试");
+            return null;
+        }
+        // 长度和ETag写入响应头，不使用可能过期的缓存状态
+        FileStatus fileStatus = HDFSUtils.getLatestFileStatus(path);
+        // 原文件不存在时检查是否已被打包到容器文件中
+        HDFSPackedFile packedFile = fileStatus == null ? smallFilePacker.read(path) : null;
+        if (packedFile != null) {
+            fileStatus = new FileStatus(packedFile.getLength(), false, 0, 0, packedFile.getModificationTime(),
+                    new Path(path));
+        }
+        if (fileStatus == null || fileStatus.isDirectory()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在");
+            return null;
+        }
+        if (packedFile == null) {
+            storageTiering.recordRead(path);
         }
-        HDFSUtils.createFile(path, file);
-        return "创建文件成功";
+        long fileLength = fileStatus.getLen();
+        String etag = HDFSUtils.getETag(fileStatus);
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, fileStatus.getModificationTime());
+
+        long start = 0;
+        long end = fileLength - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (StringUtils.isNotEmpty(rangeHeader) && fileLength > 0
+                && isIfRangeMatched(request, etag, fileStatus.getModificationTime())) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                // 只支持单个区间，多个区间时按完整文件返回
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(fileLength);
+                    end = ranges.get(0).getRangeEnd(fileLength);
+                    if (start >= fileLength || start > end) {
+                        throw new IllegalArgumentException("Range超出文件长度");
+                    }
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+                }
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("Range请求不合法: {}", rangeHeader);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return null;
+            }
+        }
+        long offset = start;
+        long length = end - start + 1;
+        FileStatus status = fileStatus;
+        response.setContentLengthLong(length);
+        return out -> {
+            if (packedFile != null) {
+                out.write(packedFile.getData(), (int) offset, (int) length);
+                out.flush();
+                return;
+            }
+            // 热点文件优先从本地缓存返回，文件不适合缓存或已变化时直接读HDFS
+            if (localReadCache.read(status, offset, length, out)) {
+                return;
+            }
+            try {
+                zeroCopyReader.read(path, offset, length, skipChecksums, out);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        };
     }
 
     /**
-     * 读取HDFS文件内容
+     * 跟踪正在写入的文件，通过SSE推送新追加的内容
+     * 事件id为下一次读取的位置，断线重连时浏览器会通过Last-Event-ID自动续传
      * @param path
+     * @param offset 起始位置，可选，默认从文件末尾tailBytes字节内的下一行开始
+     * @param tailBytes 可选
+     * @param request
+     * @param response
      * @return
      * @throws Exception
      */
-    @PostMapping("/readFile")
-    public String readFile(@RequestParam("path") String path) throws Exception {
-        String targetPath = HDFSUtils.readFile(path);
-        return "读取HDFS文件内容";
+    @GetMapping(value = "/followFile", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter followFile(@RequestParam("path") String path,
+                                 @RequestParam(value = "offset", required = false) Long offset,
+                                 @RequestParam(value = "tailBytes", required = false) Long tailBytes,
+                                 HttpServletRequest request, HttpServletResponse response) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "请求参数为空");
+            return null;
+        }
+        String lastEventId = request.getHeader("Last-Event-ID");
+        if (offset == null && StringUtils.isNumeric(lastEventId) && StringUtils.isNotEmpty(lastEventId)) {
+            offset = Long.parseLong(lastEventId);
+        }
+        FileStatus fileStatus = HDFSUtils.getFileStatus(path);
+        if (fileStatus == null || fileStatus.isDirectory()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "文件不存在");
+            return null;
+        }
+        SseEmitter emitter = fileFollower.follow(path, offset, tailBytes);
+        if (emitter == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "跟踪连接数已达上限，请稍后重试");
+        }
+        return emitter;
+    }
+
+    /**
+     * 订阅HDFS命名空间事件（新建、关闭、追加、重命名、元数据修改、删除），通过SSE推送
+     * 收到reset事件表示中间缺失了事件，客户端需要全量刷新一次；断线重连时按Last-Event-ID判断是否缺失了事件
+     * @param prefix 只接收该目录下的事件，可选
+     * @param request
+     * @param response
+     * @return
+     * @throws Exception
+     */
+    @GetMapping(value = "/subscribeEvents", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeEvents(@RequestParam(value = "prefix", required = false) String prefix,
+                                      HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String lastEventId = request.getHeader("Last-Event-ID");
+        // 还没有处理过事务时心跳的id为-1
+        Long lastTxid = lastEventId != null && lastEventId.matches("-?\\d{1,18}") ? Long.valueOf(lastEventId) : null;
+        SseEmitter emitter = eventStream.subscribe(prefix, lastTxid);
+        if (emitter == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "订阅连接数已达上限，请稍后重试");
+        }
+        return emitter;
+    }
+
+    /**
+     * 判断If-Range条件是否成立，不成立时忽略Range返回完整文件
+     * @param request
+     * @param etag
+     * @param modificationTime
+     * @return
+     */
+    private boolean isIfRangeMatched(HttpServletRequest request, String etag, long modificationTime) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (StringUtils.isEmpty(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            // HTTP日期只精确到秒
+            return request.getDateHeader(HttpHeaders.IF_RANGE) >= modificationTime / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
     /**
@@ -124,15 +496,175 @@ public class HDFSController {
      * 读取文件列表
      * @param path
      * @return
-     * @throws Exception
      */
     @PostMapping("/listFile")
-    public String listFile(@RequestParam("path") String path) throws Exception {
+    public DeferredResult<Object> listFile(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            List<Map<String, String>> returnList = HDFSUtils.listFile(path);
+            return "读取文件列表成功";
+        });
+    }
+
+    /**
+     * 分页读取文件列表
+     * @param path
+     * @param pageSize 每页文件数
+     * @param token 上一页返回的nextToken，第一页不传
+     * @return
+     */
+    @RequestMapping(value = "/listFilePage", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> listFilePage(@RequestParam("path") String path,
+                                               @RequestParam(value = "pageSize", defaultValue = "1000") int pageSize,
+                                               @RequestParam(value = "token", required = false) String token) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            try {
+                return fileLister.listPage(path, pageSize, token);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 流式读取文件列表，每行一个JSON对象(NDJSON)，边遍历边输出
+     * @param path
+     * @param token 游标，可选
+     * @param response
+     * @return
+     * @throws Exception
+     */
+    @RequestMapping(value = "/listFileStream", method = {RequestMethod.GET, RequestMethod.POST})
+    public StreamingResponseBody listFileStream(@RequestParam("path") String path,
+                                                @RequestParam(value = "token", required = false) String token,
+                                                HttpServletResponse response) throws Exception {
         if (StringUtils.isEmpty(path)) {
-            return "请求参数为空";
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "请求参数为空");
+            return null;
         }
-        List<Map<String, String>> returnList = HDFSUtils.listFile(path);
-        return "读取文件列表成功";
+        if (asyncExecutor.isTransferSaturated()) {
+            asyncExecutor.recordRejected();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙，请稍后重试");
+            return null;
+        }
+        try {
+            fileLister.checkToken(token);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        return out -> {
+            int[] count = new int[1];
+            fileLister.list(path, token, entry -> {
+                out.write(objectMapper.writeValueAsBytes(entry));
+                out.write('\n');
+                // 定期刷新，客户端可以边接收边处理
+                if (++count[0] % 1000 == 0) {
+                    out.flush();
+                }
+                return true;
+            });
+            out.flush();
+        };
+    }
+
+    /**
+     * 按通配符和过滤条件查找文件
+     * @param pattern 路径通配符
+     * @param nameRegex 文件名正则，可选
+     * @param minSize 最小字节数，可选
+     * @param maxSize 最大字节数，可选
+     * @param modifiedAfter 修改时间晚于该时间戳（毫秒），可选
+     * @param recursive 是否递归查找，默认递归
+     * @param maxResults 最多返回的文件数，可选
+     * @return
+     */
+    @RequestMapping(value = "/findFile", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> findFile(@RequestParam("pattern") String pattern,
+                                           @RequestParam(value = "nameRegex", required = false) String nameRegex,
+                                           @RequestParam(value = "minSize", required = false) Long minSize,
+                                           @RequestParam(value = "maxSize", required = false) Long maxSize,
+                                           @RequestParam(value = "modifiedAfter", required = false) Long modifiedAfter,
+                                           @RequestParam(value = "recursive", defaultValue = "true") boolean recursive,
+                                           @RequestParam(value = "maxResults", required = false) Integer maxResults) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(pattern)) {
+                return "请求参数为空";
+            }
+            HDFSFileFilter filter = new HDFSFileFilter(nameRegex, minSize, maxSize, modifiedAfter);
+            return fileFinder.find(pattern, filter, recursive, maxResults);
+        }, fileFinder.getTimeout());
+    }
+
+    /**
+     * 按分片并行检索文本文件，返回总行数、匹配行数和匹配的行
+     * @param path
+     * @param pattern 行内容正则，为空时只统计行数
+     * @param maxMatches 最多返回的匹配行数，可选
+     * @return
+     */
+    @RequestMapping(value = "/grepFile", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> grepFile(@RequestParam("path") String path,
+                                           @RequestParam(value = "pattern", required = false) String pattern,
+                                           @RequestParam(value = "maxMatches", required = false) Integer maxMatches) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            if (!HDFSUtils.existFile(path)) {
+                return "文件不存在";
+            }
+            try {
+                return splitReader.grep(path, pattern, maxMatches);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 向数据流追加一条记录，请求体即为记录内容，没有以换行结尾时自动补上换行
+     * 记录与其他请求的记录成批写入后返回，返回时数据已对读者可见
+     * @param stream 数据流名称
+     * @param sync 是否hsync到磁盘，可选
+     * @param body
+     * @return
+     */
+    @PostMapping("/append")
+    public DeferredResult<Object> append(@RequestParam("stream") String stream,
+                                         @RequestParam(value = "sync", required = false) Boolean sync,
+                                         @RequestBody byte[] body) {
+        DeferredResult<Object> result = new DeferredResult<>();
+        if (StringUtils.isEmpty(stream) || body == null || body.length == 0) {
+            result.setResult("请求参数为空");
+            return result;
+        }
+        byte[] record = body;
+        if (body[body.length - 1] != '\n') {
+            record = Arrays.copyOf(body, body.length + 1);
+            record[body.length] = '\n';
+        }
+        try {
+            appendWriter.append(stream, record, sync).whenComplete((ack, e) -> {
+                if (e == null) {
+                    result.setResult(ack);
+                } else if (e instanceof RejectedExecutionException) {
+                    result.setResult(asyncExecutor.busy());
+                } else {
+                    result.setErrorResult(e);
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            result.setResult(e.getMessage());
+        }
+        return result;
     }
 
     /**
@@ -140,36 +672,240 @@ public class HDFSController {
      * @param oldName
      * @param newName
      * @return
-     * @throws Exception
      */
     @PostMapping("/renameFile")
-    public String renameFile(@RequestParam("oldName") String oldName, @RequestParam("newName") String newName)
-            throws Exception {
-        if (StringUtils.isEmpty(oldName) || StringUtils.isEmpty(newName)) {
-            return "请求参数为空";
-        }
-        boolean isOk = HDFSUtils.renameFile(oldName, newName);
-        if (isOk) {
-            return "文件重命名成功";
-        } else {
-            return "文件重命名失败";
-        }
+    public DeferredResult<Object> renameFile(@RequestParam("oldName") String oldName,
+                                             @RequestParam("newName") String newName) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(oldName) || StringUtils.isEmpty(newName)) {
+                return "请求参数为空";
+            }
+            boolean isOk = HDFSUtils.renameFile(oldName, newName);
+            if (isOk) {
+                return "文件重命名成功";
+            } else {
+                return "文件重命名失败";
+            }
+        });
     }
 
     /**
      * 删除文件
      * @param path
+     * @param recursive 是否递归删除目录，默认递归
+     * @param skipTrash 是否跳过回收站，默认放入回收站
      * @return
-     * @throws Exception
      */
     @PostMapping("/deleteFile")
-    public String deleteFile(@RequestParam("path") String path) throws Exception {
-        boolean isOk = HDFSUtils.deleteFile(path);
-        if (isOk) {
-            return "delete file success";
-        } else {
-            return "delete file fail";
+    public DeferredResult<Object> deleteFile(@RequestParam("path") String path,
+                                             @RequestParam(value = "recursive", defaultValue = "true") boolean recursive,
+                                             @RequestParam(value = "skipTrash", defaultValue = "false") boolean skipTrash) {
+        return asyncExecutor.metadata(() -> {
+            boolean isOk;
+            try {
+                isOk = HDFSUtils.deleteFile(path, recursive, skipTrash);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+            if (isOk) {
+                return "delete file success";
+            } else {
+                return "delete file fail";
+            }
+        });
+    }
+
+    /**
+     * 按通配符批量删除，后台执行，返回任务状态
+     * @param pattern 路径通配符
+     * @param recursive 是否递归删除目录，默认递归
+     * @param skipTrash 是否跳过回收站，默认放入回收站
+     * @param ratePerSecond 每秒最多删除的路径数，可选
+     * @return
+     */
+    @PostMapping("/bulkDelete")
+    public DeferredResult<Object> bulkDelete(@RequestParam("pattern") String pattern,
+                                             @RequestParam(value = "recursive", defaultValue = "true") boolean recursive,
+                                             @RequestParam(value = "skipTrash", defaultValue = "false") boolean skipTrash,
+                                             @RequestParam(value = "ratePerSecond", required = false) Integer ratePerSecond) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(pattern)) {
+                return "请求参数为空";
+            }
+            try {
+                return bulkDeleter.submit(pattern, recursive, skipTrash, ratePerSecond);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 查询批量删除任务状态
+     * @param id
+     * @return
+     */
+    @RequestMapping(value = "/bulkDeleteStatus", method = {RequestMethod.GET, RequestMethod.POST})
+    public Object bulkDeleteStatus(@RequestParam("id") String id) {
+        HDFSDeleteJob job = bulkDeleter.getJob(id);
+        if (job == null) {
+            return "任务不存在";
         }
+        return job;
+    }
+
+    /**
+     * 把目录下的小文件打包到容器文件中，打包后的文件仍可通过readFile读取
+     * @param path 目录
+     * @param recursive 是否包含子目录，默认不包含
+     * @param deleteOriginals 打包后是否删除原文件，默认删除
+     * @return
+     */
+    @PostMapping("/packSmallFiles")
+    public DeferredResult<Object> packSmallFiles(@RequestParam("path") String path,
+                                                 @RequestParam(value = "recursive", defaultValue = "false") boolean recursive,
+                                                 @RequestParam(value = "deleteOriginals", defaultValue = "true") boolean deleteOriginals) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            try {
+                return smallFilePacker.pack(path, recursive, deleteOriginals);
+            } catch (IllegalStateException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 把本地目录增量同步到HDFS，只上传新增和变化的文件
+     * @param localPath 本地目录
+     * @param hdfsPath HDFS目录
+     * @param checksum 大小相同但修改时间不同的文件是否比较内容，默认不比较，直接上传
+     * @param delete 是否删除HDFS上本地不存在的文件，默认不删除
+     * @param skipTrash 删除时是否跳过回收站，默认放入回收站
+     * @param dryRun 只返回需要执行的操作，默认false
+     * @param parallelism 同时上传的文件数，可选
+     * @return
+     */
+    @PostMapping("/syncDirectory")
+    public DeferredResult<Object> syncDirectory(@RequestParam("localPath") String localPath,
+                                                @RequestParam("hdfsPath") String hdfsPath,
+                                                @RequestParam(value = "checksum", defaultValue = "false") boolean checksum,
+                                                @RequestParam(value = "delete", defaultValue = "false") boolean delete,
+                                                @RequestParam(value = "skipTrash", defaultValue = "false") boolean skipTrash,
+                                                @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun,
+                                                @RequestParam(value = "parallelism", required = false) Integer parallelism) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(localPath) || StringUtils.isEmpty(hdfsPath)) {
+                return "请求参数为空";
+            }
+            return directorySync.sync(localPath, hdfsPath, checksum, delete, skipTrash, dryRun, parallelism);
+        });
+    }
+
+    /**
+     * 创建分片上传会话
+     * @param path 目标路径
+     * @param chunkCount 分片总数，可选
+     * @param overwrite 目标已存在时是否覆盖，默认不覆盖
+     * @return 上传会话，后续请求使用其中的uploadId
+     */
+    @PostMapping("/uploadInit")
+    public DeferredResult<Object> uploadInit(@RequestParam("path") String path,
+                                             @RequestParam(value = "chunkCount", required = false) Integer chunkCount,
+                                             @RequestParam(value = "overwrite", defaultValue = "false") boolean overwrite) {
+        return asyncExecutor.metadata(() -> upload(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            return chunkedUploader.init(path, chunkCount, overwrite);
+        }));
+    }
+
+    /**
+     * 上传一个分片，请求体为分片内容，不同分片可以并行上传，失败的分片重新上传即可
+     * @param uploadId
+     * @param index 分片序号，从0开始
+     * @param md5 分片内容的MD5（十六进制），可选
+     * @param request
+     * @return
+     */
+    @PutMapping("/uploadChunk")
+    public DeferredResult<Object> uploadChunk(@RequestParam("uploadId") String uploadId,
+                                              @RequestParam("index") int index,
+                                              @RequestParam(value = "md5", required = false) String md5,
+                                              HttpServletRequest request) {
+        return asyncExecutor.transfer(() -> upload(() -> {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", index);
+            result.put("md5", chunkedUploader.putChunk(uploadId, index, md5, request.getInputStream()));
+            return result;
+        }));
+    }
+
+    /**
+     * 查询上传会话的状态，包括已上传和缺少的分片，用于断点续传
+     * @param uploadId
+     * @return
+     */
+    @GetMapping("/uploadStatus")
+    public DeferredResult<Object> uploadStatus(@RequestParam("uploadId") String uploadId) {
+        return asyncExecutor.metadata(() -> upload(() -> chunkedUploader.getSession(uploadId)));
+    }
+
+    /**
+     * 合并所有分片，生成目标文件
+     * @param uploadId
+     * @return
+     */
+    @PostMapping("/uploadComplete")
+    public DeferredResult<Object> uploadComplete(@RequestParam("uploadId") String uploadId) {
+        return asyncExecutor.transfer(() -> upload(() -> chunkedUploader.complete(uploadId)));
+    }
+
+    /**
+     * 放弃上传，删除已上传的分片
+     * @param uploadId
+     * @return
+     */
+    @PostMapping("/uploadAbort")
+    public DeferredResult<Object> uploadAbort(@RequestParam("uploadId") String uploadId) {
+        return asyncExecutor.metadata(() -> upload(() -> {
+            chunkedUploader.abort(uploadId);
+            return "已取消上传";
+        }));
+    }
+
+    /**
+     * 分片上传的参数或会话状态不正确时直接返回原因
+     * @param task
+     * @return
+     * @throws Exception
+     */
+    private Object upload(Callable<Object> task) throws Exception {
+        try {
+            return task.call();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 批量执行mkdir、rename、delete、copy、setReplication操作
+     * @param operations
+     * @param parallelism 同时执行的操作数，可选
+     * @return 每个操作的执行结果
+     */
+    @PostMapping("/batch")
+    public DeferredResult<Object> batch(@RequestBody List<HDFSBatchOperation> operations,
+                                        @RequestParam(value = "parallelism", required = false) Integer parallelism) {
+        return asyncExecutor.metadata(() -> {
+            if (operations == null || operations.isEmpty()) {
+                return "请求参数为空";
+            }
+            return batchExecutor.execute(operations, parallelism);
+        }, batchExecutor.getTimeout());
     }
 
     /**
@@ -177,13 +913,14 @@ public class HDFSController {
      * @param path
      * @param uploadPath
      * @return
-     * @throws Exception
      */
     @PostMapping("/uploadFile")
-    public String uploadFile(@RequestParam("path") String path, @RequestParam("uploadPath") String uploadPath)
-            throws Exception {
-        HDFSUtils.uploadFile(path, uploadPath);
-        return "upload file success";
+    public DeferredResult<Object> uploadFile(@RequestParam("path") String path,
+                                             @RequestParam("uploadPath") String uploadPath) {
+        return asyncExecutor.transfer(() -> {
+            HDFSUtils.uploadFile(path, uploadPath);
+            return "upload file success";
+        });
     }
 
     /**
@@ -191,13 +928,33 @@ public class HDFSController {
      * @param path
      * @param downloadPath
      * @return
-     * @throws Exception
      */
     @PostMapping("/downloadFile")
-    public String downloadFile(@RequestParam("path") String path, @RequestParam("downloadPath") String downloadPath)
-            throws Exception {
-        HDFSUtils.downloadFile(path, downloadPath);
-        return "download file success";
+    public DeferredResult<Object> downloadFile(@RequestParam("path") String path,
+                                               @RequestParam("downloadPath") String downloadPath) {
+        return asyncExecutor.transfer(() -> {
+            HDFSUtils.downloadFile(path, downloadPath);
+            return "download file success";
+        });
+    }
+
+    /**
+     * 按块并行下载文件
+     * @param path
+     * @param downloadPath
+     * @param parallelism 同时下载的块数，可选
+     * @return 下载字节数、块数、重试次数和速率
+     */
+    @PostMapping("/parallelDownloadFile")
+    public DeferredResult<Object> parallelDownloadFile(@RequestParam("path") String path,
+                                                       @RequestParam("downloadPath") String downloadPath,
+                                                       @RequestParam(value = "parallelism", required = false) Integer parallelism) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(path) || StringUtils.isEmpty(downloadPath)) {
+                return "请求参数为空";
+            }
+            return parallelDownloader.download(path, downloadPath, parallelism);
+        });
     }
 
     /**
@@ -205,24 +962,311 @@ public class HDFSController {
      * @param sourcePath
      * @param targetPath
      * @return
-     * @throws Exception
      */
     @PostMapping("/copyFile")
-    public String copyFile(@RequestParam("sourcePath") String sourcePath, @RequestParam("targetPath") String targetPath)
-            throws Exception {
-        HDFSUtils.copyFile(sourcePath, targetPath);
-        return "copy file success";
+    public DeferredResult<Object> copyFile(@RequestParam("sourcePath") String sourcePath,
+                                           @RequestParam("targetPath") String targetPath) {
+        return asyncExecutor.transfer(() -> {
+            HDFSUtils.copyFile(sourcePath, targetPath);
+            return "copy file success";
+        });
+    }
+
+    /**
+     * 复制文件并转换压缩格式，源文件按扩展名解压
+     * @param sourcePath
+     * @param targetPath
+     * @param codec 目标文件的压缩格式，为空时按扩展名判断，none表示不压缩
+     * @param overwrite 目标已存在时是否覆盖，默认覆盖
+     * @return 压缩比和CPU耗时
+     */
+    @PostMapping("/copyCompressedFile")
+    public DeferredResult<Object> copyCompressedFile(@RequestParam("sourcePath") String sourcePath,
+                                                     @RequestParam("targetPath") String targetPath,
+                                                     @RequestParam(value = "codec", required = false) String codec,
+                                                     @RequestParam(value = "overwrite", defaultValue = "true") boolean overwrite) {
+        return asyncExecutor.transfer(() -> {
+            if (StringUtils.isEmpty(sourcePath) || StringUtils.isEmpty(targetPath)) {
+                return "请求参数为空";
+            }
+            try {
+                return codecService.copy(sourcePath, targetPath, codec, overwrite);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 查看支持的压缩格式，available为false表示需要的本地库没有加载
+     * @return
+     */
+    @GetMapping("/codecs")
+    public List<Map<String, Object>> codecs() {
+        return codecService.listCodecs();
+    }
+
+    /**
+     * 查看按压缩格式累计的压缩比和CPU耗时
+     * @return
+     */
+    @GetMapping("/codecMetrics")
+    public Map<String, Object> codecMetrics() {
+        return codecService.getMetrics();
+    }
+
+    /**
+     * 查看集群支持的存储策略
+     * @return
+     */
+    @GetMapping("/storagePolicies")
+    public DeferredResult<Object> storagePolicies() {
+        return asyncExecutor.metadata(() -> {
+            try {
+                return storageTiering.listPolicies();
+            } catch (IllegalStateException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 查看路径的存储策略及读取次数
+     * @param path
+     * @return
+     */
+    @RequestMapping(value = "/getStoragePolicy", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> getStoragePolicy(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path)) {
+                return "请求参数为空";
+            }
+            try {
+                HDFSStoragePolicyInfo info = storageTiering.getPolicy(path);
+                return info == null ? "路径不存在" : info;
+            } catch (IllegalStateException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 设置路径的存储策略，已有的块需要运行hdfs mover迁移
+     * @param path
+     * @param policy HOT、WARM、COLD、ALL_SSD、ONE_SSD、LAZY_PERSIST
+     * @return
+     */
+    @PostMapping("/setStoragePolicy")
+    public DeferredResult<Object> setStoragePolicy(@RequestParam("path") String path,
+                                                   @RequestParam("policy") String policy) {
+        return asyncExecutor.metadata(() -> {
+            if (StringUtils.isEmpty(path) || StringUtils.isEmpty(policy)) {
+                return "请求参数为空";
+            }
+            try {
+                return storageTiering.setPolicy(path, policy);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * 查看按访问频率自动分层的统计信息和最近的调整记录
+     * @return
+     */
+    @GetMapping("/tieringMetrics")
+    public Map<String, Object> tieringMetrics() {
+        return storageTiering.getMetrics();
+    }
+
+    /**
+     * 创建快照
+     * @param path 开启了快照的目录
+     * @param name 快照名，可选，默认按时间生成
+     * @return
+     */
+    @PostMapping("/createSnapshot")
+    public DeferredResult<Object> createSnapshot(@RequestParam("path") String path,
+                                                 @RequestParam(value = "name", required = false) String name) {
+        return asyncExecutor.metadata(() -> snapshot(path, () -> snapshotService.create(path, name)));
+    }
+
+    /**
+     * 删除快照
+     * @param path
+     * @param name
+     * @return
+     */
+    @PostMapping("/deleteSnapshot")
+    public DeferredResult<Object> deleteSnapshot(@RequestParam("path") String path,
+                                                 @RequestParam("name") String name) {
+        return asyncExecutor.metadata(() -> snapshot(path, () -> {
+            snapshotService.delete(path, name);
+            return "删除成功";
+        }));
+    }
+
+    /**
+     * 列出目录的快照
+     * @param path
+     * @return
+     */
+    @RequestMapping(value = "/listSnapshots", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> listSnapshots(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> snapshot(path, () -> snapshotService.list(path)));
+    }
+
+    /**
+     * 查询两个快照之间新建、修改、删除、重命名的路径
+     * @param path 开启了快照的目录
+     * @param fromSnapshot
+     * @param toSnapshot 可选，为空时与目录的当前状态比较
+     * @return
+     */
+    @RequestMapping(value = "/snapshotDiff", method = {RequestMethod.GET, RequestMethod.POST})
+    public DeferredResult<Object> snapshotDiff(@RequestParam("path") String path,
+                                               @RequestParam("fromSnapshot") String fromSnapshot,
+                                               @RequestParam(value = "toSnapshot", required = false) String toSnapshot) {
+        return asyncExecutor.metadata(() -> snapshot(path,
+                () -> snapshotService.diff(path, fromSnapshot, toSnapshot)));
+    }
+
+    /**
+     * 滚动快照：创建新快照（最新快照在reuse-ms内创建时直接复用）并返回since以来的变化，旧快照按保留数量自动清理
+     * 调用方保存返回的cursor，下次作为since传入；truncated为true时传入toSnapshot和nextOffset继续读取剩余的变化
+     * @param path 开启了快照的目录
+     * @param since 上次返回的cursor，第一次调用时不传
+     * @param until 继续读取截断的变化时传入上次返回的toSnapshot
+     * @param offset 继续读取截断的变化时传入上次返回的nextOffset
+     * @return
+     */
+    @PostMapping("/snapshotChanges")
+    public DeferredResult<Object> snapshotChanges(@RequestParam("path") String path,
+                                                  @RequestParam(value = "since", required = false) String since,
+                                                  @RequestParam(value = "until", required = false) String until,
+                                                  @RequestParam(value = "offset", defaultValue = "0") int offset) {
+        return asyncExecutor.metadata(() -> snapshot(path,
+                () -> snapshotService.changes(path, since, until, offset)));
+    }
+
+    private Object snapshot(String path, Callable<Object> action) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            return "请求参数为空";
+        }
+        try {
+            return action.call();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            return e.getMessage();
+        }
     }
 
     /**
      * 查看文件是否已存在
      * @param path
      * @return
-     * @throws Exception
      */
     @PostMapping("/existFile")
-    public String existFile(@RequestParam("path") String path) throws Exception {
-        boolean isExist = HDFSUtils.existFile(path);
-        return "file isExist: "+isExist;
+    public DeferredResult<Object> existFile(@RequestParam("path") String path) {
+        return asyncExecutor.metadata(() -> {
+            boolean isExist = HDFSUtils.existFile(path);
+            return "file isExist: "+isExist;
+        });
+    }
+
+    /**
+     * 查看元数据缓存的命中统计
+     * @return
+     */
+    @GetMapping("/metadataCacheMetrics")
+    public Map<String, Object> metadataCacheMetrics() {
+        return metadataCache.getMetrics();
+    }
+
+    /**
+     * 查看各DataNode的读取延迟和对冲读统计，找出慢节点
+     * @return
+     */
+    @GetMapping("/readDiagnostics")
+    public DeferredResult<Object> readDiagnostics() {
+        return asyncExecutor.metadata(() -> latencyTracker.getDiagnostics());
+    }
+
+    /**
+     * 查看零拷贝读取的统计
+     * @return
+     */
+    @GetMapping("/zeroCopyMetrics")
+    public Map<String, Object> zeroCopyMetrics() {
+        return zeroCopyReader.getMetrics();
+    }
+
+    /**
+     * 查看文件跟踪连接的统计
+     * @return
+     */
+    @GetMapping("/followMetrics")
+    public Map<String, Object> followMetrics() {
+        return fileFollower.getMetrics();
+    }
+
+    /**
+     * 查看命名空间事件流的统计信息
+     * @return
+     */
+    @GetMapping("/eventMetrics")
+    public Map<String, Object> eventMetrics() {
+        return eventStream.getMetrics();
+    }
+
+    /**
+     * 查看本地读缓存的命中统计
+     * @return
+     */
+    @GetMapping("/localCacheMetrics")
+    public Map<String, Object> localCacheMetrics() {
+        return localReadCache.getMetrics();
+    }
+
+    /**
+     * 查看追加写入的统计
+     * @return
+     */
+    @GetMapping("/appendMetrics")
+    public Map<String, Object> appendMetrics() {
+        return appendWriter.getMetrics();
+    }
+
+    /**
+     * 查看异步执行线程池的使用情况
+     * @return
+     */
+    @GetMapping("/asyncMetrics")
+    public Map<String, Object> asyncMetrics() {
+        return asyncExecutor.getMetrics();
+    }
+
+    /**
+     * 异步执行的线程池已满时返回503
+     * @param e
+     * @param response
+     * @throws IOException
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public void handleRejected(RejectedExecutionException e, HttpServletResponse response) throws IOException {
+        asyncExecutor.recordRejected();
+        if (!response.isCommitted()) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙，请稍后重试");
+        }
+    }
+
+    /**
+     * 查看HDFS文件系统对象的获取统计
+     * @return
+     */
+    @GetMapping("/fsMetrics")
+    public Map<String, Object> fsMetrics() {
+        return fileSystemProvider.getMetrics();
     }
 }
@@ -0,0 +1,44 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Data;
+
+/**
+ * 批量删除任务的执行状态
+ */
+@Data
+public class HDFSDeleteJob {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String FINISHED = "FINISHED";
+    public static final String FAILED = "FAILED";
+    // 最多记录的失败路径数
+    private static final int MAX_FAILURES = 100;
+
+    private String id;
+    private String pattern;
+    private boolean recursive;
+    private boolean skipTrash;
+    private volatile String state = RUNNING;
+    private volatile long matched;
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> failures = new CopyOnWriteArrayList<>();
+    private volatile String message;
+    private long startTime;
+    private volatile long endTime;
+
+    public void addFailure(String path, Exception e) {
+        failed.incrementAndGet();
+        if (failures.size() < MAX_FAILURES) {
+            failures.add(path + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isDone() {
+        return !RUNNING.equals(state);
+    }
+}
@@ -0,0 +1,333 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.DataChecksum;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 类似rsync的本地目录到HDFS的增量同步
+ * 按文件大小和修改时间判断是否变化，只上传新增和变化的文件，上传后把HDFS文件的修改时间设置为本地文件的修改时间，
+ * 下次同步时未变化的文件直接跳过。开启内容校验时，大小相同但修改时间不同的文件在本地按HDFS的块划分计算
+ * MD5-of-MD5-of-CRC校验和，与getFileChecksum的结果比较，内容一致时只更新修改时间，不需要读取HDFS上的数据
+ */
+@Component
+@Slf4j
+public class HDFSDirectorySync {
+
+    private static final String NEW = "NEW";
+    private static final String CHANGED = "CHANGED";
+    private static final String TOUCH = "TOUCH";
+    private static final String DELETE = "DELETE";
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    @Value("${hdfs.sync.threads:8}")
+    private int threads;
+    @Value("${hdfs.sync.parallelism:4}")
+    private int defaultParallelism;
+    @Value("${hdfs.sync.max-report:1000}")
+    private int maxReport;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * 16), new CustomizableThreadFactory("hdfs-sync-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 把本地目录同步到HDFS目录
+     * @param localPath 本地目录
+     * @param hdfsPath HDFS目录
+     * @param checksum 大小相同修改时间不同时是否比较内容
+     * @param delete 是否删除HDFS上本地不存在的文件
+     * @param skipTrash 删除时是否跳过回收站，与deleteFile一致，已打包的文件同样删除
+     * @param dryRun 只返回需要执行的操作，不修改HDFS
+     * @param parallelism 同时上传的文件数，为空时使用默认值
+     * @return
+     * @throws Exception
+     */
+    public HDFSSyncResult sync(String localPath, String hdfsPath, boolean checksum, boolean delete, boolean skipTrash,
+                               boolean dryRun, Integer parallelism) throws Exception {
+        long start = System.currentTimeMillis();
+        java.nio.file.Path localRoot = java.nio.file.Paths.get(localPath);
+        if (!Files.isDirectory(localRoot)) {
+            throw new IllegalArgumentException("本地目录不存在: " + localPath);
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path remoteRoot = fs.makeQualified(new Path(hdfsPath));
+        Map<String, BasicFileAttributes> localFiles = listLocal(localRoot);
+        Map<String, FileStatus> remoteFiles = listRemote(fs, remoteRoot);
+
+        HDFSSyncResult result = new HDFSSyncResult();
+        result.setLocalPath(localPath);
+        result.setHdfsPath(hdfsPath);
+        result.setDryRun(dryRun);
+        result.setLocalFiles(localFiles.size());
+        result.setRemoteFiles(remoteFiles.size());
+
+        List<Task> tasks = new ArrayList<>();
+        for (Map.Entry<String, BasicFileAttributes> entry : localFiles.entrySet()) {
+            FileStatus remote = remoteFiles.get(entry.getKey());
+            BasicFileAttributes local = entry.getValue();
+            if (remote == null) {
+                tasks.add(new Task(NEW, entry.getKey(), local, null));
+            } else if (remote.getLen() != local.size()) {
+                tasks.add(new Task(CHANGED, entry.getKey(), local, remote));
+            } else if (remote.getModificationTime() != local.lastModifiedTime().toMillis()) {
+                // 大小相同、时间不同：不校验内容时按变化处理，否则在执行阶段比较校验和
+                tasks.add(new Task(checksum ? TOUCH : CHANGED, entry.getKey(), local, remote));
+            } else {
+                result.setUnchangedFiles(result.getUnchangedFiles() + 1);
+            }
+        }
+        if (delete) {
+            for (Map.Entry<String, FileStatus> entry : remoteFiles.entrySet()) {
+                if (!localFiles.containsKey(entry.getKey())) {
+                    tasks.add(new Task(DELETE, entry.getKey(), null, entry.getValue()));
+                }
+            }
+        }
+        if (!dryRun) {
+            run(fs, localRoot, remoteRoot, tasks, skipTrash, parallelism);
+        }
+        tasks.sort((a, b) -> a.relativePath.compareTo(b.relativePath));
+        for (Task task : tasks) {
+            if (task.error != null) {
+                result.setFailedFiles(result.getFailedFiles() + 1);
+            } else if (NEW.equals(task.type) || CHANGED.equals(task.type)) {
+                result.setUploadedFiles(result.getUploadedFiles() + 1);
+                result.setUploadedBytes(result.getUploadedBytes() + task.local.size());
+            } else if (TOUCH.equals(task.type)) {
+                result.setTouchedFiles(result.getTouchedFiles() + 1);
+            } else if (DELETE.equals(task.type)) {
+                result.setDeletedFiles(result.getDeletedFiles() + 1);
+            }
+            if (result.getActions().size() >= maxReport) {
+                result.setTruncated(true);
+                continue;
+            }
+            HDFSSyncResult.Action action = new HDFSSyncResult.Action();
+            action.setType(task.type);
+            action.setPath(task.relativePath);
+            action.setBytes(task.local != null ? task.local.size() : task.remote.getLen());
+            action.setError(task.error);
+            result.getActions().add(action);
+        }
+        metadataCache.invalidate(fs, remoteRoot);
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 并发执行同步操作，单个文件失败不影响其他文件
+     */
+    private void run(FileSystem fs, java.nio.file.Path localRoot, Path remoteRoot, List<Task> tasks,
+                     boolean skipTrash, Integer parallelism) throws Exception {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(parallelism != null ? parallelism : defaultParallelism,
+                Math.min(threads, tasks.size())));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < tasks.size()) {
+                    Task task = tasks.get(index);
+                    try {
+                        execute(fs, localRoot, remoteRoot, task, skipTrash);
+                    } catch (Exception e) {
+                        log.warn("同步文件失败, type={}, path={}", task.type, task.relativePath, e);
+                        task.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private void execute(FileSystem fs, java.nio.file.Path localRoot, Path remoteRoot, Task task,
+                         boolean skipTrash) throws Exception {
+        Path remotePath = new Path(remoteRoot, task.relativePath);
+        if (DELETE.equals(task.type)) {
+            // 与deleteFile接口一致：默认放入回收站，同时删除容器文件中的打包记录
+            HDFSUtils.deleteFile(remotePath.toUri().getPath(), false, skipTrash);
+            return;
+        }
+        java.nio.file.Path localFile = localRoot.resolve(task.relativePath);
+        long mtime = task.local.lastModifiedTime().toMillis();
+        if (TOUCH.equals(task.type) && !sameContent(fs, localFile, task.remote)) {
+            task.type = CHANGED;
+        }
+        if (!TOUCH.equals(task.type)) {
+            fs.copyFromLocalFile(false, true, new Path(localFile.toUri()), remotePath);
+        }
+        // 修改时间与本地一致，下次同步时按大小和时间即可判断未变化
+        fs.setTimes(remotePath, mtime, -1);
+    }
+
+    /**
+     * 比较本地文件与HDFS文件的内容是否一致
+     * HDFS支持MD5-of-MD5-of-CRC校验和时在本地按同样的块划分计算，否则两边各读一遍计算MD5
+     */
+    private boolean sameContent(FileSystem fs, java.nio.file.Path localFile, FileStatus remote) throws IOException {
+        FileChecksum remoteChecksum = fs.getFileChecksum(remote.getPath());
+        if (remoteChecksum instanceof MD5MD5CRC32FileChecksum) {
+            BlockLocation[] blocks = fs.getFileBlockLocations(remote, 0, remote.getLen());
+            FileChecksum localChecksum = localChecksum(localFile, (MD5MD5CRC32FileChecksum) remoteChecksum, blocks);
+            return remoteChecksum.equals(localChecksum);
+        }
+        try (InputStream localIn = Files.newInputStream(localFile);
+             InputStream remoteIn = fs.open(remote.getPath())) {
+            return Arrays.equals(DigestUtils.md5(localIn), DigestUtils.md5(remoteIn));
+        }
+    }
+
+    /**
+     * 按HDFS文件的块划分计算本地文件的校验和：每个块内每bytesPerCRC字节一个CRC，块的MD5为所有CRC的MD5，
+     * 文件的MD5为所有块MD5的MD5，与DataNode和DFSClient的计算方式相同
+     */
+    static FileChecksum localChecksum(java.nio.file.Path localFile, MD5MD5CRC32FileChecksum remote,
+                                      BlockLocation[] blocks) throws IOException {
+        DataChecksum.Type crcType = remote.getCrcType();
+        int bytesPerCrc = remote.getChecksumOpt().getBytesPerChecksum();
+        DataChecksum crc = DataChecksum.newDataChecksum(crcType, bytesPerCrc);
+        MessageDigest fileDigest = DigestUtils.getMd5Digest();
+        MessageDigest blockDigest = DigestUtils.getMd5Digest();
+        byte[] chunk = new byte[bytesPerCrc];
+        byte[] crcBytes = new byte[4];
+        long crcPerBlock = 0;
+        try (InputStream in = Files.newInputStream(localFile)) {
+            for (int i = 0; i < blocks.length; i++) {
+                long remaining = blocks[i].getLength();
+                long crcCount = 0;
+                while (remaining > 0) {
+                    int len = (int) Math.min(bytesPerCrc, remaining);
+                    IOUtils.readFully(in, chunk, 0, len);
+                    crc.reset();
+                    crc.update(chunk, 0, len);
+                    int value = (int) crc.getValue();
+                    crcBytes[0] = (byte) (value >>> 24);
+                    crcBytes[1] = (byte) (value >>> 16);
+                    crcBytes[2] = (byte) (value >>> 8);
+                    crcBytes[3] = (byte) value;
+                    blockDigest.update(crcBytes);
+                    remaining -= len;
+                    crcCount++;
+                }
+                fileDigest.update(blockDigest.digest());
+                if (i == 0 && blocks.length > 1) {
+                    crcPerBlock = crcCount;
+                }
+            }
+        }
+        MD5Hash md5 = new MD5Hash(fileDigest.digest());
+        if (crcType == DataChecksum.Type.CRC32C) {
+            return new MD5MD5CRC32CastagnoliFileChecksum(bytesPerCrc, crcPerBlock, md5);
+        }
+        return new MD5MD5CRC32GzipFileChecksum(bytesPerCrc, crcPerBlock, md5);
+    }
+
+    private static Map<String, BasicFileAttributes> listLocal(java.nio.file.Path root) throws IOException {
+        Map<String, BasicFileAttributes> files = new HashMap<>();
+        try (Stream<java.nio.file.Path> paths = Files.walk(root)) {
+            for (java.nio.file.Path path : (Iterable<java.nio.file.Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    files.put(root.relativize(path).toString().replace('\\', '/'), attributes);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, FileStatus> listRemote(FileSystem fs, Path root) throws IOException {
+        Map<String, FileStatus> files = new HashMap<>();
+        if (!fs.exists(root)) {
+            return files;
+        }
+        String prefix = root.toUri().getPath();
+        prefix = prefix.endsWith("/") ? prefix : prefix + "/";
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(root, true);
+        while (iterator.hasNext()) {
+            LocatedFileStatus status = iterator.next();
+            String path = status.getPath().toUri().getPath();
+            if (path.startsWith(prefix)) {
+                files.put(path.substring(prefix.length()), status);
+            }
+        }
+        return files;
+    }
+
+    private static class Task {
+        private String type;
+        private final String relativePath;
+        private final BasicFileAttributes local;
+        private final FileStatus remote;
+        private volatile String error;
+
+        private Task(String type, String relativePath, BasicFileAttributes local, FileStatus remote) {
+            this.type = type;
+            this.relativePath = relativePath;
+            this.local = local;
+            this.remote = remote;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * 目录树的磁盘占用统计
+ */
+@Data
+public class HDFSDiskUsage {
+
+    private String path;
+    private long bytes;
+    private long files;
+    private long directories;
+    private long smallFiles;
+    private long smallFileThreshold;
+    // 文件大小分布，key为区间上限
+    private Map<String, Long> histogram;
+    // 按层级的统计，根目录的直接子节点为第1层，超过深度限制的内容计入最后一层
+    private List<Level> levels;
+    // 超过深度限制、内容合并计入最后一层的目录数
+    private long summarizedDirectories;
+    // 超过时间预算未遍历的目录数
+    private long skippedDirectories;
+    // 没有权限或读取失败的目录数
+    private long failedDirectories;
+    // 是否因为时间预算没有遍历完整
+    private boolean truncated;
+    private long elapsedMillis;
+
+    @Data
+    public static class Level {
+        private int level;
+        private long bytes;
+        private long files;
+        private long directories;
+        private long smallFiles;
+        private Map<String, Long> histogram;
+    }
+}
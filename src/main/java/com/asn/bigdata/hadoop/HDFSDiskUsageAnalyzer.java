@@ -0,0 +1,255 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 并行统计目录树的磁盘占用
+ * 使用ForkJoinPool遍历目录，同一目录下的子目录并发执行listStatus，超过时间预算后停止继续展开，返回已统计的部分结果。
+ * 超过深度限制的目录同样用listStatus继续遍历，内容合并计入最后一层；不使用getContentSummary，
+ * 它在NameNode上一次遍历整个子树，耗时不受时间预算控制。
+ * 请求超时被取消时所有未开始的目录任务直接返回
+ */
+@Component
+@Slf4j
+public class HDFSDiskUsageAnalyzer {
+
+    // 文件大小分布的区间上限
+    private static final long[] BUCKETS = {0, 1024L, 64 * 1024L, 1024 * 1024L, 16 * 1024 * 1024L,
+            128 * 1024 * 1024L, 1024 * 1024 * 1024L, Long.MAX_VALUE};
+    private static final String[] BUCKET_NAMES = {"0", "1KB", "64KB", "1MB", "16MB", "128MB", "1GB", "inf"};
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.du.max-depth:8}")
+    private int defaultMaxDepth;
+    @Value("${hdfs.du.small-file-threshold:1048576}")
+    private long defaultSmallFileThreshold;
+    @Value("${hdfs.du.time-budget-ms:20000}")
+    private long defaultTimeBudgetMillis;
+    // 请求超时时间在时间预算之外的余量，用于完成预算用完时正在执行的listStatus
+    @Value("${hdfs.du.timeout-grace-ms:10000}")
+    private long timeoutGraceMillis;
+
+    private final ForkJoinPool pool;
+
+    public HDFSDiskUsageAnalyzer(@Value("${hdfs.du.parallelism:8}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 按时间预算计算请求的超时时间，保证预算用完后的部分结果能在超时之前返回
+     * @param timeBudgetMillis 时间预算（毫秒），为空时使用默认值
+     * @return
+     */
+    public long getTimeout(Long timeBudgetMillis) {
+        return (timeBudgetMillis != null ? timeBudgetMillis : defaultTimeBudgetMillis) + timeoutGraceMillis;
+    }
+
+    /**
+     * 统计目录树的磁盘占用
+     * @param path
+     * @param maxDepth 最大遍历深度，为空时使用默认值
+     * @param smallFileThreshold 小文件阈值（字节），为空时使用默认值
+     * @param timeBudgetMillis 时间预算（毫秒），为空时使用默认值
+     * @return
+     * @throws IOException
+     */
+    public HDFSDiskUsage analyze(String path, Integer maxDepth, Long smallFileThreshold, Long timeBudgetMillis)
+            throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path root = new Path(path);
+        FileStatus rootStatus = fs.getFileStatus(root);
+        long start = System.currentTimeMillis();
+        Walk walk = new Walk(fs, maxDepth != null ? maxDepth : defaultMaxDepth,
+                smallFileThreshold != null ? smallFileThreshold : defaultSmallFileThreshold,
+                start + (timeBudgetMillis != null ? timeBudgetMillis : defaultTimeBudgetMillis));
+        if (rootStatus.isDirectory()) {
+            HDFSAsyncExecutor.invoke(pool, walk.new DirectoryTask(root, 0), () -> walk.cancelled = true);
+        } else {
+            walk.addFile(rootStatus, 0);
+        }
+        HDFSDiskUsage usage = walk.toUsage(path);
+        usage.setElapsedMillis(System.currentTimeMillis() - start);
+        return usage;
+    }
+
+    private static int bucketOf(long length) {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (length <= BUCKETS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS.length - 1;
+    }
+
+    private static Map<String, Long> toHistogram(LongAdder[] counts) {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            histogram.put(BUCKET_NAMES[i], counts[i].sum());
+        }
+        return histogram;
+    }
+
+    /**
+     * 一次统计的状态，各层级的计数器在并发任务之间共享
+     */
+    private static class Walk {
+        private final FileSystem fs;
+        private final int maxDepth;
+        private final long smallFileThreshold;
+        private final long deadline;
+        private final LevelCounter[] levels;
+        // 超过深度限制、内容合并计入最后一层的目录数
+        private final LongAdder summarizedDirectories = new LongAdder();
+        private final LongAdder skippedDirectories = new LongAdder();
+        private final LongAdder failedDirectories = new LongAdder();
+        private volatile boolean cancelled;
+
+        private Walk(FileSystem fs, int maxDepth, long smallFileThreshold, long deadline) {
+            this.fs = fs;
+            this.maxDepth = Math.max(maxDepth, 1);
+            this.smallFileThreshold = smallFileThreshold;
+            this.deadline = deadline;
+            this.levels = new LevelCounter[this.maxDepth + 1];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new LevelCounter();
+            }
+        }
+
+        private void addFile(FileStatus status, int level) {
+            LevelCounter counter = levels[level];
+            counter.files.increment();
+            counter.bytes.add(status.getLen());
+            if (status.getLen() < smallFileThreshold) {
+                counter.smallFiles.increment();
+            }
+            counter.histogram[bucketOf(status.getLen())].increment();
+        }
+
+        private class DirectoryTask extends RecursiveAction {
+            private final Path dir;
+            private final int depth;
+
+            private DirectoryTask(Path dir, int depth) {
+                this.dir = dir;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                if (cancelled) {
+                    return;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    skippedDirectories.increment();
+                    return;
+                }
+                FileStatus[] statuses;
+                try {
+                    statuses = fs.listStatus(dir);
+                } catch (IOException e) {
+                    log.debug("读取目录失败: {}", dir, e);
+                    failedDirectories.increment();
+                    return;
+                }
+                // 超过深度限制的内容计入最后一层
+                int level = Math.min(depth + 1, maxDepth);
+                List<DirectoryTask> subTasks = new ArrayList<>();
+                for (FileStatus status : statuses) {
+                    if (!status.isDirectory()) {
+                        addFile(status, level);
+                        continue;
+                    }
+                    levels[level].directories.increment();
+                    if (depth + 1 >= maxDepth) {
+                        summarizedDirectories.increment();
+                    }
+                    subTasks.add(new DirectoryTask(status.getPath(), depth + 1));
+                }
+                // 同一目录下的子目录并发遍历
+                invokeAll(subTasks);
+            }
+        }
+
+        private HDFSDiskUsage toUsage(String path) {
+            HDFSDiskUsage usage = new HDFSDiskUsage();
+            usage.setPath(path);
+            usage.setSmallFileThreshold(smallFileThreshold);
+            long bytes = 0;
+            long files = 0;
+            long directories = 0;
+            long smallFiles = 0;
+            LongAdder[] histogram = newHistogram();
+            List<HDFSDiskUsage.Level> levelList = new ArrayList<>();
+            for (int i = 0; i < levels.length; i++) {
+                LevelCounter counter = levels[i];
+                if (counter.files.sum() == 0 && counter.directories.sum() == 0) {
+                    continue;
+                }
+                HDFSDiskUsage.Level level = new HDFSDiskUsage.Level();
+                level.setLevel(i);
+                level.setBytes(counter.bytes.sum());
+                level.setFiles(counter.files.sum());
+                level.setDirectories(counter.directories.sum());
+                level.setSmallFiles(counter.smallFiles.sum());
+                level.setHistogram(toHistogram(counter.histogram));
+                levelList.add(level);
+                bytes += level.getBytes();
+                files += level.getFiles();
+                directories += level.getDirectories();
+                smallFiles += level.getSmallFiles();
+                for (int b = 0; b < histogram.length; b++) {
+                    histogram[b].add(counter.histogram[b].sum());
+                }
+            }
+            usage.setBytes(bytes);
+            usage.setFiles(files);
+            usage.setDirectories(directories);
+            usage.setSmallFiles(smallFiles);
+            usage.setHistogram(toHistogram(histogram));
+            usage.setLevels(levelList);
+            usage.setSummarizedDirectories(summarizedDirectories.sum());
+            usage.setSkippedDirectories(skippedDirectories.sum());
+            usage.setFailedDirectories(failedDirectories.sum());
+            usage.setTruncated(skippedDirectories.sum() > 0);
+            return usage;
+        }
+    }
+
+    private static LongAdder[] newHistogram() {
+        LongAdder[] histogram = new LongAdder[BUCKETS.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = new LongAdder();
+        }
+        return histogram;
+    }
+
+    private static class LevelCounter {
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder directories = new LongAdder();
+        private final LongAdder smallFiles = new LongAdder();
+        private final LongAdder[] histogram = newHistogram();
+    }
+}
@@ -0,0 +1,20 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 文件下载结果
+ */
+@Data
+public class HDFSDownloadResult {
+
+    private String path;
+    private String localPath;
+    private long bytes;
+    private int blocks;
+    private int parallelism;
+    // 所有块累计的重试次数
+    private int retries;
+    private long elapsedMillis;
+    private long bytesPerSecond;
+}
@@ -0,0 +1,537 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInotifyEventInputStream;
+import org.apache.hadoop.hdfs.client.HdfsAdmin;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * HDFS命名空间事件流
+ * 一个后台线程通过HdfsAdmin读取NameNode的inotify事件，按目录前缀过滤后分发给进程内的监听器
+ * （如元数据缓存失效）和SSE订阅者，代替客户端反复调用existFile、listFile轮询。
+ * 已处理的事务id定期写入本地检查点文件，重启后从检查点继续；检查点之后的编辑日志已被清理时，
+ * 从当前位置重新开始并发出RESET事件。读取inotify事件需要HDFS超级用户权限
+ */
+@Component
+@Slf4j
+public class HDFSEventStream {
+
+    private static final String HEARTBEAT = "HEARTBEAT";
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    @Value("${hdfs.events.enabled:false}")
+    private boolean enabled;
+    // 读取事件使用的用户，需要是HDFS超级用户
+    @Value("${hdfs.events.user:${hdfs.username}}")
+    private String user;
+    // 只处理这些目录下的事件，多个用逗号分隔，为空时处理所有事件
+    @Value("${hdfs.events.include:}")
+    private String include;
+    // 本地检查点文件，为空时每次启动都从当前位置开始
+    @Value("${hdfs.events.checkpoint-file:}")
+    private String checkpointFile;
+    @Value("${hdfs.events.checkpoint-interval-ms:5000}")
+    private long checkpointIntervalMillis;
+    @Value("${hdfs.events.poll-timeout-ms:1000}")
+    private long pollTimeoutMillis;
+    // 连接失败后的重试间隔
+    @Value("${hdfs.events.retry-ms:10000}")
+    private long retryMillis;
+    @Value("${hdfs.events.max-subscribers:64}")
+    private int maxSubscribers;
+    // 每个订阅者最多积压的事件数，超过后断开该订阅者，避免慢客户端拖住事件线程
+    @Value("${hdfs.events.subscriber-queue-size:10000}")
+    private int subscriberQueueSize;
+    @Value("${hdfs.events.heartbeat-ms:15000}")
+    private long heartbeatMillis;
+    @Value("${hdfs.events.timeout-ms:1800000}")
+    private long timeoutMillis;
+    @Value("${hdfs.events.cache-invalidation:true}")
+    private boolean cacheInvalidation;
+
+    private List<String> includeList;
+    private final List<HDFSNamespaceListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ExecutorService sender;
+    private Thread thread;
+    // HdfsAdmin内部通过FileSystem.get取得文件系统，缓存按UGI区分，UGI只创建一次，重连时复用同一个HdfsAdmin
+    private UserGroupInformation ugi;
+    private HdfsAdmin admin;
+    private volatile boolean running;
+    private volatile boolean connected;
+    // 已处理的最后一个事务id，-1表示从当前位置开始
+    private volatile long lastTxid = -1;
+    private volatile long txidsBehind;
+    private volatile String lastError;
+    private long checkpointedTxid = -1;
+    private long lastCheckpointTime;
+    private long lastHeartbeatTime;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder eventCount = new LongAdder();
+    private final LongAdder filteredCount = new LongAdder();
+    private final LongAdder listenerErrorCount = new LongAdder();
+    private final LongAdder resetCount = new LongAdder();
+    // 订阅者重连时因缺失事件收到reset的次数
+    private final LongAdder reconnectResetCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+
+    public HDFSEventStream(@Value("${hdfs.events.sender-threads:2}") int senderThreads) {
+        this.sender = Executors.newFixedThreadPool(senderThreads, new CustomizableThreadFactory("hdfs-event-sse-"));
+    }
+
+    @PostConstruct
+    public void init() {
+        includeList = new ArrayList<>();
+        for (String dir : include.split(",")) {
+            if (StringUtils.isNotBlank(dir)) {
+                includeList.add(new Path(dir.trim()).toUri().getPath());
+            }
+        }
+        if (cacheInvalidation) {
+            addListener(this::invalidateCache);
+        }
+        if (!enabled) {
+            return;
+        }
+        lastTxid = readCheckpoint();
+        checkpointedTxid = lastTxid;
+        ugi = UserGroupInformation.createRemoteUser(user);
+        running = true;
+        thread = new Thread(this::run, "hdfs-inotify");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(pollTimeoutMillis * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writeCheckpoint();
+        }
+        if (ugi != null) {
+            try {
+                FileSystem.closeAllForUGI(ugi);
+            } catch (IOException e) {
+                log.warn("关闭读取HDFS事件的文件系统失败", e);
+            }
+        }
+        sender.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.finish();
+        }
+    }
+
+    /**
+     * 注册进程内监听器
+     * @param listener
+     */
+    public void addListener(HDFSNamespaceListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HDFSNamespaceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 订阅事件，事件名为小写的事件类型，事件id为事务id
+     * 断线重连时传入收到的最后一个事件id，早于当前已处理的事务id时说明中间有事件没有收到，先发出reset事件
+     * @param prefix 只接收该目录下的事件，为空时接收全部
+     * @param lastEventId 客户端收到的最后一个事件id（SSE的Last-Event-ID），第一次订阅时为空
+     * @return 订阅者数量已达上限时返回null
+     */
+    public SseEmitter subscribe(String prefix, Long lastEventId) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            rejectedCount.increment();
+            return null;
+        }
+        String path = StringUtils.isEmpty(prefix) ? null : new Path(prefix).toUri().getPath();
+        Subscriber subscriber = new Subscriber(path);
+        subscribers.add(subscriber);
+        // 先加入再比较，加入之后的事件都会收到，比较时的lastTxid之前缺失的部分由reset覆盖
+        long txid = lastTxid;
+        if (lastEventId != null && (txid < 0 || lastEventId < txid)) {
+            reconnectResetCount.increment();
+            subscriber.offer(newEvent(txid, HDFSNamespaceEvent.RESET, path == null ? "/" : path));
+        }
+        return subscriber.emitter;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                DFSInotifyEventInputStream stream = open();
+                connected = true;
+                lastError = null;
+                log.info("开始读取HDFS事件, txid={}", lastTxid);
+                while (running) {
+                    EventBatch batch = stream.poll(pollTimeoutMillis, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        dispatch(batch);
+                        lastTxid = batch.getTxid();
+                    }
+                    txidsBehind = stream.getTxidsBehindEstimate();
+                    long now = System.currentTimeMillis();
+                    if (now - lastHeartbeatTime >= heartbeatMillis) {
+                        lastHeartbeatTime = now;
+                        publish(newEvent(lastTxid, HEARTBEAT, null));
+                    }
+                    if (now - lastCheckpointTime >= checkpointIntervalMillis) {
+                        lastCheckpointTime = now;
+                        writeCheckpoint();
+                    }
+                }
+            } catch (MissingEventsException e) {
+                // 检查点之后的编辑日志已被清理，无法补齐，从当前位置重新开始
+                resetCount.increment();
+                log.warn("HDFS事件缺失，从当前位置重新开始, expected={}, actual={}", e.getExpectedTxid(),
+                        e.getActualTxid());
+                lastTxid = -1;
+                HDFSNamespaceEvent reset = newEvent(e.getActualTxid(), HDFSNamespaceEvent.RESET, "/");
+                notifyListeners(reset);
+                publish(reset);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                errorCount.increment();
+                lastError = e.toString();
+                log.warn("读取HDFS事件失败，{}ms后重试", retryMillis, e);
+                connected = false;
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } finally {
+                connected = false;
+            }
+        }
+    }
+
+    private DFSInotifyEventInputStream open() throws Exception {
+        if (admin == null) {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            admin = ugi.doAs((PrivilegedExceptionAction<HdfsAdmin>) () ->
+                    new HdfsAdmin(fs.getUri(), fileSystemProvider.getConfiguration()));
+        }
+        return lastTxid >= 0 ? admin.getInotifyEventStream(lastTxid) : admin.getInotifyEventStream();
+    }
+
+    private void dispatch(EventBatch batch) {
+        batchCount.increment();
+        for (Event event : batch.getEvents()) {
+            HDFSNamespaceEvent namespaceEvent = convert(batch.getTxid(), event);
+            if (!isIncluded(namespaceEvent)) {
+                filteredCount.increment();
+                continue;
+            }
+            eventCount.increment();
+            notifyListeners(namespaceEvent);
+            publish(namespaceEvent);
+        }
+    }
+
+    private void notifyListeners(HDFSNamespaceEvent event) {
+        for (HDFSNamespaceListener listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                listenerErrorCount.increment();
+                log.warn("HDFS事件监听器执行失败, event={}", event, e);
+            }
+        }
+    }
+
+    private void publish(HDFSNamespaceEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * 元数据缓存随事件失效，外部程序直接修改HDFS时缓存也能及时更新
+     */
+    private void invalidateCache(HDFSNamespaceEvent event) {
+        if (HDFSNamespaceEvent.RESET.equals(event.getType())) {
+            metadataCache.invalidateAll();
+            return;
+        }
+        try {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            metadataCache.invalidate(fs, new Path(event.getPath()));
+            if (event.getDstPath() != null) {
+                metadataCache.invalidate(fs, new Path(event.getDstPath()));
+            }
+        } catch (IOException e) {
+            metadataCache.invalidateAll();
+        }
+    }
+
+    private static HDFSNamespaceEvent convert(long txid, Event event) {
+        HDFSNamespaceEvent result = new HDFSNamespaceEvent();
+        result.setTxid(txid);
+        result.setType(event.getEventType().name());
+        switch (event.getEventType()) {
+            case CREATE:
+                Event.CreateEvent create = (Event.CreateEvent) event;
+                result.setPath(create.getPath());
+                result.setTimestamp(create.getCtime());
+                break;
+            case CLOSE:
+                Event.CloseEvent close = (Event.CloseEvent) event;
+                result.setPath(close.getPath());
+                result.setFileSize(close.getFileSize());
+                result.setTimestamp(close.getTimestamp());
+                break;
+            case APPEND:
+                result.setPath(((Event.AppendEvent) event).getPath());
+                break;
+            case RENAME:
+                Event.RenameEvent rename = (Event.RenameEvent) event;
+                result.setPath(rename.getSrcPath());
+                result.setDstPath(rename.getDstPath());
+                result.setTimestamp(rename.getTimestamp());
+                break;
+            case METADATA:
+                Event.MetadataUpdateEvent metadata = (Event.MetadataUpdateEvent) event;
+                result.setPath(metadata.getPath());
+                result.setMetadataType(metadata.getMetadataType().name());
+                result.setTimestamp(metadata.getMtime());
+                break;
+            case UNLINK:
+                Event.UnlinkEvent unlink = (Event.UnlinkEvent) event;
+                result.setPath(unlink.getPath());
+                result.setTimestamp(unlink.getTimestamp());
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+
+    private static HDFSNamespaceEvent newEvent(long txid, String type, String path) {
+        HDFSNamespaceEvent event = new HDFSNamespaceEvent();
+        event.setTxid(txid);
+        event.setType(type);
+        event.setPath(path);
+        event.setTimestamp(System.currentTimeMillis());
+        return event;
+    }
+
+    private boolean isIncluded(HDFSNamespaceEvent event) {
+        if (includeList.isEmpty()) {
+            return true;
+        }
+        for (String dir : includeList) {
+            if (isUnder(event.getPath(), dir) || isUnder(event.getDstPath(), dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnder(String path, String dir) {
+        if (path == null) {
+            return false;
+        }
+        return path.equals(dir) || path.startsWith(dir.endsWith("/") ? dir : dir + "/");
+    }
+
+    private long readCheckpoint() {
+        if (StringUtils.isEmpty(checkpointFile) || !Files.exists(Paths.get(checkpointFile))) {
+            return -1;
+        }
+        try {
+            String text = new String(Files.readAllBytes(Paths.get(checkpointFile)), StandardCharsets.UTF_8).trim();
+            return Long.parseLong(text);
+        } catch (IOException | NumberFormatException e) {
+            log.warn("读取HDFS事件检查点失败, file={}", checkpointFile, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免进程退出时留下不完整的检查点
+     */
+    private synchronized void writeCheckpoint() {
+        long txid = lastTxid;
+        if (StringUtils.isEmpty(checkpointFile) || txid < 0 || txid == checkpointedTxid) {
+            return;
+        }
+        java.nio.file.Path target = Paths.get(checkpointFile).toAbsolutePath();
+        java.nio.file.Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(tmp, String.valueOf(txid).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointedTxid = txid;
+        } catch (IOException e) {
+            log.warn("写入HDFS事件检查点失败, file={}", checkpointFile, e);
+        }
+    }
+
+    /**
+     * 事件流的统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("connected", connected);
+        metrics.put("lastTxid", lastTxid);
+        metrics.put("checkpointedTxid", checkpointedTxid);
+        metrics.put("txidsBehind", txidsBehind);
+        metrics.put("batchCount", batchCount.sum());
+        metrics.put("eventCount", eventCount.sum());
+        metrics.put("filteredCount", filteredCount.sum());
+        metrics.put("listeners", listeners.size());
+        metrics.put("listenerErrorCount", listenerErrorCount.sum());
+        metrics.put("subscribers", subscriberCount.get());
+        metrics.put("rejectedCount", rejectedCount.sum());
+        metrics.put("overflowCount", overflowCount.sum());
+        metrics.put("resetCount", resetCount.sum());
+        metrics.put("reconnectResetCount", reconnectResetCount.sum());
+        metrics.put("errorCount", errorCount.sum());
+        metrics.put("lastError", lastError);
+        return metrics;
+    }
+
+    /**
+     * 一个SSE订阅连接，事件线程只负责入队，由发送线程池写出，同一时刻只有一个发送任务
+     */
+    private class Subscriber {
+        private final String prefix;
+        private final SseEmitter emitter;
+        private final BlockingQueue<HDFSNamespaceEvent> queue = new ArrayBlockingQueue<>(subscriberQueueSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean overflow;
+        private volatile boolean closed;
+
+        private Subscriber(String prefix) {
+            this.prefix = prefix;
+            this.emitter = new SseEmitter(timeoutMillis);
+            emitter.onCompletion(this::close);
+            emitter.onTimeout(this::close);
+            emitter.onError(e -> close());
+        }
+
+        private void offer(HDFSNamespaceEvent event) {
+            if (closed || overflow) {
+                return;
+            }
+            boolean control = HEARTBEAT.equals(event.getType()) || HDFSNamespaceEvent.RESET.equals(event.getType());
+            if (!control && prefix != null && !isUnder(event.getPath(), prefix) && !isUnder(event.getDstPath(), prefix)) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                overflow = true;
+                overflowCount.increment();
+            }
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (RuntimeException e) {
+                    draining.set(false);
+                    close();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                HDFSNamespaceEvent event;
+                while (!closed && (event = queue.poll()) != null) {
+                    try {
+                        emitter.send(SseEmitter.event().id(String.valueOf(event.getTxid()))
+                                .name(event.getType().toLowerCase(Locale.ROOT)).data(event, MediaType.APPLICATION_JSON));
+                    } catch (IOException | IllegalStateException e) {
+                        // 客户端已断开，由容器回调结束请求
+                        close();
+                        return;
+                    }
+                }
+                if (overflow && !closed) {
+                    // 积压过多，通知客户端后断开，客户端重连后应按需全量刷新
+                    try {
+                        emitter.send(SseEmitter.event().name("overflow").data(""));
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("发送overflow事件失败", e);
+                    }
+                    finish();
+                }
+            } finally {
+                draining.set(false);
+            }
+            if (!closed && !queue.isEmpty() && draining.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void finish() {
+            if (!closed) {
+                close();
+                emitter.complete();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (subscribers.remove(this)) {
+                subscriberCount.decrementAndGet();
+            }
+        }
+    }
+}
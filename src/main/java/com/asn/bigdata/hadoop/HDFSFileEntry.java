@@ -0,0 +1,27 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * 文件列表中的单个文件，只保留常用字段
+ */
+@Data
+public class HDFSFileEntry {
+
+    private String path;
+    private long length;
+    private long modificationTime;
+    private short replication;
+    private long blockSize;
+
+    public static HDFSFileEntry of(FileStatus fileStatus) {
+        HDFSFileEntry entry = new HDFSFileEntry();
+        entry.setPath(fileStatus.getPath().toUri().getPath());
+        entry.setLength(fileStatus.getLen());
+        entry.setModificationTime(fileStatus.getModificationTime());
+        entry.setReplication(fileStatus.getReplication());
+        entry.setBlockSize(fileStatus.getBlockSize());
+        return entry;
+    }
+}
@@ -0,0 +1,50 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+/**
+ * 文件过滤条件：文件名正则、大小范围、修改时间
+ * 作为PathFilter时只能按文件名过滤，大小和修改时间需要通过accept(FileStatus)判断
+ */
+public class HDFSFileFilter implements PathFilter {
+
+    private final Pattern namePattern;
+    private final Long minSize;
+    private final Long maxSize;
+    private final Long modifiedAfter;
+
+    /**
+     * @param nameRegex 文件名正则，为空时不过滤
+     * @param minSize 最小字节数（包含），为空时不过滤
+     * @param maxSize 最大字节数（包含），为空时不过滤
+     * @param modifiedAfter 修改时间晚于该时间戳（毫秒），为空时不过滤
+     */
+    public HDFSFileFilter(String nameRegex, Long minSize, Long maxSize, Long modifiedAfter) {
+        this.namePattern = nameRegex == null || nameRegex.isEmpty() ? null : Pattern.compile(nameRegex);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.modifiedAfter = modifiedAfter;
+    }
+
+    @Override
+    public boolean accept(Path path) {
+        return namePattern == null || namePattern.matcher(path.getName()).matches();
+    }
+
+    public boolean accept(FileStatus status) {
+        if (!accept(status.getPath())) {
+            return false;
+        }
+        if (minSize != null && status.getLen() < minSize) {
+            return false;
+        }
+        if (maxSize != null && status.getLen() > maxSize) {
+            return false;
+        }
+        return modifiedAfter == null || status.getModificationTime() > modifiedAfter;
+    }
+}
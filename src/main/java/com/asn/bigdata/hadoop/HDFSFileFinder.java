@@ -0,0 +1,164 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按通配符和过滤条件查找文件
+ * 先用globStatus展开通配符，再并发遍历匹配到的目录，过滤条件在遍历时直接应用，
+ * 不满足条件的文件不会进入结果
+ */
+@Component
+@Slf4j
+public class HDFSFileFinder {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.find.max-results:10000}")
+    private int defaultMaxResults;
+    @Value("${hdfs.find.timeout-ms:120000}")
+    private long timeout;
+
+    private final ForkJoinPool pool;
+
+    public HDFSFileFinder(@Value("${hdfs.find.parallelism:8}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 查找请求的超时时间，超时后停止遍历
+     * @return
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 查找文件
+     * @param pattern 路径通配符，如/data/dt=2019-12-*
+     * @param filter 文件过滤条件
+     * @param recursive 是否递归查找匹配目录下的文件
+     * @param maxResults 最多返回的文件数，为空时使用默认值
+     * @return 按路径排序的文件列表
+     * @throws IOException
+     */
+    public HDFSFindResult find(String pattern, HDFSFileFilter filter, boolean recursive, Integer maxResults)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Search search = new Search(fs, filter, maxResults != null ? maxResults : defaultMaxResults);
+        // 非递归时通配符匹配的就是最终结果，文件名条件可以直接下推到globStatus
+        FileStatus[] matched = recursive ? fs.globStatus(new Path(pattern)) : fs.globStatus(new Path(pattern), filter);
+        List<Search.DirectoryTask> tasks = new ArrayList<>();
+        if (matched != null) {
+            for (FileStatus status : matched) {
+                if (status.isDirectory() && recursive) {
+                    tasks.add(search.new DirectoryTask(status.getPath()));
+                } else if (!status.isDirectory()) {
+                    search.offer(status);
+                }
+            }
+        }
+        if (!tasks.isEmpty()) {
+            HDFSAsyncExecutor.invoke(pool, new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            }, () -> search.cancelled = true);
+        }
+        List<HDFSFileEntry> files = new ArrayList<>(search.results);
+        files.sort(Comparator.comparing(HDFSFileEntry::getPath));
+        HDFSFindResult result = new HDFSFindResult();
+        result.setFiles(files);
+        result.setMatchedPaths(matched == null ? 0 : matched.length);
+        result.setScannedDirectories(search.scannedDirectories.sum());
+        result.setTruncated(search.isFull());
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static class Search {
+        private final FileSystem fs;
+        private final HDFSFileFilter filter;
+        private final int maxResults;
+        private final Queue<HDFSFileEntry> results = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger resultCount = new AtomicInteger();
+        private final LongAdder scannedDirectories = new LongAdder();
+        private volatile boolean cancelled;
+
+        private Search(FileSystem fs, HDFSFileFilter filter, int maxResults) {
+            this.fs = fs;
+            this.filter = filter;
+            this.maxResults = maxResults;
+        }
+
+        private void offer(FileStatus status) {
+            if (filter.accept(status) && resultCount.incrementAndGet() <= maxResults) {
+                results.add(HDFSFileEntry.of(status));
+            }
+        }
+
+        private boolean isFull() {
+            return resultCount.get() > maxResults;
+        }
+
+        /**
+         * 遍历一个目录及其所有子目录，只在递归查找时创建
+         */
+        private class DirectoryTask extends RecursiveAction {
+            private final Path dir;
+
+            private DirectoryTask(Path dir) {
+                this.dir = dir;
+            }
+
+            @Override
+            protected void compute() {
+                if (isFull() || cancelled) {
+                    return;
+                }
+                FileStatus[] statuses;
+                try {
+                    statuses = fs.listStatus(dir);
+                } catch (IOException e) {
+                    log.debug("读取目录失败: {}", dir, e);
+                    return;
+                }
+                scannedDirectories.increment();
+                List<DirectoryTask> subTasks = new ArrayList<>();
+                for (FileStatus status : statuses) {
+                    if (status.isDirectory()) {
+                        subTasks.add(new DirectoryTask(status.getPath()));
+                    } else {
+                        offer(status);
+                    }
+                }
+                // 同级目录并发遍历
+                invokeAll(subTasks);
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 跟踪正在写入的HDFS文件（类似tail -f），通过SSE推送新追加的内容
+ * 每个跟踪者记录自己的读取位置，定时检查文件的可见长度（包含hflush后未关闭的最后一个块），
+ * 只读取新增的字节；没有新数据时逐步拉长检查间隔。
+ * 输入流在轮询之间保持打开，只在文件可能变化或读取出错时重新打开；
+ * 2.7版本的输入流不会刷新打开时确定的可见长度，正在写入的文件只能重新打开才能看到hflush的新数据。
+ * 所有跟踪者共用一个定时线程池，不为每个连接占用线程
+ */
+@Component
+@Slf4j
+public class HDFSFileFollower {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.follow.max-followers:16}")
+    private int maxFollowers;
+    @Value("${hdfs.follow.poll-min-ms:200}")
+    private long pollMinMillis;
+    @Value("${hdfs.follow.poll-max-ms:5000}")
+    private long pollMaxMillis;
+    // 没有新数据时发送心跳的间隔，用于及时发现已断开的连接
+    @Value("${hdfs.follow.heartbeat-ms:15000}")
+    private long heartbeatMillis;
+    @Value("${hdfs.follow.timeout-ms:1800000}")
+    private long timeoutMillis;
+    // 单个事件最多携带的字节数
+    @Value("${hdfs.follow.max-event-bytes:65536}")
+    private int maxEventBytes;
+    // 不指定起始位置时，从文件末尾往前多少字节开始
+    @Value("${hdfs.follow.tail-bytes:4096}")
+    private long defaultTailBytes;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Set<Follower> followers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger followerCount = new AtomicInteger();
+    private final LongAdder pollCount = new LongAdder();
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder eventCount = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public HDFSFileFollower(@Value("${hdfs.follow.threads:4}") int threads) {
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, new CustomizableThreadFactory("hdfs-follow-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (Follower follower : followers) {
+            follower.finish();
+        }
+    }
+
+    /**
+     * 开始跟踪文件
+     * @param path
+     * @param offset 起始位置，为空时从文件末尾往前tailBytes字节的下一行开始
+     * @param tailBytes 为空时使用默认值
+     * @return 跟踪者数量已达上限时返回null
+     * @throws IOException
+     */
+    public SseEmitter follow(String path, Long offset, Long tailBytes) throws IOException {
+        if (followerCount.incrementAndGet() > maxFollowers) {
+            followerCount.decrementAndGet();
+            rejectedCount.increment();
+            return null;
+        }
+        Follower follower;
+        try {
+            FileSystem fs = fileSystemProvider.getFileSystem();
+            Path filePath = new Path(path);
+            long length = visibleLength(fs, filePath);
+            long start;
+            boolean alignToLine = false;
+            if (offset != null) {
+                start = Math.max(0, Math.min(offset, length));
+            } else {
+                start = Math.max(0, length - (tailBytes != null ? tailBytes : defaultTailBytes));
+                alignToLine = start > 0;
+            }
+            follower = new Follower(fs, filePath, start, alignToLine);
+        } catch (IOException | RuntimeException e) {
+            followerCount.decrementAndGet();
+            throw e;
+        }
+        followers.add(follower);
+        scheduler.execute(follower::poll);
+        return follower.emitter;
+    }
+
+    /**
+     * 文件的可见长度，HDFS上包含正在写入的最后一个块中已经hflush的数据
+     * @param fs
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private static long visibleLength(FileSystem fs, Path path) throws IOException {
+        try (FSDataInputStream inputStream = fs.open(path)) {
+            return visibleLength(fs, path, inputStream);
+        }
+    }
+
+    private static long visibleLength(FileSystem fs, Path path, FSDataInputStream inputStream) throws IOException {
+        if (inputStream instanceof HdfsDataInputStream) {
+            return ((HdfsDataInputStream) inputStream).getVisibleLength();
+        }
+        return fs.getFileStatus(path).getLen();
+    }
+
+    /**
+     * 文件跟踪的统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("followers", followerCount.get());
+        metrics.put("maxFollowers", maxFollowers);
+        metrics.put("pollCount", pollCount.sum());
+        metrics.put("openCount", openCount.sum());
+        metrics.put("eventCount", eventCount.sum());
+        metrics.put("bytesSent", bytesSent.sum());
+        metrics.put("rejectedCount", rejectedCount.sum());
+        return metrics;
+    }
+
+    /**
+     * 一个跟踪连接，同一时刻只有一个轮询任务在执行
+     */
+    private class Follower {
+        private final FileSystem fs;
+        private final Path path;
+        private final SseEmitter emitter;
+        private final byte[] buffer;
+        // 在轮询之间复用的输入流，以及打开时的可见长度
+        private volatile FSDataInputStream inputStream;
+        private long streamLength;
+        // 上一次检查时的文件长度和修改时间，用于判断已关闭的文件是否被修改
+        private long statusLength = -1;
+        private long statusModificationTime = -1;
+        private long offset;
+        // 从文件中间开始时，跳过第一个不完整的行
+        private boolean alignToLine;
+        private long delay = pollMinMillis;
+        private long lastLength = -1;
+        private long lastSendTime = System.currentTimeMillis();
+        private volatile boolean closed;
+
+        private Follower(FileSystem fs, Path path, long offset, boolean alignToLine) {
+            this.fs = fs;
+            this.path = path;
+            this.offset = offset;
+            this.alignToLine = alignToLine;
+            this.buffer = new byte[maxEventBytes];
+            this.emitter = new SseEmitter(timeoutMillis);
+            emitter.onCompletion(this::close);
+            emitter.onTimeout(this::close);
+            emitter.onError(e -> close());
+        }
+
+        private void poll() {
+            if (closed) {
+                return;
+            }
+            pollCount.increment();
+            boolean sent;
+            try {
+                sent = readAppended();
+            } catch (FileNotFoundException e) {
+                send("deleted", offset, "", offset);
+                finish();
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("跟踪文件读取失败, path={}, offset={}", path, offset, e);
+                }
+                // 下一次轮询重新打开
+                closeStream();
+                sent = false;
+            }
+            if (closed) {
+                return;
+            }
+            if (sent) {
+                delay = pollMinMillis;
+            } else {
+                delay = Math.min(delay * 2, pollMaxMillis);
+                if (System.currentTimeMillis() - lastSendTime >= heartbeatMillis) {
+                    send("heartbeat", offset, "", offset);
+                }
+            }
+            if (!closed) {
+                scheduler.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 读取并推送新追加的完整行；末尾的半行等下一次有新数据或长度不再变化时再推送
+         * @return 是否推送了数据
+         * @throws IOException
+         */
+        private boolean readAppended() throws IOException {
+            if (mayHaveChanged() || inputStream == null) {
+                reopen();
+            }
+            // close可能在其他线程把字段置空，这里使用局部变量
+            FSDataInputStream in = inputStream;
+            if (in == null) {
+                return false;
+            }
+            boolean sent = false;
+            long length = streamLength;
+            if (length < offset) {
+                // 文件被截断或重建，从头开始
+                send("truncated", length, "", 0);
+                offset = 0;
+                alignToLine = false;
+            }
+            boolean idle = length == lastLength;
+            lastLength = length;
+            while (offset < length && !closed) {
+                int len = (int) Math.min(buffer.length, length - offset);
+                in.readFully(offset, buffer, 0, len);
+                int end = lastNewline(buffer, len);
+                if (alignToLine) {
+                    int first = firstNewline(buffer, len);
+                    if (first < 0 && len < buffer.length) {
+                        break;
+                    }
+                    offset += first < 0 ? len : first + 1;
+                    alignToLine = false;
+                    continue;
+                }
+                if (end < 0) {
+                    // 没有完整的行，超长行或长度不再变化时直接推送，截断位置退到最后一个完整的UTF-8字符之后
+                    if (len < buffer.length && !idle) {
+                        break;
+                    }
+                    end = utf8Boundary(buffer, len) - 1;
+                }
+                String text = new String(buffer, 0, end + 1, StandardCharsets.UTF_8);
+                if (!send("data", offset, text, offset + end + 1)) {
+                    break;
+                }
+                bytesSent.add(end + 1);
+                offset += end + 1;
+                sent = true;
+            }
+            if (!closed && in instanceof HdfsDataInputStream) {
+                // 空闲期间不占用DataNode连接，流本身保留
+                in.unbuffer();
+            }
+            return sent;
+        }
+
+        /**
+         * 已有的输入流是否可能落后于文件：正在写入的文件hflush的数据只能重新打开才能看到；
+         * 已关闭的文件只访问NameNode比较长度和修改时间，没有变化时继续使用原来的流
+         */
+        private boolean mayHaveChanged() throws IOException {
+            if (fs instanceof DistributedFileSystem && !((DistributedFileSystem) fs).isFileClosed(path)) {
+                return true;
+            }
+            FileStatus status = fs.getFileStatus(path);
+            boolean changed = status.getLen() != statusLength || status.getModificationTime() != statusModificationTime;
+            statusLength = status.getLen();
+            statusModificationTime = status.getModificationTime();
+            return changed;
+        }
+
+        private void reopen() throws IOException {
+            closeStream();
+            FSDataInputStream in = fs.open(path);
+            openCount.increment();
+            streamLength = visibleLength(fs, path, in);
+            inputStream = in;
+            if (closed) {
+                closeStream();
+            }
+        }
+
+        private void closeStream() {
+            FSDataInputStream in = inputStream;
+            inputStream = null;
+            IOUtils.closeStream(in);
+        }
+
+        /**
+         * 推送一个事件，内容以JSON发送，避免多行文本破坏SSE的格式
+         * @param name 事件类型
+         * @param position 事件内容在文件中的偏移量
+         * @param text
+         * @param next 下一次读取的位置，作为事件id，客户端重连时通过Last-Event-ID续传
+         * @return 客户端已断开时返回false
+         */
+        private boolean send(String name, long position, String text, long next) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("offset", position);
+            data.put("text", text);
+            try {
+                emitter.send(SseEmitter.event().id(String.valueOf(next)).name(name)
+                        .data(data, MediaType.APPLICATION_JSON));
+                eventCount.increment();
+                lastSendTime = System.currentTimeMillis();
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开，由容器回调结束请求
+                close();
+                return false;
+            }
+        }
+
+        private void finish() {
+            if (!closed) {
+                close();
+                emitter.complete();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (followers.remove(this)) {
+                followerCount.decrementAndGet();
+            }
+            // 正在进行的读取结束后才会真正关闭，之后的读取抛出异常并由poll忽略
+            closeStream();
+        }
+    }
+
+    private static int lastNewline(byte[] buffer, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 从末尾往前找到最后一个完整的UTF-8字符的结束位置，避免把多字节字符拆到两个事件中
+     * @param buffer
+     * @param len
+     * @return 完整字符占用的字节数，找不到合法的字符边界时返回len
+     */
+    static int utf8Boundary(byte[] buffer, int len) {
+        // UTF-8字符最多4个字节，只需要检查最后3个字节中是否有未结束的多字节字符
+        for (int i = len - 1; i >= Math.max(0, len - 3); i--) {
+            int b = buffer[i] & 0xff;
+            if (b < 0x80) {
+                return len;
+            }
+            if (b >= 0xc0) {
+                int size = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : 2;
+                return i + size <= len ? len : (i > 0 ? i : len);
+            }
+        }
+        return len;
+    }
+
+    private static int firstNewline(byte[] buffer, int len) {
+        for (int i = 0; i < len; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
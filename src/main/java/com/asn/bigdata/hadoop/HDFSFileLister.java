@@ -0,0 +1,211 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 递归列出目录下的文件，支持分页和流式输出
+ * 按目录深度优先遍历，每个目录通过listStatusIterator分批获取，内存占用与目录大小无关。
+ * 游标记录上一页最后一个文件的相对路径，NameNode按名称顺序返回子节点，
+ * 恢复时逐层跳过游标之前的节点即可从断点继续
+ */
+@Component
+public class HDFSFileLister {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+
+    /**
+     * 遍历时的回调，返回false时停止遍历
+     */
+    public interface EntryConsumer {
+        boolean accept(HDFSFileEntry entry) throws IOException;
+    }
+
+    /**
+     * 分页读取文件列表
+     * @param path
+     * @param pageSize
+     * @param token 上一页返回的游标，为空时从头开始
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException pageSize不大于0或游标不合法时
+     */
+    public HDFSFilePage listPage(String path, int pageSize, String token) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize必须大于0");
+        }
+        List<HDFSFileEntry> files = new ArrayList<>(Math.min(pageSize, 1024));
+        String last = walk(path, decodeToken(token), entry -> {
+            files.add(entry);
+            return files.size() < pageSize;
+        });
+        HDFSFilePage page = new HDFSFilePage();
+        page.setFiles(files);
+        page.setNextToken(files.size() < pageSize ? null : encodeToken(last));
+        return page;
+    }
+
+    /**
+     * 流式遍历文件列表，每得到一个文件就回调一次
+     * @param path
+     * @param token 游标，为空时从头开始
+     * @param consumer
+     * @throws IOException
+     */
+    public void list(String path, String token, EntryConsumer consumer) throws IOException {
+        walk(path, decodeToken(token), consumer);
+    }
+
+    /**
+     * 深度优先遍历，返回最后一个交给consumer的文件的相对路径
+     */
+    private String walk(String path, String[] resumeAfter, EntryConsumer consumer) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path root = fs.makeQualified(new Path(path));
+        FileStatus rootStatus = fs.getFileStatus(root);
+        if (!rootStatus.isDirectory()) {
+            if (resumeAfter.length == 0) {
+                consumer.accept(HDFSFileEntry.of(rootStatus));
+                return rootStatus.getPath().getName();
+            }
+            return null;
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(listChildren(fs, root), "", resumeAfter.length > 0 ? 0 : -1));
+        String last = null;
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.iterator.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            FileStatus status = frame.iterator.next();
+            String name = status.getPath().getName();
+            String relative = frame.prefix.isEmpty() ? name : frame.prefix + "/" + name;
+            int resumeDepth = -1;
+            if (frame.resumeDepth >= 0) {
+                int cmp = compare(name, resumeAfter[frame.resumeDepth]);
+                if (cmp < 0) {
+                    continue;
+                }
+                if (cmp == 0) {
+                    // 游标所在的路径：目录继续向下定位，文件本身已经在上一页返回
+                    if (status.isDirectory() && frame.resumeDepth + 1 < resumeAfter.length) {
+                        resumeDepth = frame.resumeDepth + 1;
+                    } else {
+                        continue;
+                    }
+                } else {
+                    // 已经越过游标，当前目录后面的节点不再需要比较
+                    frame.resumeDepth = -1;
+                }
+            }
+            if (status.isDirectory()) {
+                stack.push(new Frame(listChildren(fs, status.getPath()), relative, resumeDepth));
+            } else {
+                last = relative;
+                if (!consumer.accept(HDFSFileEntry.of(status))) {
+                    break;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 列出目录的子节点，HDFS上分批获取且已按名称排序，其他文件系统一次性获取后排序
+     */
+    private static RemoteIterator<FileStatus> listChildren(FileSystem fs, Path dir) throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+            return fs.listStatusIterator(dir);
+        }
+        FileStatus[] statuses = fs.listStatus(dir);
+        Arrays.sort(statuses, (a, b) -> compare(a.getPath().getName(), b.getPath().getName()));
+        Iterator<FileStatus> iterator = Arrays.asList(statuses).iterator();
+        return new RemoteIterator<FileStatus>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public FileStatus next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    /**
+     * 按UTF-8字节比较，与NameNode返回子节点的顺序一致
+     */
+    private static int compare(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(x.length, y.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (x[i] & 0xff) - (y[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return x.length - y.length;
+    }
+
+    private static String encodeToken(String relativePath) {
+        if (relativePath == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(relativePath.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 检查游标是否合法，流式输出开始后无法再返回错误，需要在输出前检查
+     * @param token
+     * @throws IllegalArgumentException 游标不是合法的Base64时
+     */
+    public void checkToken(String token) {
+        decodeToken(token);
+    }
+
+    private static String[] decodeToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return new String[0];
+        }
+        byte[] decoded;
+        try {
+            decoded = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("token不合法: " + token);
+        }
+        return new String(decoded, StandardCharsets.UTF_8).split("/");
+    }
+
+    private static class Frame {
+        private final RemoteIterator<FileStatus> iterator;
+        private final String prefix;
+        // 当前目录在游标路径上的层级，-1表示不需要跳过
+        private int resumeDepth;
+
+        private Frame(RemoteIterator<FileStatus> iterator, String prefix, int resumeDepth) {
+            this.iterator = iterator;
+            this.prefix = prefix;
+            this.resumeDepth = resumeDepth;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 分页的文件列表
+ */
+@Data
+public class HDFSFilePage {
+
+    private List<HDFSFileEntry> files;
+    // 下一页的游标，为空表示已经是最后一页
+    private String nextToken;
+}
@@ -0,0 +1,164 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * HDFS文件系统对象的统一提供者
+ * Configuration只在启动时构建一次，每个用户共享一个线程安全的FileSystem对象，
+ * 应用关闭时统一释放，调用方不要自行close
+ */
+@Component
+@Slf4j
+public class HDFSFileSystemProvider {
+
+    @Value("${hdfs.path}")
+    private String path;
+    @Value("${hdfs.username}")
+    private String username;
+    @Value("${hdfs.hadoop.home:}")
+    private String hadoopHome;
+    // 对冲读：pread超过阈值仍未返回时，向其他副本所在的DataNode再发一次请求，取先返回的结果
+    @Value("${hdfs.read.hedged.enabled:false}")
+    private boolean hedgedReadEnabled;
+    @Value("${hdfs.read.hedged.threshold-ms:500}")
+    private long hedgedReadThresholdMillis;
+    @Value("${hdfs.read.hedged.pool-size:16}")
+    private int hedgedReadPoolSize;
+
+    private URI uri;
+    private Configuration configuration;
+    private final ConcurrentMap<String, FileSystem> fileSystems = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    // 获取FileSystem的调用统计
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder createCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    @PostConstruct
+    public void init() throws Exception {
+        if (StringUtils.isNotEmpty(hadoopHome)) {
+            System.setProperty("hadoop.home.dir", hadoopHome);
+        }
+        uri = new URI(path);
+        configuration = new Configuration();
+        configuration.set("fs.defaultFS", path);
+        if (hedgedReadEnabled) {
+            configuration.setInt(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE, hedgedReadPoolSize);
+            configuration.setLong(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS, hedgedReadThresholdMillis);
+        }
+    }
+
+    /**
+     * 获取HDFS配置信息，所有调用方共享同一个对象，只读使用
+     * @return
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * 获取默认用户的HDFS文件系统对象
+     * @return
+     * @throws IOException
+     */
+    public FileSystem getFileSystem() throws IOException {
+        return getFileSystem(username);
+    }
+
+    /**
+     * 获取指定用户的HDFS文件系统对象，同一用户共享同一个对象
+     * @param user
+     * @return
+     * @throws IOException
+     */
+    public FileSystem getFileSystem(String user) throws IOException {
+        if (closed) {
+            throw new IOException("HDFS文件系统已关闭");
+        }
+        long start = System.nanoTime();
+        try {
+            FileSystem fs = fileSystems.get(user);
+            if (fs == null) {
+                fs = createIfAbsent(user);
+            }
+            return fs;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            acquireCount.increment();
+            acquireNanos.add(elapsed);
+            maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private synchronized FileSystem createIfAbsent(String user) throws IOException {
+        FileSystem fs = fileSystems.get(user);
+        if (fs != null) {
+            return fs;
+        }
+        try {
+            // 使用newInstance而不是get，避免与Hadoop内部缓存的对象互相close
+            fs = FileSystem.newInstance(uri, configuration, user);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failureCount.increment();
+            throw new IOException("创建HDFS文件系统对象被中断", e);
+        } catch (IOException e) {
+            failureCount.increment();
+            throw e;
+        }
+        createCount.increment();
+        fileSystems.put(user, fs);
+        log.info("创建HDFS文件系统对象, user={}", user);
+        return fs;
+    }
+
+    /**
+     * 获取FileSystem的调用统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        long count = acquireCount.sum();
+        long nanos = acquireNanos.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("acquireCount", count);
+        metrics.put("avgAcquireMicros", count == 0 ? 0 : nanos / count / 1000);
+        metrics.put("maxAcquireMicros", maxAcquireNanos.get() / 1000);
+        metrics.put("createCount", createCount.sum());
+        metrics.put("failureCount", failureCount.sum());
+        metrics.put("openFileSystems", fileSystems.size());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        for (Map.Entry<String, FileSystem> entry : fileSystems.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                log.error("关闭HDFS文件系统对象失败, user=" + entry.getKey(), e);
+            }
+        }
+        fileSystems.clear();
+    }
+}
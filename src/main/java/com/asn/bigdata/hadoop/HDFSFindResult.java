@@ -0,0 +1,20 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 按通配符和过滤条件查找文件的结果
+ */
+@Data
+public class HDFSFindResult {
+
+    private List<HDFSFileEntry> files;
+    // 通配符匹配到的路径数
+    private long matchedPaths;
+    private long scannedDirectories;
+    // 匹配的文件数超过maxResults、结果被截断时为true
+    private boolean truncated;
+    private long elapsedMillis;
+}
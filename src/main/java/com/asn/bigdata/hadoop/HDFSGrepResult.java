@@ -0,0 +1,27 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 文件内容检索结果
+ */
+@Data
+public class HDFSGrepResult {
+
+    private long lines;
+    private long matches;
+    // 匹配的行，按文件偏移量排序，最多返回maxMatches行
+    private List<Match> samples = new ArrayList<>();
+    // 匹配行数超过maxMatches时为true
+    private boolean truncated;
+
+    @Data
+    public static class Match {
+        // 行首在文件中的偏移量
+        private long offset;
+        private String line;
+    }
+}
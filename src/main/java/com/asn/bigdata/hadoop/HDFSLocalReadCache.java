@@ -0,0 +1,429 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 热点文件的本地磁盘读缓存
+ * 第一次读取时把整个文件下载到本地缓存目录，之后每次读取打开本地文件直接返回，不再访问DataNode。
+ * 缓存按路径加修改时间和长度区分版本，每次读取前向NameNode确认文件没有变化，变化后旧版本立即失效；
+ * 开启命名空间事件流时，收到变化事件也会主动删除对应条目。
+ * 同一文件同时未命中时只下载一次，其他请求等待同一次下载；总大小超过上限时按最近最少使用淘汰。
+ * 缓存只是优化，下载失败（正在写入的文件、本地磁盘已满等）时本次请求和等待的请求都直接从HDFS读取。
+ * 不使用长期存在的内存映射：映射要等GC回收后才释放，被淘汰文件的磁盘空间迟迟不能回收，实际占用会超过上限。
+ * 条目按引用计数，移出索引后等最后一个读取结束才删除文件并扣除已用空间；
+ * 删除失败的文件继续计入已用空间，之后重试删除
+ */
+@Component
+@Slf4j
+public class HDFSLocalReadCache {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSEventStream eventStream;
+    @Value("${hdfs.local-cache.enabled:false}")
+    private boolean enabled;
+    // 缓存目录，最好放在SSD上；启动时清空
+    @Value("${hdfs.local-cache.dir:./data/hdfs-cache}")
+    private String dir;
+    @Value("${hdfs.local-cache.max-bytes:10737418240}")
+    private long maxBytes;
+    // 超过该大小的文件不缓存
+    @Value("${hdfs.local-cache.max-file-bytes:268435456}")
+    private long maxFileBytes;
+
+    private File cacheDir;
+    // 按访问顺序排列，读写都需要加锁
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    // 包括索引中的文件和删除失败等待重试的文件
+    private final AtomicLong usedBytes = new AtomicLong();
+    // 删除失败的缓存文件和长度，之后重试删除
+    private final ConcurrentMap<File, Long> pendingDeletes = new ConcurrentHashMap<>();
+    // 本地文件名的序号，同一版本被删除后重新下载时也不会与正在删除的旧文件同名
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder sharedLoadCount = new LongAdder();
+    private final LongAdder loadBytes = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder bypassCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+
+    /**
+     * 一个已缓存的文件版本
+     * 索引持有一个引用，每个读取各持有一个引用，引用全部释放后才删除本地文件
+     */
+    private class Entry {
+        final String version;
+        final File file;
+        final long length;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(String version, File file, long length) {
+            this.version = version;
+            this.file = file;
+            this.length = length;
+        }
+
+        /**
+         * 增加一个读取引用
+         * @return 条目已移出索引且没有读取时返回false，本地文件可能已删除
+         */
+        boolean acquire() {
+            while (true) {
+                int current = refs.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                deleteFile(this);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        // readAll返回byte数组，单个文件不能超过2GB
+        maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+        cacheDir = new File(dir).getAbsoluteFile();
+        Files.createDirectories(cacheDir.toPath());
+        // 索引只在内存中，上次运行留下的文件无法确认版本，直接清空
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        eventStream.addListener(this::onEvent);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从缓存读取文件的一段内容，未命中时先把整个文件下载到本地
+     * @param status 调用方已获取的文件状态，与NameNode上的当前状态不一致时不使用缓存
+     * @param offset
+     * @param length
+     * @param out
+     * @return 文件不适合缓存或已发生变化时返回false，调用方直接从HDFS读取
+     * @throws IOException
+     */
+    public boolean read(FileStatus status, long offset, long length, OutputStream out) throws IOException {
+        Entry entry = get(status);
+        if (entry == null) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("本地缓存文件长度不足: " + entry.file);
+                }
+                position += transferred;
+            }
+            out.flush();
+        } finally {
+            entry.release();
+        }
+        bytesServed.add(length);
+        return true;
+    }
+
+    /**
+     * 读取整个文件
+     * @param status
+     * @return 文件不适合缓存或已发生变化时返回null
+     * @throws IOException
+     */
+    public byte[] readAll(FileStatus status) throws IOException {
+        Entry entry = get(status);
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = new byte[(int) entry.length];
+        try (FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("本地缓存文件长度不足: " + entry.file);
+                }
+            }
+        } finally {
+            entry.release();
+        }
+        bytesServed.add(data.length);
+        return data;
+    }
+
+    /**
+     * 查找或下载文件，返回的条目已增加读取引用，调用方读取完成后需要release
+     */
+    private Entry get(FileStatus status) throws IOException {
+        if (!enabled || status == null || status.isDirectory() || status.getLen() > maxFileBytes) {
+            return null;
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        String key = fs.makeQualified(status.getPath()).toUri().getPath();
+        // 只向NameNode确认一次文件状态，保证不会读到旧版本
+        FileStatus current;
+        try {
+            current = fs.getFileStatus(status.getPath());
+        } catch (FileNotFoundException e) {
+            invalidate(key);
+            bypassCount.increment();
+            return null;
+        }
+        String version = versionOf(current);
+        if (!version.equals(versionOf(status))) {
+            invalidate(key);
+            bypassCount.increment();
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            // 在锁内增加引用，索引中的条目引用数至少为1，不会被同时删除
+            if (entry != null && (!entry.version.equals(version) || !entry.acquire())) {
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hitCount.increment();
+            return entry;
+        }
+        missCount.increment();
+        // 正在写入的文件可见长度与getLen不一致，下载后也无法通过长度校验
+        if (fs instanceof DistributedFileSystem && !((DistributedFileSystem) fs).isFileClosed(current.getPath())) {
+            bypassCount.increment();
+            return null;
+        }
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            sharedLoadCount.increment();
+            entry = await(existing);
+            // 下载完成后可能已被淘汰并删除
+            return entry != null && entry.version.equals(version) && entry.acquire() ? entry : null;
+        }
+        try {
+            entry = load(fs, key, current, version);
+        } catch (IOException | RuntimeException e) {
+            // 下载失败不影响请求，本次和等待同一次下载的请求都改为直接读取HDFS
+            loadFailureCount.increment();
+            log.warn("下载文件到本地缓存失败，直接读取HDFS, path={}", key, e);
+            entry = null;
+        }
+        future.complete(entry);
+        loading.remove(key, future);
+        return entry;
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 下载到临时文件，长度校验通过后改名，再放入索引
+     * @return 已为下载的请求增加读取引用的条目
+     */
+    private Entry load(FileSystem fs, String key, FileStatus status, String version) throws IOException {
+        retryPendingDeletes();
+        String name = DigestUtils.md5Hex(key + "@" + version) + "-" + sequence.incrementAndGet();
+        File tmp = new File(cacheDir, name + ".tmp");
+        File file = new File(cacheDir, name);
+        try (InputStream in = fs.open(status.getPath());
+             OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            IOUtils.copyBytes(in, out, 256 * 1024, false);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+        if (tmp.length() != status.getLen()) {
+            Files.deleteIfExists(tmp.toPath());
+            throw new IOException("下载的文件长度与HDFS不一致: " + key);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        loadBytes.add(status.getLen());
+        Entry entry = new Entry(version, file, status.getLen());
+        // 放入索引前先为本次请求增加引用，之后即使立即被淘汰也要等本次读取结束才删除
+        entry.acquire();
+        List<Entry> removed = new ArrayList<>();
+        synchronized (entries) {
+            // 被移出索引的文件在读取结束、删除成功后才从已用空间中扣除，这里按全部删除成功估算还需要淘汰多少
+            long projected = usedBytes.addAndGet(entry.length);
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                projected -= old.length;
+                removed.add(old);
+            }
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (projected > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                if (eldest.getValue() == entry) {
+                    continue;
+                }
+                iterator.remove();
+                projected -= eldest.getValue().length;
+                removed.add(eldest.getValue());
+                evictionCount.increment();
+            }
+        }
+        for (Entry old : removed) {
+            old.release();
+        }
+        return entry;
+    }
+
+    /**
+     * 删除路径及其子路径的缓存
+     * @param path
+     */
+    public void invalidate(String path) {
+        if (!enabled) {
+            return;
+        }
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<Entry> removed = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                    iterator.remove();
+                    removed.add(entry.getValue());
+                }
+            }
+        }
+        for (Entry entry : removed) {
+            invalidationCount.increment();
+            entry.release();
+        }
+        retryPendingDeletes();
+    }
+
+    private void onEvent(HDFSNamespaceEvent event) {
+        if (HDFSNamespaceEvent.RESET.equals(event.getType())) {
+            // 事件有缺失时不清空，每次读取前的版本检查仍能保证不读到旧数据
+            return;
+        }
+        if (event.getPath() != null) {
+            invalidate(event.getPath());
+        }
+        if (event.getDstPath() != null) {
+            invalidate(event.getDstPath());
+        }
+    }
+
+    /**
+     * 删除引用已全部释放的缓存文件，成功后扣除已用空间；失败时记录下来稍后重试
+     */
+    private void deleteFile(Entry entry) {
+        if (entry.file.delete() || !entry.file.exists()) {
+            usedBytes.addAndGet(-entry.length);
+            return;
+        }
+        log.debug("删除缓存文件失败，稍后重试: {}", entry.file);
+        pendingDeletes.put(entry.file, entry.length);
+    }
+
+    private void retryPendingDeletes() {
+        for (Map.Entry<File, Long> pending : pendingDeletes.entrySet()) {
+            File file = pending.getKey();
+            if ((file.delete() || !file.exists()) && pendingDeletes.remove(file, pending.getValue())) {
+                usedBytes.addAndGet(-pending.getValue());
+            }
+        }
+    }
+
+    private static String versionOf(FileStatus status) {
+        return status.getModificationTime() + "-" + status.getLen();
+    }
+
+    /**
+     * 缓存命中统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        synchronized (entries) {
+            metrics.put("entries", entries.size());
+        }
+        metrics.put("usedBytes", usedBytes.get());
+        metrics.put("pendingDeletes", pendingDeletes.size());
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("hitCount", hits);
+        metrics.put("missCount", misses);
+        metrics.put("hitRatio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        metrics.put("sharedLoadCount", sharedLoadCount.sum());
+        metrics.put("loadBytes", loadBytes.sum());
+        metrics.put("loadFailureCount", loadFailureCount.sum());
+        metrics.put("bypassCount", bypassCount.sum());
+        metrics.put("evictionCount", evictionCount.sum());
+        metrics.put("invalidationCount", invalidationCount.sum());
+        metrics.put("bytesServed", bytesServed.sum());
+        return metrics;
+    }
+}
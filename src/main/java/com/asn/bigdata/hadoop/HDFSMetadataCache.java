@@ -0,0 +1,315 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * HDFS元数据缓存
+ * 缓存文件状态（包括文件不存在的结果）和目录列表，按TTL过期，超过容量时淘汰最早写入的条目。
+ * 通过HDFSUtils修改文件时会同步失效对应路径、父目录和子路径，
+ * 条目按路径排序存放，子路径是一段连续的key区间，失效时只访问这段区间而不扫描整个缓存。
+ * 失效时递增路径和父目录的失效计数，加载前记录路径及其所有上级目录的计数，写入后计数有变化说明加载期间被失效，
+ * 撤销这次写入，避免失效前开始的加载把旧结果重新放回缓存。
+ * 缓存的状态最多滞后TTL，只用于存在性判断和列表展示，返回文件内容时的长度和ETag要用getLatestFileStatus
+ */
+@Component
+public class HDFSMetadataCache {
+
+    // 文件不存在时缓存的占位对象
+    private static final FileStatus NOT_FOUND = new FileStatus();
+    // 失效计数的分段数，不同路径共用一段只会多撤销几次写入
+    private static final int GENERATION_STRIPES = 1024;
+
+    @Value("${hdfs.cache.enabled:true}")
+    private boolean enabled;
+    @Value("${hdfs.cache.ttl-ms:5000}")
+    private long ttlMillis;
+    @Value("${hdfs.cache.max-entries:10000}")
+    private int maxEntries;
+
+    private final Region<FileStatus> statusCache = new Region<>();
+    private final Region<FileStatus[]> listingCache = new Region<>();
+    // 按路径hash分段的失效计数，只增不减
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // 清空全部缓存的次数
+    private final AtomicLong clearGeneration = new AtomicLong();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder negativeHitCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * 获取文件状态，文件不存在时返回null
+     * @param fs
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public FileStatus getFileStatus(FileSystem fs, Path path) throws IOException {
+        String key = keyOf(fs, path);
+        Entry<FileStatus> entry = enabled ? statusCache.map.get(key) : null;
+        if (entry != null && !entry.isExpired()) {
+            hitCount.increment();
+            if (entry.value == NOT_FOUND) {
+                negativeHitCount.increment();
+                return null;
+            }
+            return entry.value;
+        }
+        missCount.increment();
+        return load(fs, path, key);
+    }
+
+    /**
+     * 不经过缓存直接从NameNode获取文件状态，并用结果刷新缓存，文件不存在时返回null
+     * @param fs
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public FileStatus getLatestFileStatus(FileSystem fs, Path path) throws IOException {
+        return load(fs, path, keyOf(fs, path));
+    }
+
+    private FileStatus load(FileSystem fs, Path path, String key) throws IOException {
+        // 在访问NameNode之前记录，之后的失效都会使计数变化
+        long generation = generationOf(key);
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(path);
+        } catch (FileNotFoundException e) {
+            status = null;
+        }
+        if (enabled) {
+            put(statusCache, key, status == null ? NOT_FOUND : status, generation);
+        }
+        return status;
+    }
+
+    /**
+     * 获取目录下的子节点列表
+     * @param fs
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public FileStatus[] listStatus(FileSystem fs, Path path) throws IOException {
+        String key = keyOf(fs, path);
+        Entry<FileStatus[]> entry = enabled ? listingCache.map.get(key) : null;
+        if (entry != null && !entry.isExpired()) {
+            hitCount.increment();
+            return entry.value;
+        }
+        missCount.increment();
+        long generation = generationOf(key);
+        FileStatus[] statuses = fs.listStatus(path);
+        if (enabled) {
+            put(listingCache, key, statuses, generation);
+        }
+        return statuses;
+    }
+
+    /**
+     * 路径被修改后失效缓存：路径本身、父目录的列表以及所有子路径
+     * @param fs
+     * @param path
+     */
+    public void invalidate(FileSystem fs, Path path) {
+        if (path == null) {
+            return;
+        }
+        invalidationCount.increment();
+        String key = keyOf(fs, path);
+        Path parent = new Path(key).getParent();
+        String parentKey = parent == null ? null : parent.toUri().getPath();
+        // 先递增计数再删除，删除之后才完成的加载一定能发现计数变化
+        generations.incrementAndGet(stripeOf(key));
+        if (parentKey != null) {
+            generations.incrementAndGet(stripeOf(parentKey));
+        }
+        statusCache.remove(key);
+        listingCache.remove(key);
+        if (parentKey != null) {
+            statusCache.remove(parentKey);
+            listingCache.remove(parentKey);
+        }
+        statusCache.removeChildren(key);
+        listingCache.removeChildren(key);
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        invalidationCount.increment();
+        clearGeneration.incrementAndGet();
+        statusCache.clear();
+        listingCache.clear();
+    }
+
+    /**
+     * 缓存命中统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("ttlMillis", ttlMillis);
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("statusEntries", statusCache.size.get());
+        metrics.put("listingEntries", listingCache.size.get());
+        metrics.put("hitCount", hits);
+        metrics.put("negativeHitCount", negativeHitCount.sum());
+        metrics.put("missCount", misses);
+        metrics.put("hitRatio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        metrics.put("evictionCount", evictionCount.sum());
+        metrics.put("invalidationCount", invalidationCount.sum());
+        return metrics;
+    }
+
+    private static String keyOf(FileSystem fs, Path path) {
+        return fs.makeQualified(path).toUri().getPath();
+    }
+
+    /**
+     * 写入加载结果，写入后发现加载期间路径被失效时撤销
+     * @param generation 加载前通过generationOf记录的计数
+     */
+    private <V> void put(Region<V> cache, String key, V value, long generation) {
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttlMillis);
+        cache.put(key, entry);
+        if (generationOf(key) != generation) {
+            cache.remove(key, entry);
+            return;
+        }
+        if (cache.size.get() > maxEntries) {
+            evict(cache);
+        }
+    }
+
+    /**
+     * 路径及其所有上级目录的失效计数之和，失效路径本身、子路径或上级目录都会使结果变化
+     */
+    private long generationOf(String key) {
+        long generation = clearGeneration.get();
+        String current = key;
+        while (true) {
+            generation += generations.get(stripeOf(current));
+            int index = current.lastIndexOf('/');
+            if (index < 0 || current.equals("/")) {
+                return generation;
+            }
+            current = index == 0 ? "/" : current.substring(0, index);
+        }
+    }
+
+    private static int stripeOf(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * 先清理过期条目，仍然超过容量时淘汰最早写入的十分之一
+     */
+    private synchronized <V> void evict(Region<V> cache) {
+        if (cache.size.get() <= maxEntries) {
+            return;
+        }
+        int removed = 0;
+        for (Map.Entry<String, Entry<V>> entry : cache.map.entrySet()) {
+            if (entry.getValue().isExpired() && cache.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        if (cache.size.get() > maxEntries) {
+            List<Map.Entry<String, Entry<V>>> entries = new ArrayList<>(cache.map.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().expireAt));
+            int toRemove = cache.size.get() - maxEntries + maxEntries / 10;
+            for (int i = 0; i < toRemove && i < entries.size(); i++) {
+                if (cache.remove(entries.get(i).getKey(), entries.get(i).getValue())) {
+                    removed++;
+                }
+            }
+        }
+        evictionCount.add(removed);
+    }
+
+    /**
+     * 按路径排序的缓存区域，单独维护条目数，ConcurrentSkipListMap的size()需要遍历
+     */
+    private static class Region<V> {
+        private final ConcurrentNavigableMap<String, Entry<V>> map = new ConcurrentSkipListMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private void put(String key, Entry<V> entry) {
+            if (map.put(key, entry) == null) {
+                size.incrementAndGet();
+            }
+        }
+
+        private void remove(String key) {
+            if (map.remove(key) != null) {
+                size.decrementAndGet();
+            }
+        }
+
+        private boolean remove(String key, Entry<V> entry) {
+            if (map.remove(key, entry)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 删除所有子路径，子路径都以key + "/"开头，在排序后位于[key + "/", key + "0")区间内（'0'紧跟在'/'之后）
+         */
+        private void removeChildren(String key) {
+            String prefix = key.endsWith("/") ? key : key + "/";
+            String end = prefix.substring(0, prefix.length() - 1) + "0";
+            for (String child : map.subMap(prefix, end).keySet()) {
+                remove(child);
+            }
+        }
+
+        private void clear() {
+            for (String key : map.keySet()) {
+                remove(key);
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expireAt;
+        }
+    }
+}
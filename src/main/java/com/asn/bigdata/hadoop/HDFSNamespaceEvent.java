@@ -0,0 +1,26 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * HDFS命名空间变化事件，由NameNode的inotify事件转换而来
+ */
+@Data
+public class HDFSNamespaceEvent {
+
+    // 缺失了一段事件、需要调用方自行全量刷新时发出的事件类型
+    public static final String RESET = "RESET";
+
+    // 所在事件批次的事务id，同一批次内的事件相同
+    private long txid;
+    // CREATE、CLOSE、APPEND、RENAME、METADATA、UNLINK或RESET
+    private String type;
+    private String path;
+    // 重命名后的路径，只有RENAME有值
+    private String dstPath;
+    // 关闭时的文件大小，只有CLOSE有值
+    private long fileSize;
+    // 元数据变化类型，如TIMES、REPLICATION、OWNER、PERMS，只有METADATA有值
+    private String metadataType;
+    private long timestamp;
+}
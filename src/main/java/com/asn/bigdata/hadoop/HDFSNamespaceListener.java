@@ -0,0 +1,14 @@
+package com.asn.bigdata.hadoop;
+
+/**
+ * 进程内的命名空间事件监听器，在事件线程中同步回调，实现中不要做耗时操作
+ */
+@FunctionalInterface
+public interface HDFSNamespaceListener {
+
+    /**
+     * 收到事件
+     * @param event 类型为RESET时表示中间缺失了事件，需要丢弃依赖事件维护的全部状态
+     */
+    void onEvent(HDFSNamespaceEvent event);
+}
@@ -0,0 +1,24 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 小文件打包结果
+ */
+@Data
+public class HDFSPackResult {
+
+    private String path;
+    private boolean recursive;
+    // 生成的容器文件
+    private List<String> packs = new ArrayList<>();
+    private long packedFiles;
+    private long packedBytes;
+    // 打包后删除的原文件数，打包期间被修改的文件不删除
+    private long deletedFiles;
+    private long skippedFiles;
+    private long elapsedMillis;
+}
@@ -0,0 +1,19 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 已打包到容器文件中的小文件
+ */
+@Data
+public class HDFSPackedFile {
+
+    // 打包前的路径
+    private String path;
+    // 所在的容器文件（MapFile目录）
+    private String packPath;
+    private long length;
+    // 容器文件的生成时间，小文件打包后不再单独保留修改时间
+    private long modificationTime;
+    private byte[] data;
+}
@@ -0,0 +1,267 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.asn.bigdata.utils.UUIDUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按块并行下载HDFS文件
+ * 根据getFileBlockLocations把文件切分成块，每个块用positional read读取，
+ * 再按偏移量写入同目录下预先分配好大小的临时文件，全部完成后改名替换本地文件
+ */
+@Component
+@Slf4j
+public class HDFSParallelDownloader {
+
+    // 每次从HDFS读取、写入本地文件的字节数
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSReadLatencyTracker latencyTracker;
+    @Autowired
+    private HDFSSmallFilePacker smallFilePacker;
+    @Value("${hdfs.download.threads:16}")
+    private int threads;
+    @Value("${hdfs.download.parallelism:4}")
+    private int defaultParallelism;
+    @Value("${hdfs.download.retries:3}")
+    private int maxRetries;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * 16), new CustomizableThreadFactory("hdfs-download-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 并行下载HDFS文件到本地
+     * @param path HDFS文件路径
+     * @param downloadPath 本地路径，为目录时使用HDFS文件名
+     * @param parallelism 同时下载的块数，为空时使用默认值
+     * @return
+     * @throws Exception
+     */
+    public HDFSDownloadResult download(String path, String downloadPath, Integer parallelism) throws Exception {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path srcPath = new Path(path);
+        File localFile = new File(downloadPath);
+        if (localFile.isDirectory()) {
+            localFile = new File(localFile, srcPath.getName());
+        }
+        FileStatus fileStatus;
+        try {
+            fileStatus = fs.getFileStatus(srcPath);
+        } catch (FileNotFoundException e) {
+            // 原文件不存在时检查是否已被打包到容器文件中，小文件直接写入本地
+            HDFSPackedFile packedFile = smallFilePacker.read(path);
+            if (packedFile == null) {
+                throw e;
+            }
+            long start = System.currentTimeMillis();
+            File tmpFile = tempFile(localFile);
+            try {
+                Files.write(tmpFile.toPath(), packedFile.getData());
+                moveIntoPlace(tmpFile, localFile);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            HDFSDownloadResult result = new HDFSDownloadResult();
+            result.setPath(path);
+            result.setLocalPath(localFile.getAbsolutePath());
+            result.setBytes(packedFile.getLength());
+            result.setParallelism(1);
+            result.setElapsedMillis(elapsed);
+            result.setBytesPerSecond(packedFile.getLength() * 1000 / elapsed);
+            return result;
+        }
+        if (fileStatus.isDirectory()) {
+            throw new IOException("不支持下载目录: " + path);
+        }
+        long length = fileStatus.getLen();
+        BlockLocation[] blockLocations = fs.getFileBlockLocations(fileStatus, 0, length);
+        Queue<BlockLocation> pending = new ConcurrentLinkedQueue<>();
+        for (BlockLocation blockLocation : blockLocations) {
+            pending.add(blockLocation);
+        }
+        int workers = Math.max(1, Math.min(parallelism != null ? parallelism : defaultParallelism,
+                Math.min(threads, blockLocations.length)));
+        AtomicInteger retries = new AtomicInteger();
+        long start = System.currentTimeMillis();
+
+        // 先下载到同目录下的临时文件，成功后再替换，失败时不影响下载前已存在的本地文件
+        File tmpFile = tempFile(localFile);
+        boolean success = false;
+        try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+            // 预先分配本地文件大小，各块按偏移量写入互不影响
+            file.setLength(length);
+            FileChannel channel = file.getChannel();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    downloadBlocks(fs, srcPath, pending, channel, retries);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                // 一个块失败后其余worker不再领取新的块
+                cancel(pending, futures);
+                throw new IOException("下载文件失败: " + path, e.getCause());
+            } catch (InterruptedException e) {
+                // 请求超时等原因中断调用线程时，同样停止所有worker
+                cancel(pending, futures);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("下载文件被中断: " + path);
+            }
+            channel.force(false);
+            success = true;
+        } finally {
+            if (!success && tmpFile.exists() && !tmpFile.delete()) {
+                log.warn("删除未下载完成的临时文件失败: {}", tmpFile);
+            }
+        }
+        try {
+            moveIntoPlace(tmpFile, localFile);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        HDFSDownloadResult result = new HDFSDownloadResult();
+        result.setPath(path);
+        result.setLocalPath(localFile.getAbsolutePath());
+        result.setBytes(length);
+        result.setBlocks(blockLocations.length);
+        result.setParallelism(workers);
+        result.setRetries(retries.get());
+        result.setElapsedMillis(elapsed);
+        result.setBytesPerSecond(length * 1000 / elapsed);
+        return result;
+    }
+
+    private static void cancel(Queue<BlockLocation> pending, List<Future<?>> futures) {
+        pending.clear();
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static File tempFile(File localFile) {
+        File dir = localFile.getAbsoluteFile().getParentFile();
+        return new File(dir, "." + localFile.getName() + "." + UUIDUtils.generateShortUuid8() + ".tmp");
+    }
+
+    /**
+     * 临时文件和目标文件在同一目录下，改名是原子的
+     */
+    private static void moveIntoPlace(File tmpFile, File localFile) throws IOException {
+        Files.move(tmpFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * worker不断领取未下载的块，直到全部下载完成
+     */
+    private void downloadBlocks(FileSystem fs, Path srcPath, Queue<BlockLocation> pending, FileChannel channel,
+                                AtomicInteger retries) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        FSDataInputStream inputStream = fs.open(srcPath);
+        try {
+            BlockLocation blockLocation;
+            while ((blockLocation = pending.poll()) != null) {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        copyBlock(inputStream, blockLocation, channel, buffer);
+                        break;
+                    } catch (IOException e) {
+                        if (attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                            throw e;
+                        }
+                        retries.incrementAndGet();
+                        log.warn("下载块失败，重试第{}次, path={}, offset={}", attempt + 1, srcPath,
+                                blockLocation.getOffset(), e);
+                        // 重新打开输入流，让客户端重新选择DataNode
+                        IOUtils.closeStream(inputStream);
+                        inputStream = fs.open(srcPath);
+                    }
+                }
+            }
+        } finally {
+            IOUtils.closeStream(inputStream);
+        }
+    }
+
+    private void copyBlock(FSDataInputStream inputStream, BlockLocation blockLocation, FileChannel channel,
+                           byte[] buffer) throws IOException {
+        long position = blockLocation.getOffset();
+        long end = position + blockLocation.getLength();
+        // 对冲读只对positional read生效，未开启时定位后顺序读取整个块，能取得实际读取的DataNode
+        boolean positional = latencyTracker.isHedgedReadEnabled();
+        HDFSReadLatencyTracker.ReadSource source = new HDFSReadLatencyTracker.ReadSource(inputStream, positional);
+        if (!positional) {
+            inputStream.seek(position);
+        }
+        while (position < end) {
+            int len = (int) Math.min(buffer.length, end - position);
+            long start = System.nanoTime();
+            if (positional) {
+                inputStream.readFully(position, buffer, 0, len);
+            } else {
+                inputStream.readFully(buffer, 0, len);
+            }
+            latencyTracker.record(source.host(position), System.nanoTime() - start, len);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+            long writePosition = position;
+            while (byteBuffer.hasRemaining()) {
+                writePosition += channel.write(byteBuffer, writePosition);
+            }
+            position += len;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按DataNode统计读取延迟，用来找出拖慢尾延迟的DataNode
+ * 顺序读取后从输入流取得实际提供数据的DataNode。
+ * 2.7版本的DFS客户端在positional read（包括对冲读）时不记录当前DataNode，这类读取按所在块的第一个副本归属：
+ * DFSClient按NameNode返回的副本顺序先向第一个副本读取，对冲读在它超过阈值后才请求其他副本，
+ * 所以第一个副本慢时这次读取的延迟至少是阈值，慢节点仍然能被找出来。
+ * 块位置取自输入流已缓存的块列表，无法确定时计入unattributed总体统计
+ */
+@Component
+public class HDFSReadLatencyTracker {
+
+    // 指数移动平均的权重
+    private static final double EWMA_ALPHA = 0.1;
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.read.tracking.enabled:true}")
+    private boolean enabled;
+    // 延迟超过所有主机中位数的多少倍认为是慢节点
+    @Value("${hdfs.read.slow-factor:3}")
+    private double slowFactor;
+    // 样本数达到该值才参与慢节点判断
+    @Value("${hdfs.read.min-samples:20}")
+    private long minSamples;
+
+    private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<>();
+    // 无法确定DataNode的读取
+    private final HostStats unattributed = new HostStats();
+    private final LongAdder readsOverThreshold = new LongAdder();
+    private boolean hedgedReadEnabled;
+    private long hedgedThresholdNanos;
+
+    @PostConstruct
+    public void init() {
+        Configuration conf = fileSystemProvider.getConfiguration();
+        hedgedReadEnabled = conf.getInt(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE,
+                DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE) > 0;
+        hedgedThresholdNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(
+                DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
+                DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否开启了对冲读，对冲读只对positional read生效
+     * @return
+     */
+    public boolean isHedgedReadEnabled() {
+        return hedgedReadEnabled;
+    }
+
+    /**
+     * 输入流最近一次顺序读取所用的DataNode
+     * @param inputStream
+     * @return 不是HDFS输入流或还没有顺序读取过时返回null
+     */
+    public static String currentHost(FSDataInputStream inputStream) {
+        if (!(inputStream instanceof HdfsDataInputStream)) {
+            return null;
+        }
+        DatanodeInfo datanode = ((HdfsDataInputStream) inputStream).getCurrentDatanode();
+        return datanode == null ? null : datanode.getHostName();
+    }
+
+    /**
+     * 确定一个输入流的每次读取由哪个DataNode提供，positional read时缓存当前块，跨块后重新查找
+     */
+    public static class ReadSource {
+        private final FSDataInputStream inputStream;
+        private final boolean positional;
+        private LocatedBlock block;
+
+        public ReadSource(FSDataInputStream inputStream, boolean positional) {
+            this.inputStream = inputStream;
+            this.positional = positional;
+        }
+
+        /**
+         * 从position开始的这次读取所用的DataNode
+         * @param position 读取的起始偏移量
+         * @return 无法确定时返回null
+         */
+        public String host(long position) {
+            if (!positional) {
+                return currentHost(inputStream);
+            }
+            if (block == null || position < block.getStartOffset()
+                    || position >= block.getStartOffset() + block.getBlockSize()) {
+                block = locate(position);
+            }
+            if (block == null || block.getLocations().length == 0) {
+                return null;
+            }
+            return block.getLocations()[0].getHostName();
+        }
+
+        private LocatedBlock locate(long position) {
+            if (!(inputStream instanceof HdfsDataInputStream)) {
+                return null;
+            }
+            try {
+                for (LocatedBlock located : ((HdfsDataInputStream) inputStream).getAllBlocks()) {
+                    if (position >= located.getStartOffset()
+                            && position < located.getStartOffset() + located.getBlockSize()) {
+                        return located;
+                    }
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 记录一次读取
+     * @param host 实际读取的DataNode，无法确定时为null
+     * @param nanos 耗时
+     * @param bytes 读取的字节数
+     */
+    public void record(String host, long nanos, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        if (host == null) {
+            unattributed.record(nanos, bytes);
+        } else {
+            hosts.computeIfAbsent(host, k -> new HostStats()).record(nanos, bytes);
+        }
+        if (nanos > hedgedThresholdNanos) {
+            readsOverThreshold.increment();
+        }
+    }
+
+    /**
+     * 读取延迟诊断信息：各主机的延迟统计（按平均延迟从高到低）、慢节点列表和对冲读配置
+     * @return
+     */
+    public Map<String, Object> getDiagnostics() {
+        List<Map<String, Object>> hostList = new ArrayList<>();
+        List<Double> ewmas = new ArrayList<>();
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+            Map<String, Object> stats = entry.getValue().snapshot();
+            stats.put("host", entry.getKey());
+            hostList.add(stats);
+            if ((long) stats.get("reads") >= minSamples) {
+                ewmas.add((double) stats.get("ewmaMillis"));
+            }
+        }
+        double median = median(ewmas);
+        List<String> slowHosts = new ArrayList<>();
+        for (Map<String, Object> stats : hostList) {
+            boolean slow = median > 0 && (long) stats.get("reads") >= minSamples
+                    && (double) stats.get("ewmaMillis") > median * slowFactor;
+            stats.put("slow", slow);
+            if (slow) {
+                slowHosts.add((String) stats.get("host"));
+            }
+        }
+        hostList.sort(Comparator.comparingDouble((Map<String, Object> m) -> (double) m.get("avgMillis")).reversed());
+
+        Map<String, Object> diagnostics = new LinkedHashMap<>();
+        diagnostics.put("medianEwmaMillis", median);
+        diagnostics.put("slowFactor", slowFactor);
+        diagnostics.put("slowHosts", slowHosts);
+        diagnostics.put("hosts", hostList);
+        diagnostics.put("unattributed", unattributed.snapshot());
+        // 2.7版本DFSClient的对冲读统计不对外公开，这里给出生效的配置和超过阈值的读取次数
+        Map<String, Object> hedgedMetrics = new LinkedHashMap<>();
+        hedgedMetrics.put("enabled", hedgedReadEnabled);
+        hedgedMetrics.put("thresholdMillis", TimeUnit.NANOSECONDS.toMillis(hedgedThresholdNanos));
+        hedgedMetrics.put("readsOverThreshold", readsOverThreshold.sum());
+        diagnostics.put("hedgedRead", hedgedMetrics);
+        return diagnostics;
+    }
+
+    /**
+     * 清空统计，DataNode恢复后重新观察
+     */
+    public void reset() {
+        hosts.clear();
+        unattributed.reset();
+        readsOverThreshold.reset();
+    }
+
+    private static double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(values);
+        int middle = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+    }
+
+    private static class HostStats {
+        private long reads;
+        private long bytes;
+        private long totalNanos;
+        private long maxNanos;
+        private double ewmaNanos;
+
+        private synchronized void record(long nanos, long readBytes) {
+            reads++;
+            bytes += readBytes;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            ewmaNanos = reads == 1 ? nanos : ewmaNanos + EWMA_ALPHA * (nanos - ewmaNanos);
+        }
+
+        private synchronized void reset() {
+            reads = 0;
+            bytes = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            ewmaNanos = 0;
+        }
+
+        private synchronized Map<String, Object> snapshot() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("reads", reads);
+            stats.put("bytes", bytes);
+            stats.put("avgMillis", reads == 0 ? 0d : (double) totalNanos / reads / TimeUnit.MILLISECONDS.toNanos(1));
+            stats.put("maxMillis", (double) maxNanos / TimeUnit.MILLISECONDS.toNanos(1));
+            stats.put("ewmaMillis", ewmaNanos / TimeUnit.MILLISECONDS.toNanos(1));
+            stats.put("bytesPerSecond", totalNanos == 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / totalNanos);
+            return stats;
+        }
+    }
+}
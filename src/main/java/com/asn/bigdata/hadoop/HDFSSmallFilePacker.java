@@ -0,0 +1,704 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 小文件打包
+ * 把目录下的小文件按路径排序写入MapFile（key为相对该目录的路径，value为文件内容），放在该目录的_packed子目录下，
+ * 然后删除原文件，减少NameNode上的文件数。MapFile的索引每条记录一项，读取时在内存索引中二分查找后只需一次seek。
+ * key使用相对路径，目录改名时目录下的容器文件随之移动，仍然可以读取。
+ * 读取不存在的文件时检查各级父目录下的容器文件，不论在哪一级，生成时间最新的容器文件优先。
+ * 删除或改名走掉已打包的文件时，在其父目录的_packed下记录删除标记，
+ * 删除标记使父目录及更上层目录中早于它生成的容器文件里该路径（及其子路径）的内容不再可见
+ */
+@Component
+@Slf4j
+public class HDFSSmallFilePacker {
+
+    public static final String PACK_DIR = "_packed";
+    private static final String PACK_PREFIX = "pack-";
+    // 删除标记文件，SequenceFile，key为被删除的子路径名，value为删除时间
+    private static final String TOMBSTONE_FILE = "_tombstones";
+    private static final String PACK_TIME_PATTERN = "yyyyMMdd-HHmmss-SSS";
+    private static final DateTimeFormatter PACK_TIME = DateTimeFormatter.ofPattern(PACK_TIME_PATTERN);
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSMetadataCache metadataCache;
+    // 不超过该大小的文件才会被打包
+    @Value("${hdfs.pack.small-file-threshold:1048576}")
+    private long smallFileThreshold;
+    // 单个容器文件的最大字节数，超过后写入新的容器文件
+    @Value("${hdfs.pack.max-pack-bytes:1073741824}")
+    private long maxPackBytes;
+    // 目录下小文件数不少于该值时才打包
+    @Value("${hdfs.pack.min-files:100}")
+    private int minFiles;
+    @Value("${hdfs.pack.reader-cache-size:64}")
+    private int readerCacheSize;
+    @Value("${hdfs.pack.schedule.enabled:false}")
+    private boolean scheduleEnabled;
+    // 定时检查的根目录，多个用逗号分隔，根目录及其子目录中小文件数超过min-files的目录会被打包
+    @Value("${hdfs.pack.schedule.dirs:}")
+    private String scheduleDirs;
+    @Value("${hdfs.pack.schedule.interval-ms:3600000}")
+    private long scheduleIntervalMillis;
+
+    // 打开的MapFile读取器，按访问顺序淘汰；读取器不是线程安全的，使用时需要加锁
+    private Map<String, MapFile.Reader> readers;
+    private final Set<String> packing = ConcurrentHashMap.newKeySet();
+    // 已读取的删除标记，按_packed目录缓存，标记文件的修改时间或长度变化时重新读取
+    private final Map<String, Tombstones> tombstones = new ConcurrentHashMap<>();
+    // 删除标记文件整体重写，同一进程内串行执行
+    private final Object tombstoneLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        readers = new LinkedHashMap<String, MapFile.Reader>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MapFile.Reader> eldest) {
+                if (size() > readerCacheSize) {
+                    closeReader(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (scheduleEnabled && StringUtils.isNotBlank(scheduleDirs)) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hdfs-pack-"));
+            scheduler.scheduleWithFixedDelay(this::packScheduled, scheduleIntervalMillis, scheduleIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        synchronized (readers) {
+            for (MapFile.Reader reader : readers.values()) {
+                closeReader(reader);
+            }
+            readers.clear();
+        }
+    }
+
+    /**
+     * 打包目录下的小文件
+     * @param path 目录
+     * @param recursive 是否包含子目录中的小文件
+     * @param deleteOriginals 打包后是否删除原文件
+     * @return
+     * @throws IOException
+     */
+    public HDFSPackResult pack(String path, boolean recursive, boolean deleteOriginals) throws IOException {
+        long start = System.currentTimeMillis();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path dir = fs.makeQualified(new Path(path));
+        String dirKey = dir.toUri().getPath();
+        if (!packing.add(dirKey)) {
+            throw new IllegalStateException("目录正在打包: " + path);
+        }
+        try {
+            HDFSPackResult result = new HDFSPackResult();
+            result.setPath(path);
+            result.setRecursive(recursive);
+            List<FileStatus> files = listSmallFiles(fs, dir, recursive);
+            // MapFile要求key按Text的字节序（UTF-8）有序，String.compareTo是UTF-16序，含增补字符时顺序不同
+            files.sort((a, b) -> new Text(relative(dir, a.getPath())).compareTo(new Text(relative(dir, b.getPath()))));
+            int from = 0;
+            while (from < files.size()) {
+                int to = from;
+                long bytes = 0;
+                while (to < files.size() && (to == from || bytes + files.get(to).getLen() <= maxPackBytes)) {
+                    bytes += files.get(to).getLen();
+                    to++;
+                }
+                List<FileStatus> slice = files.subList(from, to);
+                Path pack = writePack(fs, dir, slice, result);
+                result.getPacks().add(pack.toUri().getPath());
+                if (deleteOriginals) {
+                    deleteOriginals(fs, slice, result);
+                }
+                from = to;
+            }
+            metadataCache.invalidate(fs, dir);
+            result.setElapsedMillis(System.currentTimeMillis() - start);
+            log.info("小文件打包完成, path={}, files={}, packs={}", path, result.getPackedFiles(), result.getPacks().size());
+            return result;
+        } finally {
+            packing.remove(dirKey);
+        }
+    }
+
+    /**
+     * 从容器文件中读取已打包的文件
+     * @param path 打包前的路径
+     * @return 没有被打包或已被删除时返回null
+     * @throws IOException
+     */
+    public HDFSPackedFile read(String path) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        return read(fs, fs.makeQualified(new Path(path)));
+    }
+
+    /**
+     * 已打包的文件是否可见，只在索引中查找key，不读取文件内容
+     * @param path 打包前的路径
+     * @return
+     * @throws IOException
+     */
+    public boolean exists(String path) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path filePath = fs.makeQualified(new Path(path));
+        for (Candidate candidate : candidates(fs, filePath)) {
+            if (withReader(fs, candidate.pack.status.getPath(), reader -> reader.seek(new Text(candidate.key)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 打开文件读取，原文件不存在时从容器文件中读取
+     * @param fs
+     * @param path
+     * @param bufferSize
+     * @return
+     * @throws FileNotFoundException 原文件不存在且没有被打包
+     * @throws IOException
+     */
+    public InputStream open(FileSystem fs, Path path, int bufferSize) throws IOException {
+        try {
+            return fs.open(path, bufferSize);
+        } catch (FileNotFoundException e) {
+            HDFSPackedFile packedFile = read(fs, fs.makeQualified(path));
+            if (packedFile == null) {
+                throw e;
+            }
+            return new ByteArrayInputStream(packedFile.getData());
+        }
+    }
+
+    /**
+     * 删除已打包的文件或目录下已打包的文件：在父目录的_packed下记录删除标记
+     * 原文件的删除由调用方完成，这里只处理容器文件中的内容
+     * @param path
+     * @return 上级目录的容器文件中有该路径或其子路径时返回true
+     * @throws IOException
+     */
+    public boolean remove(String path) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path target = fs.makeQualified(new Path(path));
+        if (target.isRoot() || !containsAny(fs, target)) {
+            return false;
+        }
+        writeTombstone(fs, target, System.currentTimeMillis());
+        log.info("记录已打包文件的删除标记, path={}", target);
+        return true;
+    }
+
+    /**
+     * 把上级目录的容器文件中该路径及其子路径的可见内容还原为普通文件，已存在的普通文件不覆盖
+     * 改名或放入回收站前调用，使已打包的文件与普通文件一起移动；目录自身_packed下的容器文件会随目录移动，不需要还原
+     * @param path
+     * @return 还原的文件数
+     * @throws IOException
+     */
+    public int unpack(String path) throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path target = fs.makeQualified(new Path(path));
+        if (target.isRoot()) {
+            return 0;
+        }
+        Set<String> paths = new TreeSet<>();
+        for (Level level : levels(fs, target)) {
+            String prefix = relative(level.dir, target);
+            for (Pack pack : level.packs) {
+                withReader(fs, pack.status.getPath(), reader -> {
+                    Text key = new Text();
+                    BytesWritable value = new BytesWritable();
+                    WritableComparable<?> found = reader.getClosest(new Text(prefix), value);
+                    while (found != null && isSameOrChild(found.toString(), prefix)) {
+                        paths.add(new Path(level.dir, found.toString()).toUri().getPath());
+                        found = reader.next(key, value) ? key : null;
+                    }
+                    return null;
+                });
+            }
+        }
+        int restored = 0;
+        for (String restorePath : paths) {
+            Path file = fs.makeQualified(new Path(restorePath));
+            if (fs.exists(file)) {
+                continue;
+            }
+            // 按读取的规则取最新且未被删除的内容
+            HDFSPackedFile packedFile = read(fs, file);
+            if (packedFile == null) {
+                continue;
+            }
+            try (FSDataOutputStream out = fs.create(file, false)) {
+                out.write(packedFile.getData());
+            }
+            fs.setTimes(file, packedFile.getModificationTime(), -1);
+            restored++;
+        }
+        if (restored > 0) {
+            metadataCache.invalidate(fs, target);
+            log.info("还原已打包的文件, path={}, files={}", target, restored);
+        }
+        return restored;
+    }
+
+    private HDFSPackedFile read(FileSystem fs, Path filePath) throws IOException {
+        BytesWritable value = new BytesWritable();
+        for (Candidate candidate : candidates(fs, filePath)) {
+            Path packPath = candidate.pack.status.getPath();
+            boolean found = withReader(fs, packPath, reader -> reader.get(new Text(candidate.key), value) != null);
+            if (found) {
+                HDFSPackedFile packedFile = new HDFSPackedFile();
+                packedFile.setPath(filePath.toUri().getPath());
+                packedFile.setPackPath(packPath.toUri().getPath());
+                packedFile.setLength(value.getLength());
+                packedFile.setModificationTime(candidate.pack.status.getModificationTime());
+                packedFile.setData(value.copyBytes());
+                return packedFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 可能包含该文件的容器文件，未被删除标记覆盖的，生成时间新的在前
+     */
+    private List<Candidate> candidates(FileSystem fs, Path filePath) throws IOException {
+        // 从近到远遍历各级父目录，某一级的删除标记对该级及更上层早于标记的容器文件生效
+        List<Candidate> candidates = new ArrayList<>();
+        long deletedAt = Long.MIN_VALUE;
+        for (Level level : levels(fs, filePath)) {
+            String key = relative(level.dir, filePath);
+            Long tombstone = level.tombstones.get(StringUtils.substringBefore(key, Path.SEPARATOR));
+            if (tombstone != null) {
+                deletedAt = Math.max(deletedAt, tombstone);
+            }
+            for (Pack pack : level.packs) {
+                if (pack.time > deletedAt) {
+                    candidates.add(new Candidate(pack, key));
+                }
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(b.pack.time, a.pack.time));
+        return candidates;
+    }
+
+    /**
+     * 上级目录的容器文件中是否有该路径或其子路径，不考虑删除标记
+     */
+    private boolean containsAny(FileSystem fs, Path target) throws IOException {
+        for (Level level : levels(fs, target)) {
+            String prefix = relative(level.dir, target);
+            for (Pack pack : level.packs) {
+                boolean found = withReader(fs, pack.status.getPath(), reader -> {
+                    WritableComparable<?> key = reader.getClosest(new Text(prefix), new BytesWritable());
+                    return key != null && isSameOrChild(key.toString(), prefix);
+                });
+                if (found) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * path的各级父目录中有_packed的，从近到远
+     */
+    private List<Level> levels(FileSystem fs, Path path) throws IOException {
+        List<Level> levels = new ArrayList<>();
+        for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+            Path packDir = new Path(dir, PACK_DIR);
+            FileStatus packDirStatus = metadataCache.getFileStatus(fs, packDir);
+            if (packDirStatus != null && packDirStatus.isDirectory()) {
+                levels.add(new Level(dir, listPacks(fs, packDir), readTombstones(fs, packDir)));
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * 目录下的容器文件，新生成的在前
+     */
+    private List<Pack> listPacks(FileSystem fs, Path packDir) throws IOException {
+        List<Pack> packs = new ArrayList<>();
+        for (FileStatus status : metadataCache.listStatus(fs, packDir)) {
+            if (status.isDirectory() && status.getPath().getName().startsWith(PACK_PREFIX)) {
+                packs.add(new Pack(status, packTime(status)));
+            }
+        }
+        packs.sort((a, b) -> b.status.getPath().getName().compareTo(a.status.getPath().getName()));
+        return packs;
+    }
+
+    /**
+     * 容器文件的生成时间，取自文件名中时间后缀之前的部分，与删除标记使用同一时钟
+     */
+    private static long packTime(FileStatus pack) {
+        String name = pack.getPath().getName();
+        int end = PACK_PREFIX.length() + PACK_TIME_PATTERN.length();
+        try {
+            return LocalDateTime.parse(name.substring(PACK_PREFIX.length(), Math.min(end, name.length())), PACK_TIME)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return pack.getModificationTime();
+        }
+    }
+
+    private Map<String, Long> readTombstones(FileSystem fs, Path packDir) throws IOException {
+        String cacheKey = packDir.toUri().getPath();
+        FileStatus status = metadataCache.getFileStatus(fs, new Path(packDir, TOMBSTONE_FILE));
+        if (status == null) {
+            tombstones.remove(cacheKey);
+            return Collections.emptyMap();
+        }
+        Tombstones cached = tombstones.get(cacheKey);
+        if (cached != null && cached.modificationTime == status.getModificationTime()
+                && cached.length == status.getLen()) {
+            return cached.entries;
+        }
+        Map<String, Long> entries = loadTombstones(fs, status.getPath());
+        tombstones.put(cacheKey, new Tombstones(status.getModificationTime(), status.getLen(), entries));
+        return entries;
+    }
+
+    private static Map<String, Long> loadTombstones(FileSystem fs, Path file) throws IOException {
+        Map<String, Long> entries = new TreeMap<>();
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), SequenceFile.Reader.file(file))) {
+            Text key = new Text();
+            LongWritable value = new LongWritable();
+            while (reader.next(key, value)) {
+                entries.put(key.toString(), value.get());
+            }
+        } catch (FileNotFoundException e) {
+            // 没有删除标记
+        }
+        return entries;
+    }
+
+    /**
+     * 在target父目录的_packed下记录删除标记，标记文件先写临时文件再整体替换
+     */
+    private void writeTombstone(FileSystem fs, Path target, long time) throws IOException {
+        Path packDir = new Path(target.getParent(), PACK_DIR);
+        Path file = new Path(packDir, TOMBSTONE_FILE);
+        synchronized (tombstoneLock) {
+            Map<String, Long> entries = loadTombstones(fs, file);
+            entries.put(target.getName(), time);
+            Path tmp = new Path(packDir, "." + TOMBSTONE_FILE + "." + System.nanoTime() + ".tmp");
+            try {
+                try (SequenceFile.Writer writer = SequenceFile.createWriter(fs.getConf(),
+                        SequenceFile.Writer.file(tmp), SequenceFile.Writer.keyClass(Text.class),
+                        SequenceFile.Writer.valueClass(LongWritable.class))) {
+                    for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                        writer.append(new Text(entry.getKey()), new LongWritable(entry.getValue()));
+                    }
+                }
+                HDFSUtils.rename(fs, tmp, file, true);
+            } finally {
+                if (fs.exists(tmp)) {
+                    fs.delete(tmp, false);
+                }
+            }
+            tombstones.remove(packDir.toUri().getPath());
+            metadataCache.invalidate(fs, file);
+        }
+    }
+
+    private static String relative(Path dir, Path path) {
+        String dirPath = dir.toUri().getPath();
+        String filePath = path.toUri().getPath();
+        return filePath.substring(dirPath.endsWith(Path.SEPARATOR) ? dirPath.length() : dirPath.length() + 1);
+    }
+
+    private static boolean isSameOrChild(String key, String prefix) {
+        return key.equals(prefix) || key.startsWith(prefix + Path.SEPARATOR);
+    }
+
+    /**
+     * 使用容器文件的读取器，缓存的读取器失效（被淘汰关闭或容器文件被替换）时重新打开一次
+     */
+    private <T> T withReader(FileSystem fs, Path pack, ReaderCall<T> call) throws IOException {
+        String packKey = pack.toUri().getPath();
+        for (int attempt = 0; ; attempt++) {
+            MapFile.Reader reader;
+            synchronized (readers) {
+                reader = readers.get(packKey);
+                if (reader == null) {
+                    reader = new MapFile.Reader(pack, fs.getConf());
+                    readers.put(packKey, reader);
+                }
+            }
+            IOException failure;
+            synchronized (reader) {
+                try {
+                    return call.call(reader);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            synchronized (readers) {
+                if (readers.get(packKey) == reader) {
+                    readers.remove(packKey);
+                }
+            }
+            closeReader(reader);
+            if (attempt > 0) {
+                throw failure;
+            }
+        }
+    }
+
+    private List<FileStatus> listSmallFiles(FileSystem fs, Path dir, boolean recursive) throws IOException {
+        List<FileStatus> files = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(dir, recursive);
+        while (iterator.hasNext()) {
+            LocatedFileStatus status = iterator.next();
+            if (status.getLen() <= smallFileThreshold && !isPackFile(dir, status.getPath())
+                    && isClosed(fs, status.getPath())) {
+                files.add(status);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 文件是否已关闭；正在写入的文件长度和修改时间在写入期间可能不变，打包后删除会丢失之后写入的数据
+     */
+    private static boolean isClosed(FileSystem fs, Path path) throws IOException {
+        return !(fs instanceof DistributedFileSystem) || ((DistributedFileSystem) fs).isFileClosed(path);
+    }
+
+    private static boolean isPackFile(Path root, Path path) {
+        for (Path p = path.getParent(); p != null && p.depth() >= root.depth(); p = p.getParent()) {
+            if (PACK_DIR.equals(p.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写入一个容器文件，先写到临时目录，完成后再改名，读取时不会看到写了一半的容器文件。
+     * 文件名只精确到毫秒，同一毫秒内生成的容器文件靠随机后缀区分；改名不覆盖已有目录，
+     * 否则临时目录会被移动到已有的容器文件下面而无法读取
+     */
+    private Path writePack(FileSystem fs, Path dir, List<FileStatus> files, HDFSPackResult result)
+            throws IOException {
+        Path packDir = new Path(dir, PACK_DIR);
+        String name = PACK_PREFIX + LocalDateTime.now().format(PACK_TIME) + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+        Path tmp = new Path(packDir, "." + name + ".tmp");
+        Path pack = new Path(packDir, name);
+        byte[] buffer = new byte[(int) Math.min(smallFileThreshold, Integer.MAX_VALUE - 8)];
+        Text key = new Text();
+        BytesWritable value = new BytesWritable();
+        try {
+            try (MapFile.Writer writer = new MapFile.Writer(fs.getConf(), tmp,
+                    MapFile.Writer.keyClass(Text.class), SequenceFile.Writer.valueClass(BytesWritable.class),
+                    SequenceFile.Writer.compression(SequenceFile.CompressionType.NONE))) {
+                // 每条记录都写入索引，读取时不需要在数据文件中顺序扫描
+                writer.setIndexInterval(1);
+                for (FileStatus file : files) {
+                    int length = (int) file.getLen();
+                    try (FSDataInputStream in = fs.open(file.getPath())) {
+                        IOUtils.readFully(in, buffer, 0, length);
+                    }
+                    key.set(relative(dir, file.getPath()));
+                    value.set(buffer, 0, length);
+                    writer.append(key, value);
+                    result.setPackedFiles(result.getPackedFiles() + 1);
+                    result.setPackedBytes(result.getPackedBytes() + length);
+                }
+            }
+            HDFSUtils.rename(fs, tmp, pack, false);
+        } finally {
+            if (fs.exists(tmp)) {
+                fs.delete(tmp, true);
+            }
+        }
+        metadataCache.invalidate(fs, pack);
+        return pack;
+    }
+
+    /**
+     * 删除已打包的原文件，打包期间被修改、被打开写入或已被删除的文件跳过，读取时原文件优先
+     */
+    private void deleteOriginals(FileSystem fs, List<FileStatus> files, HDFSPackResult result) throws IOException {
+        for (FileStatus file : files) {
+            FileStatus current;
+            boolean closed;
+            try {
+                current = fs.getFileStatus(file.getPath());
+                // 打包期间被重新打开写入的文件也跳过
+                closed = isClosed(fs, file.getPath());
+            } catch (FileNotFoundException e) {
+                current = null;
+                closed = false;
+            }
+            if (current == null || !closed || current.getLen() != file.getLen()
+                    || current.getModificationTime() != file.getModificationTime()) {
+                result.setSkippedFiles(result.getSkippedFiles() + 1);
+                continue;
+            }
+            if (fs.delete(file.getPath(), false)) {
+                result.setDeletedFiles(result.getDeletedFiles() + 1);
+            }
+            metadataCache.invalidate(fs, file.getPath());
+        }
+    }
+
+    /**
+     * 定时任务：找出小文件数超过阈值的目录并打包
+     */
+    private void packScheduled() {
+        for (String root : scheduleDirs.split(",")) {
+            if (StringUtils.isBlank(root)) {
+                continue;
+            }
+            try {
+                FileSystem fs = fileSystemProvider.getFileSystem();
+                for (Path dir : findCandidates(fs, new Path(root.trim()))) {
+                    pack(dir.toUri().getPath(), false, true);
+                }
+            } catch (Exception e) {
+                log.warn("定时打包失败, root={}", root, e);
+            }
+        }
+    }
+
+    private List<Path> findCandidates(FileSystem fs, Path root) throws IOException {
+        List<Path> candidates = new ArrayList<>();
+        List<Path> pending = new ArrayList<>(Collections.singletonList(root));
+        while (!pending.isEmpty()) {
+            Path dir = pending.remove(pending.size() - 1);
+            int smallFiles = 0;
+            for (FileStatus status : fs.listStatus(dir)) {
+                if (status.isDirectory()) {
+                    if (!PACK_DIR.equals(status.getPath().getName())) {
+                        pending.add(status.getPath());
+                    }
+                } else if (status.getLen() <= smallFileThreshold) {
+                    smallFiles++;
+                }
+            }
+            if (smallFiles >= minFiles) {
+                candidates.add(dir);
+            }
+        }
+        return candidates;
+    }
+
+    private static void closeReader(MapFile.Reader reader) {
+        synchronized (reader) {
+            IOUtils.closeStream(reader);
+        }
+    }
+
+    private interface ReaderCall<T> {
+        T call(MapFile.Reader reader) throws IOException;
+    }
+
+    /**
+     * 一级父目录下的容器文件和删除标记
+     */
+    private static class Level {
+        private final Path dir;
+        private final List<Pack> packs;
+        private final Map<String, Long> tombstones;
+
+        private Level(Path dir, List<Pack> packs, Map<String, Long> tombstones) {
+            this.dir = dir;
+            this.packs = packs;
+            this.tombstones = tombstones;
+        }
+    }
+
+    private static class Pack {
+        private final FileStatus status;
+        private final long time;
+
+        private Pack(FileStatus status, long time) {
+            this.status = status;
+            this.time = time;
+        }
+    }
+
+    private static class Candidate {
+        private final Pack pack;
+        private final String key;
+
+        private Candidate(Pack pack, String key) {
+            this.pack = pack;
+            this.key = key;
+        }
+    }
+
+    private static class Tombstones {
+        private final long modificationTime;
+        private final long length;
+        private final Map<String, Long> entries;
+
+        private Tombstones(long modificationTime, long length, Map<String, Long> entries) {
+            this.modificationTime = modificationTime;
+            this.length = length;
+            this.entries = entries;
+        }
+    }
+}
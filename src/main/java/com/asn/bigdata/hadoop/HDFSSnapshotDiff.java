@@ -0,0 +1,40 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 两个快照之间的变化列表
+ */
+@Data
+public class HDFSSnapshotDiff {
+
+    // 开启了快照的目录
+    private String path;
+    private String fromSnapshot;
+    // 为空表示目录的当前状态
+    private String toSnapshot;
+    private int created;
+    private int modified;
+    private int deleted;
+    private int renamed;
+    private List<Entry> entries = new ArrayList<>();
+    // 明细条数超过上限时只返回前面的部分，计数仍是完整的
+    private boolean truncated;
+    // 滚动查询时下次调用传入的since，明细被截断时不前进
+    private String cursor;
+    // 明细被截断时下一页的起始位置，与toSnapshot一起传入继续读取
+    private Integer nextOffset;
+    private long elapsedMillis;
+
+    @Data
+    public static class Entry {
+        // CREATE、MODIFY、DELETE、RENAME
+        private String type;
+        private String path;
+        // 重命名后的路径，只有RENAME有值
+        private String targetPath;
+    }
+}
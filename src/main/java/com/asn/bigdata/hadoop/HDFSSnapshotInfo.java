@@ -0,0 +1,15 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 目录的快照
+ */
+@Data
+public class HDFSSnapshotInfo {
+
+    private String name;
+    // 快照的访问路径，如/data/.snapshot/s1
+    private String path;
+    private long createTime;
+}
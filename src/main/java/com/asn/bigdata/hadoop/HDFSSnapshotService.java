@@ -0,0 +1,320 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 基于快照的增量变化查询
+ * 对开启了快照的目录，NameNode直接给出两个快照之间新建、修改、删除、重命名的路径，
+ * 开销只与变化数量有关，不需要每次递归列出整个目录树再比较。
+ * 定期调用changes即可滚动生成快照并拿到上次以来的变化：调用方保存返回的cursor（快照名），下次作为since传入，
+ * 各调用方的进度互不影响；请求失败或明细被截断时cursor不前进，不会丢失变化。
+ * 同一目录的所有调用方共用滚动快照：最新的快照在reuse-ms内创建时直接作为本次的终点，不再创建新快照，
+ * 快照数量只随时间增长而不随调用方数量增长。本服务生成的快照只保留最近retain个，
+ * 调用方至少每retain×reuse-ms调用一次才能保证cursor不被清理，超过保留数量仍未读取的调用方需要重新开始
+ */
+@Component
+@Slf4j
+public class HDFSSnapshotService {
+
+    private static final DateTimeFormatter SNAPSHOT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    // 本服务生成的快照名前缀，只有带这个前缀的快照会按retain清理
+    @Value("${hdfs.snapshot.prefix:auto-}")
+    private String prefix;
+    @Value("${hdfs.snapshot.retain:24}")
+    private int retain;
+    // 最新的滚动快照在这段时间内创建时各调用方直接复用
+    @Value("${hdfs.snapshot.reuse-ms:60000}")
+    private long reuseMillis;
+    // 目录未开启快照时是否自动开启，需要HDFS超级用户权限
+    @Value("${hdfs.snapshot.auto-allow:false}")
+    private boolean autoAllow;
+    @Value("${hdfs.snapshot.max-entries:10000}")
+    private int maxEntries;
+
+    // 同一目录的滚动快照串行执行，避免同一毫秒内生成同名快照
+    private final Map<String, Object> rollingLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 创建快照
+     * @param path 开启了快照的目录
+     * @param name 快照名，为空时按前缀和当前时间生成
+     * @return
+     * @throws IOException
+     */
+    public HDFSSnapshotInfo create(String path, String name) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        Path dir = fs.makeQualified(new Path(path));
+        ensureSnapshottable(fs, dir);
+        String snapshotName = StringUtils.isEmpty(name) ? prefix + LocalDateTime.now().format(SNAPSHOT_TIME) : name;
+        Path snapshot = fs.createSnapshot(dir, snapshotName);
+        log.info("创建快照, path={}, name={}", dir, snapshotName);
+        HDFSSnapshotInfo info = new HDFSSnapshotInfo();
+        info.setName(snapshotName);
+        info.setPath(snapshot.toUri().getPath());
+        info.setCreateTime(fs.getFileStatus(snapshot).getModificationTime());
+        return info;
+    }
+
+    /**
+     * 删除快照
+     * @param path
+     * @param name
+     * @throws IOException
+     */
+    public void delete(String path, String name) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        fs.deleteSnapshot(new Path(path), name);
+        log.info("删除快照, path={}, name={}", path, name);
+    }
+
+    /**
+     * 列出目录的所有快照，按创建时间从早到晚排序
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public List<HDFSSnapshotInfo> list(String path) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        Path snapshotDir = new Path(fs.makeQualified(new Path(path)), HdfsConstants.DOT_SNAPSHOT_DIR);
+        List<HDFSSnapshotInfo> snapshots = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(snapshotDir)) {
+            HDFSSnapshotInfo info = new HDFSSnapshotInfo();
+            info.setName(status.getPath().getName());
+            info.setPath(status.getPath().toUri().getPath());
+            info.setCreateTime(status.getModificationTime());
+            snapshots.add(info);
+        }
+        snapshots.sort(Comparator.comparingLong(HDFSSnapshotInfo::getCreateTime)
+                .thenComparing(HDFSSnapshotInfo::getName));
+        return snapshots;
+    }
+
+    /**
+     * 比较两个快照
+     * @param path 开启了快照的目录
+     * @param fromSnapshot
+     * @param toSnapshot 为空时与目录的当前状态比较
+     * @return
+     * @throws IOException
+     */
+    public HDFSSnapshotDiff diff(String path, String fromSnapshot, String toSnapshot) throws IOException {
+        return diff(path, fromSnapshot, toSnapshot, 0);
+    }
+
+    /**
+     * 比较两个快照，从第offset条开始返回明细，用于分页读取超过max-entries的变化
+     * @param path 开启了快照的目录
+     * @param fromSnapshot
+     * @param toSnapshot 为空时与目录的当前状态比较
+     * @param offset 跳过的明细条数
+     * @return
+     * @throws IOException
+     */
+    public HDFSSnapshotDiff diff(String path, String fromSnapshot, String toSnapshot, int offset) throws IOException {
+        long start = System.currentTimeMillis();
+        DistributedFileSystem fs = getDistributedFileSystem();
+        Path dir = fs.makeQualified(new Path(path));
+        String to = StringUtils.isEmpty(toSnapshot) ? "" : toSnapshot;
+        SnapshotDiffReport report = fs.getSnapshotDiffReport(dir, fromSnapshot, to);
+        String root = dir.toUri().getPath();
+        HDFSSnapshotDiff diff = new HDFSSnapshotDiff();
+        diff.setPath(root);
+        diff.setFromSnapshot(fromSnapshot);
+        diff.setToSnapshot(StringUtils.isEmpty(to) ? null : to);
+        int index = 0;
+        for (SnapshotDiffReport.DiffReportEntry reportEntry : report.getDiffList()) {
+            switch (reportEntry.getType()) {
+                case CREATE:
+                    diff.setCreated(diff.getCreated() + 1);
+                    break;
+                case MODIFY:
+                    diff.setModified(diff.getModified() + 1);
+                    break;
+                case DELETE:
+                    diff.setDeleted(diff.getDeleted() + 1);
+                    break;
+                case RENAME:
+                    diff.setRenamed(diff.getRenamed() + 1);
+                    break;
+                default:
+                    break;
+            }
+            if (index++ < offset) {
+                continue;
+            }
+            if (diff.getEntries().size() >= maxEntries) {
+                diff.setTruncated(true);
+                continue;
+            }
+            HDFSSnapshotDiff.Entry entry = new HDFSSnapshotDiff.Entry();
+            entry.setType(reportEntry.getType().name());
+            entry.setPath(resolve(root, reportEntry.getSourcePath()));
+            if (reportEntry.getType() == SnapshotDiffReport.DiffType.RENAME) {
+                entry.setTargetPath(resolve(root, reportEntry.getTargetPath()));
+            }
+            diff.getEntries().add(entry);
+        }
+        diff.setElapsedMillis(System.currentTimeMillis() - start);
+        return diff;
+    }
+
+    /**
+     * 滚动快照：创建新快照，返回since之后的变化，并清理超出保留数量的旧快照
+     * 不传since时只创建起点快照；明细被截断时不创建新快照的后续调用传入返回的toSnapshot和nextOffset继续读取，
+     * 读完之前cursor保持为since
+     * @param path 开启了快照的目录
+     * @param since 上次返回的cursor，第一次调用时为空
+     * @param until 读取截断的变化时传入上次返回的toSnapshot，不再创建新快照
+     * @param offset 读取截断的变化时传入上次返回的nextOffset
+     * @return 变化列表，cursor为下次调用传入的since；第一次调用时entries为空且fromSnapshot为null
+     * @throws IOException
+     * @throws IllegalArgumentException since或until指定的快照不存在（已被清理）时，需要不传since重新开始
+     */
+    public HDFSSnapshotDiff changes(String path, String since, String until, int offset) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        String key = fs.makeQualified(new Path(path)).toUri().getPath();
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset不合法: " + offset);
+        }
+        synchronized (rollingLocks.computeIfAbsent(key, k -> new Object())) {
+            List<HDFSSnapshotInfo> managed = listManaged(key);
+            checkExists(managed, since);
+            checkExists(managed, until);
+            if (StringUtils.isEmpty(since)) {
+                String latest = latest(key, managed);
+                clean(key, managed, latest, null);
+                HDFSSnapshotDiff diff = new HDFSSnapshotDiff();
+                diff.setPath(key);
+                diff.setToSnapshot(latest);
+                diff.setCursor(latest);
+                return diff;
+            }
+            String to = StringUtils.isEmpty(until) ? latest(key, managed) : until;
+            clean(key, managed, since, to);
+            HDFSSnapshotDiff diff = diff(key, since, to, offset);
+            if (diff.isTruncated()) {
+                // 没有读完的变化不前进cursor，下次从nextOffset继续读同一对快照
+                diff.setCursor(since);
+                diff.setNextOffset(offset + diff.getEntries().size());
+            } else {
+                diff.setCursor(to);
+            }
+            return diff;
+        }
+    }
+
+    /**
+     * 最新的滚动快照在reuse-ms内创建时直接复用，否则创建新快照并加入managed
+     * @return 快照名
+     */
+    private String latest(String path, List<HDFSSnapshotInfo> managed) throws IOException {
+        if (!managed.isEmpty()) {
+            HDFSSnapshotInfo newest = managed.get(managed.size() - 1);
+            if (System.currentTimeMillis() - newest.getCreateTime() < reuseMillis) {
+                return newest.getName();
+            }
+        }
+        HDFSSnapshotInfo created = create(path, null);
+        managed.add(created);
+        return created.getName();
+    }
+
+    private static void checkExists(List<HDFSSnapshotInfo> managed, String name) {
+        if (StringUtils.isEmpty(name)) {
+            return;
+        }
+        for (HDFSSnapshotInfo info : managed) {
+            if (info.getName().equals(name)) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("快照不存在或已被清理: " + name);
+    }
+
+    /**
+     * 清理超出保留数量的旧快照，本次调用正在使用的快照不清理
+     */
+    private void clean(String path, List<HDFSSnapshotInfo> managed, String since, String until) {
+        for (int i = 0; i < managed.size() - retain; i++) {
+            String name = managed.get(i).getName();
+            if (name.equals(since) || name.equals(until)) {
+                continue;
+            }
+            try {
+                delete(path, name);
+            } catch (IOException e) {
+                log.warn("清理快照失败, path={}, name={}", path, name, e);
+            }
+        }
+    }
+
+    /**
+     * 本服务生成的快照，快照名中的时间保证了按名称排序即按创建顺序
+     */
+    private List<HDFSSnapshotInfo> listManaged(String path) throws IOException {
+        List<HDFSSnapshotInfo> managed = new ArrayList<>();
+        for (HDFSSnapshotInfo info : list(path)) {
+            if (info.getName().startsWith(prefix)) {
+                managed.add(info);
+            }
+        }
+        managed.sort(Comparator.comparing(HDFSSnapshotInfo::getName));
+        return managed;
+    }
+
+    private void ensureSnapshottable(DistributedFileSystem fs, Path dir) throws IOException {
+        if (!autoAllow) {
+            return;
+        }
+        SnapshottableDirectoryStatus[] dirs = fs.getSnapshottableDirListing();
+        if (dirs != null) {
+            for (SnapshottableDirectoryStatus status : dirs) {
+                if (status.getFullPath().toUri().getPath().equals(dir.toUri().getPath())) {
+                    return;
+                }
+            }
+        }
+        fs.allowSnapshot(dir);
+        log.info("开启目录快照, path={}", dir);
+    }
+
+    private static String resolve(String root, byte[] relative) {
+        String name = relative == null ? "" : DFSUtil.bytes2String(relative);
+        if (name.isEmpty() || ".".equals(name)) {
+            return root;
+        }
+        return root.endsWith("/") ? root + name : root + "/" + name;
+    }
+
+    private DistributedFileSystem getDistributedFileSystem() throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        if (!(fs instanceof DistributedFileSystem)) {
+            throw new IllegalStateException("当前文件系统不支持快照: " + fs.getUri());
+        }
+        return (DistributedFileSystem) fs;
+    }
+}
@@ -0,0 +1,320 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按分片并行读取大文本文件
+ * 文件按块边界切成若干分片，和LineRecordReader一样：除第一个分片外，每个分片跳过开头不完整的一行，
+ * 并读到分片末尾之后的第一个换行符，这样每一行只会被一个分片处理。
+ * 已打包到容器文件中的小文件读入内存后作为一个分片处理
+ */
+@Component
+@Slf4j
+public class HDFSSplitReader {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSSmallFilePacker smallFilePacker;
+    // 块大于该值时再按该大小切分，0表示按块切分
+    @Value("${hdfs.split.max-split-size:0}")
+    private long maxSplitSize;
+    // 单行保留的最大字节数，超出部分截断，避免异常数据撑爆内存
+    @Value("${hdfs.split.max-line-length:1048576}")
+    private int maxLineLength;
+    @Value("${hdfs.split.buffer-size:262144}")
+    private int bufferSize;
+    @Value("${hdfs.grep.max-matches:1000}")
+    private int grepMaxMatches;
+
+    private final ForkJoinPool pool;
+
+    public HDFSSplitReader(@Value("${hdfs.split.parallelism:8}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 分片处理逐行数据，每个分片使用独立的结果对象，处理完后按分片顺序合并
+     * @param <R>
+     */
+    public interface LineProcessor<R> {
+
+        R newResult();
+
+        /**
+         * 处理一行数据
+         * @param result 当前分片的结果
+         * @param offset 行首在文件中的偏移量
+         * @param line 去掉换行符的行内容
+         * @throws IOException
+         */
+        void process(R result, long offset, Text line) throws IOException;
+
+        /**
+         * 合并两个相邻分片的结果，left在文件中位于right之前
+         * @param left
+         * @param right
+         * @return
+         */
+        R merge(R left, R right);
+    }
+
+    /**
+     * 并行处理文件的每一行
+     * @param path
+     * @param processor
+     * @param <R>
+     * @return
+     * @throws IOException
+     */
+    public <R> HDFSSplitResult<R> process(String path, LineProcessor<R> processor) throws IOException {
+        long start = System.currentTimeMillis();
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        Path filePath = new Path(path);
+        FileStatus status;
+        byte[] packedData = null;
+        try {
+            status = fs.getFileStatus(filePath);
+        } catch (FileNotFoundException e) {
+            // 原文件不存在时检查是否已被打包到容器文件中
+            HDFSPackedFile packedFile = smallFilePacker.read(path);
+            if (packedFile == null) {
+                throw e;
+            }
+            packedData = packedFile.getData();
+            status = new FileStatus(packedData.length, false, 0, 0, packedFile.getModificationTime(), filePath);
+        }
+        if (status.isDirectory()) {
+            throw new IOException("不是文件: " + path);
+        }
+        // 请求超时被取消时通知分片停止读取
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<SplitTask<R>> tasks = new ArrayList<>();
+        for (HDFSSplitResult.Split split : packedData != null ? packedSplits(packedData) : getSplits(fs, status)) {
+            tasks.add(new SplitTask<>(fs, filePath, packedData, split, processor, cancelled));
+        }
+        R result = processor.newResult();
+        try {
+            // 所有分片都完成后再按顺序合并
+            HDFSAsyncExecutor.invoke(pool, ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)),
+                    () -> cancelled.set(true));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (SplitTask<R> task : tasks) {
+            result = processor.merge(result, task.join());
+        }
+        HDFSSplitResult<R> splitResult = new HDFSSplitResult<>();
+        splitResult.setPath(path);
+        splitResult.setLength(status.getLen());
+        splitResult.setResult(result);
+        List<HDFSSplitResult.Split> splits = new ArrayList<>();
+        for (SplitTask<R> task : tasks) {
+            splits.add(task.split);
+        }
+        splitResult.setSplits(splits);
+        splitResult.setElapsedMillis(System.currentTimeMillis() - start);
+        return splitResult;
+    }
+
+    /**
+     * 统计文件行数，并返回匹配正则的行
+     * @param path
+     * @param regex 为空时只统计行数
+     * @param maxMatches 最多返回的匹配行数，为空时使用默认值
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException maxMatches为负数或正则不合法时
+     */
+    public HDFSSplitResult<HDFSGrepResult> grep(String path, String regex, Integer maxMatches) throws IOException {
+        if (maxMatches != null && maxMatches < 0) {
+            throw new IllegalArgumentException("maxMatches不合法: " + maxMatches);
+        }
+        Pattern pattern = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+        int limit = maxMatches != null ? Math.min(maxMatches, grepMaxMatches) : grepMaxMatches;
+        return process(path, new LineProcessor<HDFSGrepResult>() {
+            @Override
+            public HDFSGrepResult newResult() {
+                return new HDFSGrepResult();
+            }
+
+            @Override
+            public void process(HDFSGrepResult result, long offset, Text line) {
+                result.setLines(result.getLines() + 1);
+                if (pattern == null) {
+                    return;
+                }
+                String text = line.toString();
+                Matcher matcher = pattern.matcher(text);
+                if (!matcher.find()) {
+                    return;
+                }
+                result.setMatches(result.getMatches() + 1);
+                if (result.getSamples().size() < limit) {
+                    HDFSGrepResult.Match match = new HDFSGrepResult.Match();
+                    match.setOffset(offset);
+                    match.setLine(text);
+                    result.getSamples().add(match);
+                } else {
+                    result.setTruncated(true);
+                }
+            }
+
+            @Override
+            public HDFSGrepResult merge(HDFSGrepResult left, HDFSGrepResult right) {
+                left.setLines(left.getLines() + right.getLines());
+                left.setMatches(left.getMatches() + right.getMatches());
+                for (HDFSGrepResult.Match match : right.getSamples()) {
+                    if (left.getSamples().size() >= limit) {
+                        left.setTruncated(true);
+                        break;
+                    }
+                    left.getSamples().add(match);
+                }
+                left.setTruncated(left.isTruncated() || right.isTruncated());
+                return left;
+            }
+        });
+    }
+
+    /**
+     * 按块边界切分文件
+     * @param fs
+     * @param status
+     * @return
+     * @throws IOException
+     */
+    private List<HDFSSplitResult.Split> getSplits(FileSystem fs, FileStatus status) throws IOException {
+        List<HDFSSplitResult.Split> splits = new ArrayList<>();
+        BlockLocation[] locations = fs.getFileBlockLocations(status, 0, status.getLen());
+        for (BlockLocation location : locations) {
+            String[] hosts = location.getHosts();
+            long blockEnd = location.getOffset() + location.getLength();
+            long step = maxSplitSize > 0 ? maxSplitSize : location.getLength();
+            for (long offset = location.getOffset(); offset < blockEnd; offset += step) {
+                HDFSSplitResult.Split split = new HDFSSplitResult.Split();
+                split.setIndex(splits.size());
+                split.setStart(offset);
+                split.setLength(Math.min(step, blockEnd - offset));
+                split.setHost(hosts.length > 0 ? hosts[0] : null);
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    private static List<HDFSSplitResult.Split> packedSplits(byte[] data) {
+        HDFSSplitResult.Split split = new HDFSSplitResult.Split();
+        split.setIndex(0);
+        split.setStart(0);
+        split.setLength(data.length);
+        List<HDFSSplitResult.Split> splits = new ArrayList<>();
+        splits.add(split);
+        return splits;
+    }
+
+    /**
+     * 处理一个分片的任务，行的归属规则与LineRecordReader一致
+     * @param <R>
+     */
+    private class SplitTask<R> extends RecursiveTask<R> {
+        private final FileSystem fs;
+        private final Path path;
+        // 已打包的文件内容，为null时从HDFS读取
+        private final byte[] data;
+        private final HDFSSplitResult.Split split;
+        private final LineProcessor<R> processor;
+        private final AtomicBoolean cancelled;
+
+        private SplitTask(FileSystem fs, Path path, byte[] data, HDFSSplitResult.Split split,
+                          LineProcessor<R> processor, AtomicBoolean cancelled) {
+            this.fs = fs;
+            this.path = path;
+            this.data = data;
+            this.split = split;
+            this.processor = processor;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected R compute() {
+            long begin = System.currentTimeMillis();
+            R result = processor.newResult();
+            if (cancelled.get()) {
+                return result;
+            }
+            InputStream inputStream = null;
+            try {
+                long start = split.getStart();
+                long end = start + split.getLength();
+                inputStream = open(start);
+                LineReader reader = new LineReader(inputStream, bufferSize);
+                Text line = new Text();
+                long position = start;
+                // 不是第一个分片时，开头的行属于上一个分片
+                if (start != 0) {
+                    position += reader.readLine(line, 0, Integer.MAX_VALUE);
+                }
+                long lines = 0;
+                // 行首不超过分片末尾的行都属于本分片
+                while (position <= end && !cancelled.get()) {
+                    int consumed = reader.readLine(line, maxLineLength, Integer.MAX_VALUE);
+                    if (consumed == 0) {
+                        break;
+                    }
+                    processor.process(result, position, line);
+                    position += consumed;
+                    lines++;
+                }
+                split.setLines(lines);
+                split.setBytes(position - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                IOUtils.closeStream(inputStream);
+                split.setElapsedMillis(System.currentTimeMillis() - begin);
+            }
+            return result;
+        }
+
+        private InputStream open(long start) throws IOException {
+            if (data != null) {
+                return new ByteArrayInputStream(data, (int) start, data.length - (int) start);
+            }
+            FSDataInputStream inputStream = fs.open(path, bufferSize);
+            inputStream.seek(start);
+            return inputStream;
+        }
+    }
+}
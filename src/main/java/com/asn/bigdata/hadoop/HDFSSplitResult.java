@@ -0,0 +1,33 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 按分片并行处理文件的结果
+ * @param <R> 各分片合并后的处理结果
+ */
+@Data
+public class HDFSSplitResult<R> {
+
+    private String path;
+    private long length;
+    private R result;
+    // 各分片的处理情况，按文件偏移量排序
+    private List<Split> splits;
+    private long elapsedMillis;
+
+    @Data
+    public static class Split {
+        private int index;
+        private long start;
+        private long length;
+        // 分片所在块的第一个副本位置
+        private String host;
+        private long lines;
+        // 实际读取的字节数，包含跨越分片末尾的最后一行
+        private long bytes;
+        private long elapsedMillis;
+    }
+}
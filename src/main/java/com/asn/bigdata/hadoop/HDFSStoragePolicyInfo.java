@@ -0,0 +1,18 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 路径的存储策略及访问统计
+ */
+@Data
+public class HDFSStoragePolicyInfo {
+
+    private String path;
+    // 存储策略名称，未单独设置时为UNSPECIFIED，按父目录或集群默认策略存放
+    private String policy;
+    private byte policyId;
+    // 分层服务记录到的读取次数，未开启或未跟踪时为0
+    private long reads;
+    private long lastAccessTime;
+}
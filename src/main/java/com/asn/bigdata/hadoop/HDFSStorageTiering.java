@@ -0,0 +1,357 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 存储策略管理及按访问频率自动分层
+ * 读取接口每次读取文件时记录一次访问，定时按统计窗口内的读取次数调整存储策略：
+ * 达到promote-reads时升一级，连续idle-windows个窗口不超过demote-reads时降一级。
+ * 存储策略只决定新写入的块放在哪种介质上，已有的块需要运行hdfs mover迁移，
+ * 最近调整过的路径可以从分层统计中查看
+ */
+@Component
+@Slf4j
+public class HDFSStorageTiering {
+
+    public static final String UNSPECIFIED = "UNSPECIFIED";
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Value("${hdfs.tiering.enabled:false}")
+    private boolean enabled;
+    // 参与自动分层的存储策略，从冷到热，多个用逗号分隔
+    @Value("${hdfs.tiering.tiers:COLD,WARM,HOT,ONE_SSD}")
+    private String tiers;
+    // 未设置存储策略的文件按该策略计算所在层级
+    @Value("${hdfs.tiering.default-policy:HOT}")
+    private String defaultPolicy;
+    // 只跟踪这些目录下的文件，多个用逗号分隔，为空时跟踪所有文件
+    @Value("${hdfs.tiering.include:}")
+    private String include;
+    // 统计窗口，即调整存储策略的间隔
+    @Value("${hdfs.tiering.interval-ms:600000}")
+    private long intervalMillis;
+    @Value("${hdfs.tiering.promote-reads:100}")
+    private long promoteReads;
+    @Value("${hdfs.tiering.demote-reads:0}")
+    private long demoteReads;
+    @Value("${hdfs.tiering.idle-windows:144}")
+    private int idleWindows;
+    @Value("${hdfs.tiering.max-tracked-paths:100000}")
+    private int maxTrackedPaths;
+    @Value("${hdfs.tiering.max-history:200}")
+    private int maxHistory;
+
+    private List<String> tierList;
+    private List<String> includeList;
+    private final ConcurrentMap<String, AccessStats> accessStats = new ConcurrentHashMap<>();
+    // 最近的存储策略调整记录，需要迁移已有块时交给hdfs mover
+    private final Deque<Map<String, Object>> history = new ArrayDeque<>();
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder untrackedReads = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+
+    private static class AccessStats {
+        final LongAdder windowReads = new LongAdder();
+        final LongAdder totalReads = new LongAdder();
+        volatile long lastAccessTime;
+        // 以下字段只在分层线程中读写
+        int idleCount;
+    }
+
+    @PostConstruct
+    public void init() {
+        tierList = new ArrayList<>();
+        for (String tier : tiers.split(",")) {
+            if (StringUtils.isNotBlank(tier)) {
+                tierList.add(tier.trim().toUpperCase(Locale.ROOT));
+            }
+        }
+        includeList = new ArrayList<>();
+        for (String dir : include.split(",")) {
+            if (StringUtils.isNotBlank(dir)) {
+                includeList.add(new Path(dir.trim()).toUri().getPath());
+            }
+        }
+        if (enabled && tierList.size() > 1) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hdfs-tiering-"));
+            scheduler.scheduleWithFixedDelay(this::runQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录一次文件读取，未开启自动分层时忽略
+     * @param path
+     */
+    public void recordRead(String path) {
+        if (!enabled || StringUtils.isEmpty(path)) {
+            return;
+        }
+        String key = new Path(path).toUri().getPath();
+        if (!isIncluded(key)) {
+            return;
+        }
+        AccessStats stats = accessStats.get(key);
+        if (stats == null) {
+            if (accessStats.size() >= maxTrackedPaths) {
+                untrackedReads.increment();
+                return;
+            }
+            stats = accessStats.computeIfAbsent(key, k -> new AccessStats());
+        }
+        stats.windowReads.increment();
+        stats.totalReads.increment();
+        stats.lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 查看集群支持的存储策略
+     * @return
+     * @throws IOException
+     */
+    public List<Map<String, Object>> listPolicies() throws IOException {
+        List<Map<String, Object>> policies = new ArrayList<>();
+        for (BlockStoragePolicy policy : getDistributedFileSystem().getStoragePolicies()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", policy.getId());
+            item.put("name", policy.getName());
+            item.put("storageTypes", Arrays.asList(policy.getStorageTypes()));
+            item.put("creationFallbacks", Arrays.asList(policy.getCreationFallbacks()));
+            item.put("replicationFallbacks", Arrays.asList(policy.getReplicationFallbacks()));
+            policies.add(item);
+        }
+        return policies;
+    }
+
+    /**
+     * 查看路径的存储策略
+     * @param path
+     * @return 路径不存在时返回null
+     * @throws IOException
+     */
+    public HDFSStoragePolicyInfo getPolicy(String path) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        String key = fs.makeQualified(new Path(path)).toUri().getPath();
+        HdfsFileStatus status = fs.getClient().getFileInfo(key);
+        if (status == null) {
+            return null;
+        }
+        HDFSStoragePolicyInfo info = new HDFSStoragePolicyInfo();
+        info.setPath(key);
+        info.setPolicyId(status.getStoragePolicy());
+        info.setPolicy(policyName(fs.getStoragePolicies(), status.getStoragePolicy()));
+        AccessStats stats = accessStats.get(key);
+        if (stats != null) {
+            info.setReads(stats.totalReads.sum());
+            info.setLastAccessTime(stats.lastAccessTime);
+        }
+        return info;
+    }
+
+    /**
+     * 设置路径的存储策略，目录的策略对其下未单独设置的文件生效
+     * 只影响之后写入的块，已有的块需要运行hdfs mover迁移
+     * @param path
+     * @param policy HOT、WARM、COLD、ALL_SSD、ONE_SSD、LAZY_PERSIST
+     * @return 设置后的存储策略
+     * @throws IOException
+     */
+    public HDFSStoragePolicyInfo setPolicy(String path, String policy) throws IOException {
+        DistributedFileSystem fs = getDistributedFileSystem();
+        String name = policy.trim().toUpperCase(Locale.ROOT);
+        if (!isSupported(fs.getStoragePolicies(), name)) {
+            throw new IllegalArgumentException("不支持的存储策略: " + policy);
+        }
+        Path target = new Path(path);
+        if (!fs.exists(target)) {
+            throw new IllegalArgumentException("路径不存在: " + path);
+        }
+        fs.setStoragePolicy(target, name);
+        log.info("设置存储策略, path={}, policy={}", path, name);
+        return getPolicy(path);
+    }
+
+    /**
+     * 按统计窗口内的读取次数调整一轮存储策略
+     */
+    public void runQuietly() {
+        try {
+            run();
+        } catch (Exception e) {
+            log.warn("存储策略分层失败", e);
+        }
+    }
+
+    private void run() throws IOException {
+        runs.increment();
+        if (accessStats.isEmpty()) {
+            return;
+        }
+        DistributedFileSystem fs = getDistributedFileSystem();
+        BlockStoragePolicy[] policies = fs.getStoragePolicies();
+        Iterator<Map.Entry<String, AccessStats>> iterator = accessStats.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, AccessStats> entry = iterator.next();
+            AccessStats stats = entry.getValue();
+            long reads = stats.windowReads.sumThenReset();
+            int step = 0;
+            if (reads >= promoteReads) {
+                stats.idleCount = 0;
+                step = 1;
+            } else if (reads <= demoteReads) {
+                if (++stats.idleCount >= idleWindows) {
+                    stats.idleCount = 0;
+                    step = -1;
+                }
+            } else {
+                stats.idleCount = 0;
+            }
+            if (step == 0) {
+                continue;
+            }
+            try {
+                HdfsFileStatus status = fs.getClient().getFileInfo(entry.getKey());
+                if (status == null) {
+                    iterator.remove();
+                    continue;
+                }
+                String current = policyName(policies, status.getStoragePolicy());
+                int index = tierList.indexOf(UNSPECIFIED.equals(current) ? defaultPolicy : current);
+                // 手动设置了分层范围以外的策略时不做调整
+                if (index < 0) {
+                    continue;
+                }
+                int target = Math.max(0, Math.min(tierList.size() - 1, index + step));
+                if (target != index) {
+                    fs.setStoragePolicy(new Path(entry.getKey()), tierList.get(target));
+                    (step > 0 ? promotions : demotions).increment();
+                    addHistory(entry.getKey(), current, tierList.get(target), reads);
+                    log.info("调整存储策略, path={}, {} -> {}, reads={}", entry.getKey(), current,
+                            tierList.get(target), reads);
+                } else if (step < 0) {
+                    // 已在最冷一层且持续没有访问，不再跟踪，再次读取时重新开始统计
+                    iterator.remove();
+                }
+            } catch (FileNotFoundException e) {
+                iterator.remove();
+            } catch (IOException e) {
+                failures.increment();
+                log.warn("调整存储策略失败, path={}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 分层统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("tiers", tierList);
+        metrics.put("trackedPaths", accessStats.size());
+        metrics.put("untrackedReads", untrackedReads.sum());
+        metrics.put("runs", runs.sum());
+        metrics.put("promotions", promotions.sum());
+        metrics.put("demotions", demotions.sum());
+        metrics.put("failures", failures.sum());
+        synchronized (history) {
+            metrics.put("recentChanges", new ArrayList<>(history));
+        }
+        return metrics;
+    }
+
+    private void addHistory(String path, String from, String to, long reads) {
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("path", path);
+        change.put("from", from);
+        change.put("to", to);
+        change.put("windowReads", reads);
+        change.put("time", System.currentTimeMillis());
+        synchronized (history) {
+            history.addFirst(change);
+            while (history.size() > maxHistory) {
+                history.removeLast();
+            }
+        }
+    }
+
+    private boolean isIncluded(String path) {
+        if (includeList.isEmpty()) {
+            return true;
+        }
+        for (String dir : includeList) {
+            if (path.equals(dir) || path.startsWith(dir.endsWith("/") ? dir : dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String policyName(BlockStoragePolicy[] policies, byte id) {
+        for (BlockStoragePolicy policy : policies) {
+            if (policy.getId() == id) {
+                return policy.getName();
+            }
+        }
+        return UNSPECIFIED;
+    }
+
+    private boolean isSupported(BlockStoragePolicy[] policies, String name) {
+        for (BlockStoragePolicy policy : policies) {
+            if (policy.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DistributedFileSystem getDistributedFileSystem() throws IOException {
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        if (!(fs instanceof DistributedFileSystem)) {
+            throw new IllegalStateException("当前文件系统不支持存储策略: " + fs.getUri());
+        }
+        return (DistributedFileSystem) fs;
+    }
+}
@@ -0,0 +1,42 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 本地目录同步到HDFS的结果
+ */
+@Data
+public class HDFSSyncResult {
+
+    private String localPath;
+    private String hdfsPath;
+    // 只比较不修改，此时上传、删除的数量为计划执行的数量
+    private boolean dryRun;
+    private long localFiles;
+    private long remoteFiles;
+    private long uploadedFiles;
+    private long uploadedBytes;
+    private long unchangedFiles;
+    // 内容一致、只更新了修改时间的文件数
+    private long touchedFiles;
+    private long deletedFiles;
+    private long failedFiles;
+    // 新增、修改、删除的文件明细，最多返回max-report条
+    private List<Action> actions = new ArrayList<>();
+    private boolean truncated;
+    private long elapsedMillis;
+
+    @Data
+    public static class Action {
+        // NEW、CHANGED、TOUCH、DELETE，预演时TOUCH表示需要比较校验和的文件
+        private String type;
+        // 相对于同步根目录的路径
+        private String path;
+        private long bytes;
+        // 执行失败的原因，成功时为空
+        private String error;
+    }
+}
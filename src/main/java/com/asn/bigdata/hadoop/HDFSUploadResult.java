@@ -0,0 +1,19 @@
+package com.asn.bigdata.hadoop;
+
+import lombok.Data;
+
+/**
+ * 文件上传结果
+ */
+@Data
+public class HDFSUploadResult {
+
+    private String path;
+    private long bytes;
+    private long elapsedMillis;
+    private long bytesPerSecond;
+    private short replication;
+    private long blockSize;
+    // 上传内容的MD5，十六进制
+    private String md5;
+}
@@ -0,0 +1,33 @@
+package com.asn.bigdata.hadoop;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 分片上传会话，会话信息保存在暂存目录中，服务重启后仍可续传
+ */
+@Data
+public class HDFSUploadSession {
+
+    private String uploadId;
+    // 上传完成后的目标路径
+    private String path;
+    private boolean overwrite;
+    // 分片总数，初始化时不确定可以为空
+    private Integer chunkCount;
+    private long createdAt;
+    // 以下为查询会话状态时返回的信息
+    private List<Chunk> chunks;
+    // 已知分片总数时，尚未上传的分片序号
+    private List<Integer> missing;
+    private long uploadedBytes;
+    // 分片已经合并，等待改名到目标路径
+    private boolean merged;
+
+    @Data
+    public static class Chunk {
+        private int index;
+        private long length;
+    }
+}
@@ -1,9 +1,14 @@
 package com.asn.bigdata.hadoop;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URI;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -12,17 +17,24 @@ import javax.annotation.PostConstruct;
 
 import com.asn.bigdata.utils.JSONUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.Trash;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
@@ -35,9 +47,27 @@ public class HDFSUtils {
     private String path;
     @Value("${hdfs.username}")
     private String username;
+    @Autowired
+    private HDFSFileSystemProvider provider;
+    @Autowired
+    private HDFSMetadataCache cache;
+    @Autowired
+    private HDFSReadLatencyTracker tracker;
+    @Autowired
+    private HDFSLocalReadCache readCache;
+    @Autowired
+    private HDFSSmallFilePacker packer;
     private static String hdfsPath;
     private static String hdfsName;
-    private static final int bufferSize = 1024 * 1024 * 64;
+    private static HDFSFileSystemProvider fileSystemProvider;
+    private static HDFSMetadataCache metadataCache;
+    private static HDFSReadLatencyTracker latencyTracker;
+    private static HDFSLocalReadCache localReadCache;
+    private static HDFSSmallFilePacker smallFilePacker;
+    // 流式读写时每次拷贝的字节数
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+    // 流式读取缓冲区，按线程复用，避免每个请求重新分配
+    private static final ThreadLocal<byte[]> STREAM_BUFFER = ThreadLocal.withInitial(() -> new byte[STREAM_BUFFER_SIZE]);
     @PostConstruct
     public void setHdfsPath() {
         hdfsPath = this.path;
@@ -46,19 +76,37 @@ public class HDFSUtils {
     public void setHdfsName() {
         hdfsName = this.username;
     }
+    @PostConstruct
+    public void setFileSystemProvider() {
+        fileSystemProvider = this.provider;
+    }
+    @PostConstruct
+    public void setMetadataCache() {
+        metadataCache = this.cache;
+    }
+    @PostConstruct
+    public void setLatencyTracker() {
+        latencyTracker = this.tracker;
+    }
+    @PostConstruct
+    public void setLocalReadCache() {
+        localReadCache = this.readCache;
+    }
+    @PostConstruct
+    public void setSmallFilePacker() {
+        smallFilePacker = this.packer;
+    }
     /**
      * 获取HDFS配置信息
      * @return
      */
     private static Configuration getConfiguration() {
-        Configuration configuration = new Configuration();
-        configuration.set("fs.defaultFS", hdfsPath);
-        System.setProperty("hadoop.home.dir", "E:\\MySoftware\\hadoop-2.7.5");
-        return configuration;
+        return fileSystemProvider.getConfiguration();
     }
 
     /**
      * 获取HDFS文件系统对象
+     * 返回的是共享对象，调用方不要close
      * @return
      * @throws Exception
      */
@@ -66,8 +114,16 @@ public class HDFSUtils {
         // 客户端去操作hdfs时是有一个用户身份的，默认情况下hdfs客户端api会从jvm中获取一个参数作为自己的用户身份
         // DHADOOP_USER_NAME=hadoop
         // 也可以在构造客户端fs对象时，通过参数传递进去
-        FileSystem fileSystem = FileSystem.get(new URI(hdfsPath), getConfiguration(), hdfsName);
-        return fileSystem;
+        return fileSystemProvider.getFileSystem();
+    }
+
+    /**
+     * 修改HDFS文件后失效元数据缓存
+     * @param fs
+     * @param path
+     */
+    private static void invalidate(FileSystem fs, Path path) {
+        metadataCache.invalidate(fs, path);
     }
 
     /**
@@ -80,19 +136,16 @@ public class HDFSUtils {
         if (StringUtils.isEmpty(path)) {
             return false;
         }
-        if (existFile(path)) {
-            return true;
-        }
         FileSystem fs = getFileSystem();
-        // 目标路径
+        // 目标路径，mkdirs在目录已存在时也返回true，不需要先判断是否存在
         Path srcPath = new Path(path);
         boolean isOk = fs.mkdirs(srcPath);
-        fs.close();
+        invalidate(fs, srcPath);
         return isOk;
     }
 
     /**
-     * 判断HDFS文件是否存在
+     * 判断HDFS文件是否存在，已打包到容器文件中的小文件也视为存在
      * @param path
      * @return
      * @throws Exception
@@ -103,7 +156,7 @@ public class HDFSUtils {
         }
         FileSystem fs = getFileSystem();
         Path srcPath = new Path(path);
-        boolean isExists = fs.exists(srcPath);
+        boolean isExists = metadataCache.getFileStatus(fs, srcPath) != null || smallFilePacker.exists(path);
         return isExists;
     }
 
@@ -123,7 +176,7 @@ public class HDFSUtils {
         FileSystem fs = getFileSystem();
         // 目标路径
         Path newPath = new Path(path);
-        FileStatus[] statusList = fs.listStatus(newPath);
+        FileStatus[] statusList = metadataCache.listStatus(fs, newPath);
         List<Map<String, Object>> list = new ArrayList<>();
         if (null != statusList && statusList.length > 0) {
             for (FileStatus fileStatus : statusList) {
@@ -145,22 +198,61 @@ public class HDFSUtils {
      * @throws Exception
      */
     public static void createFile(String path, MultipartFile file) throws Exception {
-        if (StringUtils.isEmpty(path) || null == file.getBytes()) {
-            return;
+        createFile(path, file, null, null, true);
+    }
+
+    /**
+     * HDFS创建文件，从上传流中分块拷贝，堆内存占用与文件大小无关
+     * @param path 目标目录
+     * @param file
+     * @param replication 副本数，为空时使用集群默认值
+     * @param blockSize 块大小，为空时使用集群默认值
+     * @param overwrite 文件已存在时是否覆盖
+     * @return
+     * @throws Exception
+     */
+    public static HDFSUploadResult createFile(String path, MultipartFile file, Short replication, Long blockSize,
+                                              boolean overwrite) throws Exception {
+        if (StringUtils.isEmpty(path) || null == file) {
+            return null;
         }
         String fileName = file.getOriginalFilename();
         FileSystem fs = getFileSystem();
         // 上传时默认当前目录，后面自动拼接文件的目录
         Path newPath = new Path(path + "/" + fileName);
+        short fileReplication = replication != null ? replication : fs.getDefaultReplication(newPath);
+        long fileBlockSize = blockSize != null ? blockSize : fs.getDefaultBlockSize(newPath);
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        byte[] buffer = STREAM_BUFFER.get();
+        long bytes = 0;
+        long start = System.currentTimeMillis();
         // 打开一个输出流
-        FSDataOutputStream outputStream = fs.create(newPath);
-        outputStream.write(file.getBytes());
-        outputStream.close();
-        fs.close();
+        try (InputStream inputStream = file.getInputStream();
+             FSDataOutputStream outputStream = fs.create(newPath, overwrite, STREAM_BUFFER_SIZE,
+                     fileReplication, fileBlockSize)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                bytes += read;
+            }
+        } finally {
+            invalidate(fs, newPath);
+        }
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        HDFSUploadResult result = new HDFSUploadResult();
+        result.setPath(newPath.toString());
+        result.setBytes(bytes);
+        result.setElapsedMillis(elapsed);
+        result.setBytesPerSecond(bytes * 1000 / elapsed);
+        result.setReplication(fileReplication);
+        result.setBlockSize(fileBlockSize);
+        result.setMd5(Hex.encodeHexString(digest.digest()));
+        return result;
     }
 
     /**
-     * 读取HDFS文件内容
+     * 读取HDFS文件内容，已打包到容器文件中的小文件从容器文件读取
      * @param path
      * @return
      * @throws Exception
@@ -175,23 +267,129 @@ public class HDFSUtils {
         FileSystem fs = getFileSystem();
         // 目标路径
         Path srcPath = new Path(path);
-        FSDataInputStream inputStream = null;
+        InputStream inputStream = null;
+        try {
+            inputStream = smallFilePacker.open(fs, srcPath, STREAM_BUFFER_SIZE);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            IOUtils.copyBytes(inputStream, outputStream, STREAM_BUFFER_SIZE, false);
+            // 按UTF-8解码，防止中文乱码，同时保留原文件中的换行
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            IOUtils.closeStream(inputStream);
+        }
+    }
+
+    /**
+     * 获取HDFS文件状态，文件不存在时返回null
+     * @param path
+     * @return
+     * @throws Exception
+     */
+    public static FileStatus getFileStatus(String path) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            return null;
+        }
+        FileSystem fs = getFileSystem();
+        return metadataCache.getFileStatus(fs, new Path(path));
+    }
+
+    /**
+     * 不经过缓存获取HDFS文件的最新状态，文件不存在时返回null
+     * 返回文件内容时的Content-Length和ETag必须用最新状态，缓存中的长度可能已经落后于文件
+     * @param path
+     * @return
+     * @throws Exception
+     */
+    public static FileStatus getLatestFileStatus(String path) throws Exception {
+        if (StringUtils.isEmpty(path)) {
+            return null;
+        }
+        FileSystem fs = getFileSystem();
+        return metadataCache.getLatestFileStatus(fs, new Path(path));
+    }
+
+    /**
+     * 根据文件长度和修改时间生成ETag，文件内容变化后ETag随之变化
+     * @param fileStatus
+     * @return
+     */
+    public static String getETag(FileStatus fileStatus) {
+        return "\"" + Long.toHexString(fileStatus.getLen()) + "-"
+                + Long.toHexString(fileStatus.getModificationTime()) + "\"";
+    }
+
+    /**
+     * 从指定偏移量开始读取HDFS文件的一段内容，写入输出流
+     * 开启对冲读时使用positional read，慢副本超过阈值后由客户端并发读取其他副本；
+     * 否则定位后顺序读取，每个块只建立一次连接，并能取得实际读取的DataNode用于延迟统计。
+     * 读取缓冲区按线程复用，堆内存占用与文件大小无关。已打包到容器文件中的小文件从容器文件读取
+     * @param path
+     * @param offset 起始偏移量
+     * @param length 读取长度
+     * @param out
+     * @return 实际写出的字节数
+     * @throws Exception
+     */
+    public static long readFile(String path, long offset, long length, OutputStream out) throws Exception {
+        if (StringUtils.isEmpty(path) || length <= 0) {
+            return 0;
+        }
+        FileSystem fs = getFileSystem();
+        FSDataInputStream inputStream;
         try {
-            inputStream = fs.open(srcPath);
-            // 防止中文乱码
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String lineTxt = "";
-            StringBuffer sb = new StringBuffer();
-            while ((lineTxt = reader.readLine()) != null) {
-                sb.append(lineTxt);
+            inputStream = fs.open(new Path(path));
+        } catch (FileNotFoundException e) {
+            HDFSPackedFile packedFile = smallFilePacker.read(path);
+            if (packedFile == null || offset >= packedFile.getLength()) {
+                throw e;
             }
-            return sb.toString();
+            int len = (int) Math.min(length, packedFile.getLength() - offset);
+            out.write(packedFile.getData(), (int) offset, len);
+            out.flush();
+            return len;
+        }
+        try {
+            return readFile(inputStream, offset, length, out);
         } finally {
-            inputStream.close();
-            fs.close();
+            IOUtils.closeStream(inputStream);
         }
     }
 
+    /**
+     * 从已打开的输入流读取一段内容写入输出流，读取方式同readFile(path, offset, length, out)
+     * @param inputStream 调用方负责关闭
+     * @param offset 起始偏移量
+     * @param length 读取长度
+     * @param out
+     * @return 实际写出的字节数
+     * @throws IOException
+     */
+    public static long readFile(FSDataInputStream inputStream, long offset, long length, OutputStream out)
+            throws IOException {
+        byte[] buffer = STREAM_BUFFER.get();
+        long position = offset;
+        long remaining = length;
+        boolean positional = latencyTracker.isHedgedReadEnabled();
+        HDFSReadLatencyTracker.ReadSource source = new HDFSReadLatencyTracker.ReadSource(inputStream, positional);
+        if (!positional) {
+            inputStream.seek(offset);
+        }
+        while (remaining > 0) {
+            int len = (int) Math.min(buffer.length, remaining);
+            long start = System.nanoTime();
+            int read = positional ? inputStream.read(position, buffer, 0, len) : inputStream.read(buffer, 0, len);
+            if (read < 0) {
+                break;
+            }
+            latencyTracker.record(source.host(position), System.nanoTime() - start, read);
+            out.write(buffer, 0, read);
+            position += read;
+            remaining -= read;
+        }
+        out.flush();
+        return position - offset;
+    }
+
     /**
      * 读取HDFS文件列表
      * @param path
@@ -221,12 +419,12 @@ public class HDFSUtils {
             map.put("filePath", filePath.toString());
             returnList.add(map);
         }
-        fs.close();
         return returnList;
     }
 
     /**
      * HDFS重命名文件
+     * 原路径下被打包到上级目录容器文件中的文件先还原为普通文件，随原路径一起改名，改名后原路径在容器文件中的内容不再可见
      * @param oldName
      * @param newName
      * @return
@@ -241,29 +439,131 @@ public class HDFSUtils {
         Path oldPath = new Path(oldName);
         // 重命名目标路径
         Path newPath = new Path(newName);
+        smallFilePacker.unpack(oldName);
         boolean isOk = fs.rename(oldPath, newPath);
-        fs.close();
+        if (isOk) {
+            smallFilePacker.remove(oldName);
+        }
+        invalidate(fs, oldPath);
+        invalidate(fs, newPath);
         return isOk;
     }
 
     /**
-     * 删除HDFS文件
+     * 把src改名为dst
+     * HDFS上使用rename(OVERWRITE)，替换目标文件是NameNode上的一次原子操作，读者要么看到旧文件要么看到新文件；
+     * 不覆盖时使用Rename.NONE，目标已存在则失败。其他文件系统的FileSystem没有公开带选项的rename，
+     * 目标已存在时只能先删除再改名；不覆盖时先检查目标，避免目标是目录时src被移动到目录下面
+     * @param fs
+     * @param src
+     * @param dst
+     * @param overwrite 目标已存在时是否覆盖
+     * @throws IOException
+     */
+    public static void rename(FileSystem fs, Path src, Path dst, boolean overwrite) throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+            ((DistributedFileSystem) fs).rename(src, dst,
+                    overwrite ? Options.Rename.OVERWRITE : Options.Rename.NONE);
+            return;
+        }
+        if (fs.exists(dst)) {
+            if (!overwrite) {
+                throw new FileAlreadyExistsException("目标已存在: " + dst);
+            }
+            fs.delete(dst, false);
+        }
+        if (!fs.rename(src, dst)) {
+            throw new IOException("改名失败: " + src + " -> " + dst);
+        }
+    }
+
+    /**
+     * 设置HDFS文件的副本数
      * @param path
+     * @param replication
      * @return
      * @throws Exception
      */
-    public static boolean deleteFile(String path) throws Exception {
+    public static boolean setReplication(String path, short replication) throws Exception {
         if (StringUtils.isEmpty(path)) {
             return false;
         }
-        if (!existFile(path)) {
+        FileSystem fs = getFileSystem();
+        Path srcPath = new Path(path);
+        boolean isOk = fs.setReplication(srcPath, replication);
+        invalidate(fs, srcPath);
+        return isOk;
+    }
+
+    /**
+     * 删除HDFS文件，递归删除目录，回收站开启时放入回收站
+     * @param path
+     * @return
+     * @throws Exception
+     */
+    public static boolean deleteFile(String path) throws Exception {
+        return deleteFile(path, true, false);
+    }
+
+    /**
+     * 删除HDFS文件
+     * 已打包到容器文件中的文件同样删除：放入回收站时先还原为普通文件，之后在容器文件中记录删除标记
+     * @param path
+     * @param recursive 是否递归删除目录
+     * @param skipTrash 是否跳过回收站直接删除，回收站未开启时总是直接删除
+     * @return 文件不存在时返回false
+     * @throws Exception
+     */
+    public static boolean deleteFile(String path, boolean recursive, boolean skipTrash) throws Exception {
+        if (StringUtils.isEmpty(path)) {
             return false;
         }
         FileSystem fs = getFileSystem();
         Path srcPath = new Path(path);
-        boolean isOk = fs.deleteOnExit(srcPath);
-        fs.close();
-        return isOk;
+        if (fs.makeQualified(srcPath).isRoot()) {
+            throw new IllegalArgumentException("不允许删除根目录");
+        }
+        try {
+            if (!skipTrash) {
+                // 已打包的文件还原后与普通文件一起放入回收站，可以从回收站恢复
+                smallFilePacker.unpack(path);
+                FileStatus fileStatus = metadataCache.getFileStatus(fs, srcPath);
+                if (fileStatus == null) {
+                    return false;
+                }
+                // 与hdfs dfs -rm一致：非递归时不允许删除非空目录
+                if (fileStatus.isDirectory() && !recursive && fs.listStatus(srcPath).length > 0) {
+                    throw new IOException("目录不为空: " + path);
+                }
+                if (moveToTrash(fs, srcPath)) {
+                    smallFilePacker.remove(path);
+                    return true;
+                }
+            }
+            // 共享的FileSystem不会被close，deleteOnExit要等到应用退出才执行，这里直接删除
+            // 文件不存在时delete返回false，不需要先判断是否存在
+            boolean deleted = fs.delete(srcPath, recursive);
+            return smallFilePacker.remove(path) || deleted;
+        } finally {
+            invalidate(fs, srcPath);
+        }
+    }
+
+    /**
+     * 移动到当前用户的回收站，回收站保留时间以NameNode的配置为准
+     * @param fs
+     * @param path
+     * @return 回收站未开启时返回false
+     * @throws IOException
+     */
+    private static boolean moveToTrash(FileSystem fs, Path path) throws IOException {
+        Configuration configuration = getConfiguration();
+        long trashInterval = fs.getServerDefaults(path).getTrashInterval();
+        if (trashInterval > 0) {
+            configuration = new Configuration(configuration);
+            configuration.setLong(CommonConfigurationKeysPublic.FS_TRASH_INTERVAL_KEY, trashInterval);
+        }
+        return new Trash(fs, configuration).moveToTrash(path);
     }
 
     /**
@@ -284,7 +584,7 @@ public class HDFSUtils {
 
         // 调用文件系统的文件复制方法，第一个参数是否删除原文件true为删除，默认为false
         fs.copyFromLocalFile(false, clientPath, serverPath);
-        fs.close();
+        invalidate(fs, serverPath);
     }
     /**
      * 文件上传至 HDFS
@@ -305,8 +605,8 @@ public class HDFSUtils {
         // 实现文件上传
         try {
             // 获取FileSystem对象
-            fs.copyFromLocalFile(srcPath, dstPath);
             fs.copyFromLocalFile(delSrc,overwrite,srcPath, dstPath);
+            invalidate(fs, dstPath);
             //释放资源
             //    fileSystem.close();
         } catch (IOException e) {
@@ -330,9 +630,20 @@ public class HDFSUtils {
         // 目标路径
         Path serverPath = new Path(downloadPath);
 
+        // 原文件不存在时检查是否已被打包到容器文件中
+        if (metadataCache.getFileStatus(fs, clientPath) == null) {
+            HDFSPackedFile packedFile = smallFilePacker.read(path);
+            if (packedFile != null) {
+                File localFile = new File(downloadPath);
+                if (localFile.isDirectory()) {
+                    localFile = new File(localFile, clientPath.getName());
+                }
+                Files.write(localFile.toPath(), packedFile.getData());
+                return;
+            }
+        }
         // 调用文件系统的文件复制方法，第一个参数是否删除原文件true为删除，默认为false
         fs.copyToLocalFile(false, clientPath, serverPath);
-        fs.close();
     }
 
     /**
@@ -351,17 +662,18 @@ public class HDFSUtils {
         // 目标路径
         Path newPath = new Path(targetPath);
 
-        FSDataInputStream inputStream = null;
+        InputStream inputStream = null;
         FSDataOutputStream outputStream = null;
         try {
-            inputStream = fs.open(oldPath);
+            inputStream = smallFilePacker.open(fs, oldPath, STREAM_BUFFER_SIZE);
             outputStream = fs.create(newPath);
 
-            IOUtils.copyBytes(inputStream, outputStream, bufferSize, false);
+            // 复制可能并发执行，使用较小的缓冲区，避免每次复制都分配大块堆内存
+            IOUtils.copyBytes(inputStream, outputStream, STREAM_BUFFER_SIZE, false);
         } finally {
-            inputStream.close();
-            outputStream.close();
-            fs.close();
+            IOUtils.closeStream(inputStream);
+            IOUtils.closeStream(outputStream);
+            invalidate(fs, newPath);
         }
     }
 
@@ -399,10 +711,13 @@ public class HDFSUtils {
         if (StringUtils.isEmpty(path)) {
             return null;
         }
-        if (!existFile(path)) {
+        FileStatus fileStatus = getFileStatus(path);
+        // 频繁读取的配置类文件优先从本地缓存读取，原文件不存在时readFile从容器文件读取
+        byte[] data = fileStatus != null ? localReadCache.readAll(fileStatus) : null;
+        String jsonStr = data != null ? new String(data, StandardCharsets.UTF_8) : readFile(path);
+        if (jsonStr == null) {
             return null;
         }
-        String jsonStr = readFile(path);
         return JSONUtils.toBean(jsonStr, clazz);
     }
 
@@ -416,13 +731,13 @@ public class HDFSUtils {
         if (StringUtils.isEmpty(path)) {
             return null;
         }
-        if (!existFile(path)) {
-            return null;
-        }
         FileSystem fs = getFileSystem();
         // 目标路径
         Path srcPath = new Path(path);
-        FileStatus fileStatus = fs.getFileStatus(srcPath);
+        FileStatus fileStatus = metadataCache.getFileStatus(fs, srcPath);
+        if (fileStatus == null) {
+            return null;
+        }
         return fs.getFileBlockLocations(fileStatus, 0, fileStatus.getLen());
     }
 
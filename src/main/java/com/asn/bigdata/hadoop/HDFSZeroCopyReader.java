@@ -0,0 +1,199 @@
+package com.asn.bigdata.hadoop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.apache.hadoop.net.NetUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 基于ByteBuffer的HDFS零拷贝读取
+ * 开启了短路读取、要读的块都有本机副本、且块已被本机DataNode缓存（或允许跳过校验）时，
+ * 客户端通过mmap直接读取本地块文件，数据从页缓存只拷贝一次到响应缓冲区。
+ * 其他情况下ByteBuffer读取只是把数据读进直接内存，没有收益，而且顺序读取不会触发对冲读，
+ * 因此交给HDFSUtils.readFile走普通读取
+ */
+@Component
+@Slf4j
+public class HDFSZeroCopyReader {
+
+    @Autowired
+    private HDFSFileSystemProvider fileSystemProvider;
+    @Autowired
+    private HDFSReadLatencyTracker latencyTracker;
+    @Value("${hdfs.read.zero-copy.enabled:true}")
+    private boolean enabled;
+    // 每次读取的最大字节数，零拷贝时一次最多映射到块的末尾
+    @Value("${hdfs.read.zero-copy.chunk-size:4194304}")
+    private int chunkSize;
+
+    // mmap失败时HDFS客户端从这里申请直接内存，用完归还复用
+    private final ByteBufferPool bufferPool = new ElasticByteBufferPool();
+    // 从映射内存写到响应流的中转缓冲区，按线程复用
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private boolean shortCircuitEnabled;
+
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder zeroCopyBytes = new LongAdder();
+    private final LongAdder shortCircuitBytes = new LongAdder();
+    private final LongAdder fallbackCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        shortCircuitEnabled = fileSystemProvider.getConfiguration().getBoolean(
+                DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY, DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_DEFAULT);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从指定偏移量开始读取HDFS文件的一段内容，写入输出流
+     * @param path
+     * @param offset 起始偏移量
+     * @param length 读取长度
+     * @param skipChecksums 是否跳过校验和，跳过后未被缓存的本地块也能使用零拷贝
+     * @param out
+     * @return 实际写出的字节数
+     * @throws Exception
+     */
+    public long read(String path, long offset, long length, boolean skipChecksums, OutputStream out) throws Exception {
+        if (StringUtils.isEmpty(path) || length <= 0) {
+            return 0;
+        }
+        if (!enabled || !shortCircuitEnabled) {
+            return HDFSUtils.readFile(path, offset, length, out);
+        }
+        FileSystem fs = fileSystemProvider.getFileSystem();
+        EnumSet<ReadOption> options = skipChecksums
+                ? EnumSet.of(ReadOption.SKIP_CHECKSUMS) : EnumSet.noneOf(ReadOption.class);
+        long position = offset;
+        long remaining = length;
+        try (FSDataInputStream inputStream = fs.open(new Path(path))) {
+            if (!canMmap(inputStream, offset, length, skipChecksums)) {
+                fallbackCount.increment();
+                return HDFSUtils.readFile(inputStream, offset, length, out);
+            }
+            readCount.increment();
+            byte[] copyBuffer = COPY_BUFFER.get();
+            inputStream.seek(offset);
+            try {
+                while (remaining > 0) {
+                    long start = System.nanoTime();
+                    ByteBuffer buffer = inputStream.read(bufferPool, (int) Math.min(chunkSize, remaining), options);
+                    if (buffer == null) {
+                        break;
+                    }
+                    try {
+                        int read = buffer.remaining();
+                        latencyTracker.record(HDFSReadLatencyTracker.currentHost(inputStream),
+                                System.nanoTime() - start, read);
+                        while (buffer.hasRemaining()) {
+                            int len = Math.min(copyBuffer.length, buffer.remaining());
+                            buffer.get(copyBuffer, 0, len);
+                            out.write(copyBuffer, 0, len);
+                        }
+                        position += read;
+                        remaining -= read;
+                    } finally {
+                        inputStream.releaseBuffer(buffer);
+                    }
+                }
+            } finally {
+                recordStatistics(inputStream);
+            }
+            out.flush();
+            bytesRead.add(position - offset);
+            return position - offset;
+        }
+    }
+
+    /**
+     * 判断要读取的所有块能否通过mmap读取：块在本机有副本，并且已被本机DataNode缓存或跳过校验
+     * 块位置来自打开文件时NameNode返回的列表，不额外请求NameNode（超出预取范围的大文件除外）
+     */
+    private boolean canMmap(FSDataInputStream inputStream, long offset, long length, boolean skipChecksums)
+            throws IOException {
+        if (!(inputStream instanceof HdfsDataInputStream)) {
+            return false;
+        }
+        long end = offset + length;
+        for (LocatedBlock block : ((HdfsDataInputStream) inputStream).getAllBlocks()) {
+            if (block.getStartOffset() >= end || block.getStartOffset() + block.getBlockSize() <= offset) {
+                continue;
+            }
+            DatanodeInfo local = localReplica(block.getLocations());
+            if (local == null) {
+                return false;
+            }
+            if (!skipChecksums && !Arrays.asList(block.getCachedLocations()).contains(local)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static DatanodeInfo localReplica(DatanodeInfo[] locations) {
+        for (DatanodeInfo location : locations) {
+            try {
+                if (NetUtils.isLocalAddress(InetAddress.getByName(location.getIpAddr()))) {
+                    return location;
+                }
+            } catch (UnknownHostException e) {
+                log.debug("无法解析DataNode地址: {}", location.getIpAddr());
+            }
+        }
+        return null;
+    }
+
+    private void recordStatistics(FSDataInputStream inputStream) {
+        if (inputStream instanceof HdfsDataInputStream) {
+            DFSInputStream.ReadStatistics statistics = ((HdfsDataInputStream) inputStream).getReadStatistics();
+            zeroCopyBytes.add(statistics.getTotalZeroCopyBytesRead());
+            shortCircuitBytes.add(statistics.getTotalShortCircuitBytesRead());
+        }
+    }
+
+    /**
+     * 零拷贝读取的统计信息
+     * @return
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("shortCircuitEnabled", shortCircuitEnabled);
+        metrics.put("readCount", readCount.sum());
+        metrics.put("bytesRead", bytesRead.sum());
+        metrics.put("zeroCopyBytes", zeroCopyBytes.sum());
+        metrics.put("shortCircuitBytes", shortCircuitBytes.sum());
+        metrics.put("fallbackCount", fallbackCount.sum());
+        return metrics;
+    }
+}
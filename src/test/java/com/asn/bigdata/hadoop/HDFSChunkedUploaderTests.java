@@ -0,0 +1,143 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 分片上传的MD5校验、合并和覆盖目标文件
+ */
+class HDFSChunkedUploaderTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSChunkedUploader uploader;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        uploader = new HDFSChunkedUploader();
+        ReflectionTestUtils.setField(uploader, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(uploader, "metadataCache", LocalFileSystems.metadataCache());
+        ReflectionTestUtils.setField(uploader, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(uploader, "stagingDir", tempDir.resolve("uploads").toString());
+        ReflectionTestUtils.setField(uploader, "maxChunks", 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    void putChunkReturnsDigestWithoutClientMd5() throws Exception {
+        HDFSUploadSession session = uploader.init(target(), 1, false);
+        byte[] data = bytes("hello");
+        assertThat(uploader.putChunk(session.getUploadId(), 0, null, new ByteArrayInputStream(data)))
+                .isEqualTo(DigestUtils.md5Hex(data));
+    }
+
+    @Test
+    void putChunkRejectsMismatchedMd5() throws Exception {
+        HDFSUploadSession session = uploader.init(target(), 1, false);
+        assertThatThrownBy(() -> uploader.putChunk(session.getUploadId(), 0, DigestUtils.md5Hex("other"),
+                new ByteArrayInputStream(bytes("hello")))).isInstanceOf(IllegalArgumentException.class);
+        // 校验失败的分片不会留在会话里
+        assertThat(uploader.getSession(session.getUploadId()).getChunks()).isEmpty();
+    }
+
+    @Test
+    void completeMergesChunksInOrder() throws Exception {
+        HDFSUploadSession session = uploader.init(target(), 3, false);
+        uploader.putChunk(session.getUploadId(), 2, null, new ByteArrayInputStream(bytes("c")));
+        uploader.putChunk(session.getUploadId(), 0, null, new ByteArrayInputStream(bytes("a")));
+        uploader.putChunk(session.getUploadId(), 1, null, new ByteArrayInputStream(bytes("x")));
+        // 重传的分片替换之前的内容
+        uploader.putChunk(session.getUploadId(), 1, null, new ByteArrayInputStream(bytes("b")));
+        HDFSUploadResult result = uploader.complete(session.getUploadId());
+        assertThat(result.getBytes()).isEqualTo(3);
+        assertThat(content()).isEqualTo("abc");
+        assertThat(Files.exists(tempDir.resolve("uploads").resolve(session.getUploadId()))).isFalse();
+    }
+
+    @Test
+    void completeReplacesExistingTargetOnlyWhenOverwrite() throws Exception {
+        Files.write(tempDir.resolve("target"), bytes("old"));
+        assertThatThrownBy(() -> uploader.init(target(), 1, false)).isInstanceOf(IllegalArgumentException.class);
+        HDFSUploadSession session = uploader.init(target(), 1, true);
+        uploader.putChunk(session.getUploadId(), 0, null, new ByteArrayInputStream(bytes("new")));
+        uploader.complete(session.getUploadId());
+        assertThat(content()).isEqualTo("new");
+    }
+
+    @Test
+    void existingTargetFailsBeforeMerging() throws Exception {
+        HDFSUploadSession session = uploader.init(target(), 2, false);
+        uploader.putChunk(session.getUploadId(), 0, null, new ByteArrayInputStream(bytes("a")));
+        uploader.putChunk(session.getUploadId(), 1, null, new ByteArrayInputStream(bytes("b")));
+        Files.write(tempDir.resolve("target"), bytes("other"));
+        assertThatThrownBy(() -> uploader.complete(session.getUploadId())).isInstanceOf(IllegalStateException.class);
+        // 分片没有被合并，删除目标后可以重试
+        HDFSUploadSession current = uploader.getSession(session.getUploadId());
+        assertThat(current.isMerged()).isFalse();
+        assertThat(current.getChunks()).hasSize(2);
+        Files.delete(tempDir.resolve("target"));
+        uploader.complete(session.getUploadId());
+        assertThat(content()).isEqualTo("ab");
+    }
+
+    @Test
+    void failedRenameAfterMergeCanBeRetried() throws Exception {
+        String target = tempDir.resolve("parent/target").toString();
+        HDFSUploadSession session = uploader.init(target, 2, false);
+        uploader.putChunk(session.getUploadId(), 0, null, new ByteArrayInputStream(bytes("a")));
+        uploader.putChunk(session.getUploadId(), 1, null, new ByteArrayInputStream(bytes("b")));
+        // 父路径是普通文件，合并后改名失败
+        Files.write(tempDir.resolve("parent"), bytes("x"));
+        assertThatThrownBy(() -> uploader.complete(session.getUploadId())).isInstanceOf(Exception.class);
+        HDFSUploadSession current = uploader.getSession(session.getUploadId());
+        assertThat(current.isMerged()).isTrue();
+        assertThat(current.getMissing()).isEmpty();
+        assertThatThrownBy(() -> uploader.putChunk(session.getUploadId(), 0, null,
+                new ByteArrayInputStream(bytes("c")))).isInstanceOf(IllegalStateException.class);
+
+        Files.delete(tempDir.resolve("parent"));
+        uploader.complete(session.getUploadId());
+        assertThat(new String(Files.readAllBytes(tempDir.resolve("parent/target")), StandardCharsets.UTF_8))
+                .isEqualTo("ab");
+    }
+
+    @Test
+    void completeRejectsMissingChunks() throws Exception {
+        HDFSUploadSession session = uploader.init(target(), 2, false);
+        uploader.putChunk(session.getUploadId(), 1, null, new ByteArrayInputStream(bytes("b")));
+        assertThatThrownBy(() -> uploader.complete(session.getUploadId()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("[0]");
+    }
+
+    private String target() {
+        return tempDir.resolve("target").toString();
+    }
+
+    private String content() throws Exception {
+        return new String(Files.readAllBytes(tempDir.resolve("target")), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
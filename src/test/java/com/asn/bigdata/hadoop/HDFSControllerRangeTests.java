@@ -0,0 +1,130 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * readFile的Range/If-Range处理，使用本地文件系统
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"hdfs.path=file:///", "hdfs.username=root", "hdfs.hadoop.home="})
+class HDFSControllerRangeTests {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @TempDir
+    Path tempDir;
+
+    private String path;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = tempDir.resolve("range.txt");
+        Files.write(file, CONTENT);
+        path = file.toString();
+    }
+
+    @Test
+    void fullContentWithoutRange() {
+        ResponseEntity<byte[]> response = get(new HttpHeaders());
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeaders().getETag()).isNotEmpty();
+    }
+
+    @Test
+    void singleRange() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=5-9");
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 5-9/20");
+        assertThat(response.getBody()).isEqualTo(Arrays.copyOfRange(CONTENT, 5, 10));
+    }
+
+    @Test
+    void suffixAndOpenEndedRange() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=-3");
+        assertThat(get(headers).getBody()).isEqualTo(Arrays.copyOfRange(CONTENT, 17, 20));
+        headers.set(HttpHeaders.RANGE, "bytes=15-");
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 15-19/20");
+        assertThat(response.getBody()).isEqualTo(Arrays.copyOfRange(CONTENT, 15, 20));
+    }
+
+    @Test
+    void unsatisfiableRange() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=100-200");
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */20");
+    }
+
+    @Test
+    void multipleRangesReturnFullContent() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-1,5-6");
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void ifRangeWithMatchingETag() {
+        String etag = get(new HttpHeaders()).getHeaders().getETag();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-4");
+        headers.set(HttpHeaders.IF_RANGE, etag);
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getBody()).isEqualTo(Arrays.copyOfRange(CONTENT, 0, 5));
+    }
+
+    @Test
+    void ifRangeWithStaleETagReturnsFullContent() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-4");
+        headers.set(HttpHeaders.IF_RANGE, "\"0-0\"");
+        ResponseEntity<byte[]> response = get(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void ifRangeWithDate() {
+        long lastModified = get(new HttpHeaders()).getHeaders().getLastModified();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-4");
+        headers.setDate(HttpHeaders.IF_RANGE, lastModified);
+        assertThat(get(headers).getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        headers.setDate(HttpHeaders.IF_RANGE, lastModified - 60000);
+        assertThat(get(headers).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    private ResponseEntity<byte[]> get(HttpHeaders headers) {
+        return restTemplate.exchange("/hadoop/hdfs/readFile?path={path}", HttpMethod.GET, new HttpEntity<>(headers),
+                byte[].class, path);
+    }
+}
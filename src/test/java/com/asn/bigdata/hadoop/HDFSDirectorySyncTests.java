@@ -0,0 +1,165 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.util.DataChecksum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 本地计算的校验和与getFileChecksum一致，以及同步时按内容判断是否需要上传
+ * 本地文件系统不提供getFileChecksum，期望值按DataNode的方式计算：
+ * 每个块的元数据文件内容（calculateChunkedSums生成的CRC）取MD5，再对所有块的MD5取MD5
+ */
+class HDFSDirectorySyncTests {
+
+    private static final int BYTES_PER_CRC = 512;
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSDirectorySync sync;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        sync = new HDFSDirectorySync();
+        ReflectionTestUtils.setField(sync, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(sync, "metadataCache", LocalFileSystems.metadataCache());
+        ReflectionTestUtils.setField(sync, "threads", 2);
+        ReflectionTestUtils.setField(sync, "defaultParallelism", 2);
+        ReflectionTestUtils.setField(sync, "maxReport", 100);
+        sync.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sync.shutdown();
+        provider.close();
+    }
+
+    @Test
+    void localChecksumMatchesMultiBlockFile() throws Exception {
+        // 最后一个块和最后一个CRC分片都不完整
+        assertLocalChecksumMatches(DataChecksum.Type.CRC32, 3000, 1024, 1024, 952);
+    }
+
+    @Test
+    void localChecksumMatchesCastagnoli() throws Exception {
+        assertLocalChecksumMatches(DataChecksum.Type.CRC32C, 2100, 1536, 564);
+    }
+
+    @Test
+    void localChecksumMatchesSingleBlockFile() throws Exception {
+        // 只有一个块时crcPerBlock为0
+        assertLocalChecksumMatches(DataChecksum.Type.CRC32, 700, 700);
+    }
+
+    @Test
+    void localChecksumDiffersWhenContentDiffers() throws Exception {
+        byte[] data = randomBytes(2048);
+        java.nio.file.Path file = tempDir.resolve("f");
+        Files.write(file, data);
+        long[] blockLengths = {1024, 1024};
+        MD5MD5CRC32FileChecksum expected = hdfsChecksum(DataChecksum.Type.CRC32, data, blockLengths);
+        data[2000] ^= 1;
+        Files.write(file, data);
+        assertThat(HDFSDirectorySync.localChecksum(file, expected, blocks(blockLengths))).isNotEqualTo(expected);
+    }
+
+    @Test
+    void syncTouchesSameContentAndUploadsChangedContent() throws Exception {
+        java.nio.file.Path local = Files.createDirectories(tempDir.resolve("local"));
+        java.nio.file.Path remote = tempDir.resolve("remote");
+        Files.write(local.resolve("same"), new byte[]{1, 2, 3});
+        Files.write(local.resolve("changed"), new byte[]{1, 2, 3});
+        assertThat(sync.sync(local.toString(), remote.toString(), true, false, false, false, null).getUploadedFiles())
+                .isEqualTo(2);
+        // 大小相同、修改时间不同，一个内容相同一个内容不同
+        FileTime later = FileTime.fromMillis(Files.getLastModifiedTime(local.resolve("same")).toMillis() + 60000);
+        Files.setLastModifiedTime(local.resolve("same"), later);
+        Files.write(local.resolve("changed"), new byte[]{3, 2, 1});
+        Files.setLastModifiedTime(local.resolve("changed"), later);
+
+        HDFSSyncResult result = sync.sync(local.toString(), remote.toString(), true, false, false, false, null);
+        assertThat(result.getFailedFiles()).isEqualTo(0);
+        assertThat(result.getTouchedFiles()).isEqualTo(1);
+        assertThat(result.getUploadedFiles()).isEqualTo(1);
+        assertThat(Files.readAllBytes(remote.resolve("changed"))).containsExactly(3, 2, 1);
+        assertThat(Files.getLastModifiedTime(remote.resolve("same"))).isEqualTo(later);
+
+        result = sync.sync(local.toString(), remote.toString(), true, false, false, false, null);
+        assertThat(result.getUnchangedFiles()).isEqualTo(2);
+    }
+
+    private void assertLocalChecksumMatches(DataChecksum.Type type, int size, long... blockLengths)
+            throws Exception {
+        byte[] data = randomBytes(size);
+        java.nio.file.Path file = tempDir.resolve("f");
+        Files.write(file, data);
+        MD5MD5CRC32FileChecksum expected = hdfsChecksum(type, data, blockLengths);
+        FileChecksum actual = HDFSDirectorySync.localChecksum(file, expected, blocks(blockLengths));
+        assertThat(actual).isEqualTo(expected);
+        assertThat(actual.getAlgorithmName()).isEqualTo(expected.getAlgorithmName());
+    }
+
+    /**
+     * 按DataNode和DFSClient的方式计算文件校验和
+     */
+    private static MD5MD5CRC32FileChecksum hdfsChecksum(DataChecksum.Type type, byte[] data, long[] blockLengths)
+            throws Exception {
+        DataChecksum checksum = DataChecksum.newDataChecksum(type, BYTES_PER_CRC);
+        MessageDigest fileDigest = DigestUtils.getMd5Digest();
+        long crcPerBlock = 0;
+        int offset = 0;
+        for (int i = 0; i < blockLengths.length; i++) {
+            int length = (int) blockLengths[i];
+            int chunks = (length + BYTES_PER_CRC - 1) / BYTES_PER_CRC;
+            ByteBuffer sums = ByteBuffer.allocate(chunks * checksum.getChecksumSize());
+            checksum.calculateChunkedSums(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)), sums);
+            fileDigest.update(MD5Hash.digest(sums.array()).getDigest());
+            if (i == 0 && blockLengths.length > 1) {
+                crcPerBlock = chunks;
+            }
+            offset += length;
+        }
+        MD5Hash md5 = new MD5Hash(fileDigest.digest());
+        return type == DataChecksum.Type.CRC32C
+                ? new MD5MD5CRC32CastagnoliFileChecksum(BYTES_PER_CRC, crcPerBlock, md5)
+                : new MD5MD5CRC32GzipFileChecksum(BYTES_PER_CRC, crcPerBlock, md5);
+    }
+
+    private static BlockLocation[] blocks(long[] blockLengths) {
+        BlockLocation[] blocks = new BlockLocation[blockLengths.length];
+        long offset = 0;
+        for (int i = 0; i < blockLengths.length; i++) {
+            blocks[i] = new BlockLocation(new String[0], new String[0], offset, blockLengths[i]);
+            offset += blockLengths[i];
+        }
+        return blocks;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,72 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 超过深度限制的目录合并计入最后一层，以及时间预算用完时返回部分结果
+ */
+class HDFSDiskUsageAnalyzerTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSDiskUsageAnalyzer analyzer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        analyzer = new HDFSDiskUsageAnalyzer(2);
+        ReflectionTestUtils.setField(analyzer, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(analyzer, "defaultMaxDepth", 8);
+        ReflectionTestUtils.setField(analyzer, "defaultSmallFileThreshold", 10L);
+        ReflectionTestUtils.setField(analyzer, "defaultTimeBudgetMillis", 60000L);
+        // 第1层: a、d1；第2层: b、d2；第3层: c、d3；第4层: e
+        write("a", 5);
+        write("d1/b", 20);
+        write("d1/d2/c", 5);
+        write("d1/d2/d3/e", 20);
+    }
+
+    @AfterEach
+    void tearDown() {
+        analyzer.shutdown();
+        provider.close();
+    }
+
+    @Test
+    void deepDirectoriesAreFoldedIntoLastLevel() throws Exception {
+        HDFSDiskUsage usage = analyzer.analyze(tempDir.toString(), 2, null, null);
+        assertThat(usage.getFiles()).isEqualTo(4);
+        assertThat(usage.getBytes()).isEqualTo(50);
+        assertThat(usage.getDirectories()).isEqualTo(3);
+        // 深层的小文件也计入小文件数
+        assertThat(usage.getSmallFiles()).isEqualTo(2);
+        assertThat(usage.getLevels()).hasSize(2);
+        assertThat(usage.getLevels().get(1).getFiles()).isEqualTo(3);
+        assertThat(usage.getSummarizedDirectories()).isEqualTo(2);
+        assertThat(usage.isTruncated()).isFalse();
+    }
+
+    @Test
+    void exhaustedBudgetReturnsPartialResult() throws Exception {
+        HDFSDiskUsage usage = analyzer.analyze(tempDir.toString(), 2, null, -1L);
+        assertThat(usage.isTruncated()).isTrue();
+        assertThat(usage.getSkippedDirectories()).isEqualTo(1);
+        assertThat(usage.getFiles()).isEqualTo(0);
+    }
+
+    private void write(String relative, int size) throws Exception {
+        java.nio.file.Path file = tempDir.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+}
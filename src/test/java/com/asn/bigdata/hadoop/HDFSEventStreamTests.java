@@ -0,0 +1,91 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 订阅者数量上限和重连时的reset
+ */
+class HDFSEventStreamTests {
+
+    private HDFSEventStream eventStream;
+
+    @BeforeEach
+    void setUp() {
+        eventStream = new HDFSEventStream(1);
+        ReflectionTestUtils.setField(eventStream, "include", "");
+        ReflectionTestUtils.setField(eventStream, "maxSubscribers", 4);
+        ReflectionTestUtils.setField(eventStream, "subscriberQueueSize", 16);
+        ReflectionTestUtils.setField(eventStream, "timeoutMillis", 60000L);
+        eventStream.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventStream.shutdown();
+    }
+
+    @Test
+    void concurrentSubscribersAreCapped() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<SseEmitter>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return eventStream.subscribe(null, null);
+                }));
+            }
+            start.countDown();
+            int accepted = 0;
+            for (Future<SseEmitter> future : futures) {
+                if (future.get(10, TimeUnit.SECONDS) != null) {
+                    accepted++;
+                }
+            }
+            assertThat(accepted).isEqualTo(4);
+            assertThat(metric("subscribers")).isEqualTo(4L);
+            assertThat(metric("rejectedCount")).isEqualTo(60L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reconnectBehindLastTxidGetsReset() {
+        ReflectionTestUtils.setField(eventStream, "lastTxid", 100L);
+        assertThat(eventStream.subscribe("/data", 100L)).isNotNull();
+        assertThat(metric("reconnectResetCount")).isEqualTo(0L);
+        assertThat(eventStream.subscribe("/data", 99L)).isNotNull();
+        assertThat(metric("reconnectResetCount")).isEqualTo(1L);
+        // 第一次订阅不需要reset
+        assertThat(eventStream.subscribe("/data", null)).isNotNull();
+        assertThat(metric("reconnectResetCount")).isEqualTo(1L);
+    }
+
+    @Test
+    void reconnectBeforeAnyTxidGetsReset() {
+        assertThat(eventStream.subscribe(null, -1L)).isNotNull();
+        assertThat(metric("reconnectResetCount")).isEqualTo(1L);
+    }
+
+    private long metric(String name) {
+        Map<String, Object> metrics = eventStream.getMetrics();
+        return ((Number) metrics.get(name)).longValue();
+    }
+}
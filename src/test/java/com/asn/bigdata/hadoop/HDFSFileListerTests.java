@@ -0,0 +1,111 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 分页游标的编码和断点续传
+ */
+class HDFSFileListerTests {
+
+    @TempDir
+    Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSFileLister lister;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        lister = new HDFSFileLister();
+        ReflectionTestUtils.setField(lister, "fileSystemProvider", provider);
+        // 目录中夹杂空目录和多级子目录
+        for (String file : Arrays.asList("a/1", "a/2", "a/b/1", "a/b/2", "c", "d/e/f/1", "e", "z/1")) {
+            Path path = tempDir.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.write(path, new byte[]{1});
+        }
+        Files.createDirectories(tempDir.resolve("b-empty"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    void pagesCoverAllFilesInOrder() throws Exception {
+        List<String> all = names(lister.listPage(tempDir.toString(), 100, null).getFiles());
+        assertThat(all).containsExactly("a/1", "a/2", "a/b/1", "a/b/2", "c", "d/e/f/1", "e", "z/1");
+        for (int pageSize = 1; pageSize <= all.size() + 1; pageSize++) {
+            List<String> paged = new ArrayList<>();
+            String token = null;
+            do {
+                HDFSFilePage page = lister.listPage(tempDir.toString(), pageSize, token);
+                assertThat(page.getFiles().size()).isLessThanOrEqualTo(pageSize);
+                paged.addAll(names(page.getFiles()));
+                token = page.getNextToken();
+            } while (token != null);
+            assertThat(paged).as("pageSize=%d", pageSize).isEqualTo(all);
+        }
+    }
+
+    @Test
+    void resumeAfterCursorFileDeleted() throws Exception {
+        HDFSFilePage first = lister.listPage(tempDir.toString(), 3, null);
+        assertThat(names(first.getFiles())).containsExactly("a/1", "a/2", "a/b/1");
+        // 游标指向的文件和所在目录都被删除后仍从下一个位置继续
+        Files.delete(tempDir.resolve("a/b/1"));
+        Files.delete(tempDir.resolve("a/b/2"));
+        Files.delete(tempDir.resolve("a/b"));
+        HDFSFilePage second = lister.listPage(tempDir.toString(), 3, first.getNextToken());
+        assertThat(names(second.getFiles())).containsExactly("c", "d/e/f/1", "e");
+    }
+
+    @Test
+    void streamResumesFromToken() throws Exception {
+        String token = lister.listPage(tempDir.toString(), 5, null).getNextToken();
+        List<String> rest = new ArrayList<>();
+        lister.list(tempDir.toString(), token, entry -> rest.add(relative(entry)));
+        assertThat(rest).containsExactly("d/e/f/1", "e", "z/1");
+    }
+
+    @Test
+    void malformedTokenIsRejected() {
+        assertThatThrownBy(() -> lister.listPage(tempDir.toString(), 3, "not base64!"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("token不合法");
+        assertThatThrownBy(() -> lister.checkToken("%%%")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void singleFile() throws Exception {
+        HDFSFilePage page = lister.listPage(tempDir.resolve("c").toString(), 1, null);
+        assertThat(page.getFiles()).hasSize(1);
+        assertThat(lister.listPage(tempDir.resolve("c").toString(), 1, page.getNextToken()).getFiles()).isEmpty();
+    }
+
+    private List<String> names(List<HDFSFileEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (HDFSFileEntry entry : entries) {
+            names.add(relative(entry));
+        }
+        return names;
+    }
+
+    private String relative(HDFSFileEntry entry) {
+        return entry.getPath().substring(tempDir.toString().length() + 1);
+    }
+}
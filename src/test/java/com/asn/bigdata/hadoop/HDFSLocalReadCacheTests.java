@@ -0,0 +1,134 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 本地读缓存下载失败时回退到HDFS，被淘汰的文件在读取结束后才删除，以及删除失败的缓存文件继续计入已用空间
+ */
+class HDFSLocalReadCacheTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private FileSystem fs;
+    private HDFSLocalReadCache cache;
+    private java.nio.file.Path cacheDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        fs = provider.getFileSystem();
+        cacheDir = tempDir.resolve("cache");
+        cache = new HDFSLocalReadCache();
+        ReflectionTestUtils.setField(cache, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(cache, "eventStream", new HDFSEventStream(1));
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "dir", cacheDir.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", 1024L);
+        ReflectionTestUtils.setField(cache, "maxFileBytes", 1024L);
+        cache.init();
+        Files.write(tempDir.resolve("f"), "hello".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    void cachedReadServesFileContent() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(cache.read(status("f"), 1, 3, out)).isTrue();
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("ell");
+        assertThat(cache.readAll(status("f"))).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        assertThat(metric("hitCount")).isEqualTo(1L);
+        assertThat(metric("usedBytes")).isEqualTo(5L);
+    }
+
+    @Test
+    void loadFailureFallsBackToHdfs() throws Exception {
+        // 缓存目录被替换为普通文件，写入临时文件失败
+        Files.delete(cacheDir);
+        Files.createFile(cacheDir);
+        assertThat(cache.readAll(status("f"))).isNull();
+        assertThat(cache.read(status("f"), 0, 5, new ByteArrayOutputStream())).isFalse();
+        assertThat(metric("loadFailureCount")).isEqualTo(2L);
+        assertThat(metric("usedBytes")).isEqualTo(0L);
+
+        Files.delete(cacheDir);
+        Files.createDirectory(cacheDir);
+        assertThat(cache.readAll(status("f"))).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void undeletedFileStaysCountedUntilRetrySucceeds() throws Exception {
+        assertThat(cache.readAll(status("f"))).isNotNull();
+        File[] files = cacheDir.toFile().listFiles();
+        assertThat(files).hasSize(1);
+        // 用非空目录代替缓存文件，模拟文件无法删除
+        java.nio.file.Path cached = files[0].toPath();
+        Files.delete(cached);
+        Files.createDirectories(cached.resolve("busy"));
+
+        cache.invalidate(path("f"));
+        assertThat(metric("pendingDeletes")).isEqualTo(1L);
+        assertThat(metric("usedBytes")).isEqualTo(5L);
+
+        Files.delete(cached.resolve("busy"));
+        cache.invalidate(path("f"));
+        assertThat(metric("pendingDeletes")).isEqualTo(0L);
+        assertThat(metric("usedBytes")).isEqualTo(0L);
+        assertThat(Files.exists(cached)).isFalse();
+    }
+
+    @Test
+    void invalidatedFileIsDeletedAfterReadFinishes() throws Exception {
+        assertThat(cache.readAll(status("f"))).isNotNull();
+        File cached = cacheDir.toFile().listFiles()[0];
+        AtomicBoolean keptDuringRead = new AtomicBoolean();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                // 读取过程中文件被移出索引
+                cache.invalidate(path("f"));
+                keptDuringRead.set(cached.exists() && metric("usedBytes") == 5L);
+                super.write(b, off, len);
+            }
+        };
+        assertThat(cache.read(status("f"), 0, 5, out)).isTrue();
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("hello");
+        assertThat(keptDuringRead).isTrue();
+        assertThat(cached).doesNotExist();
+        assertThat(metric("usedBytes")).isEqualTo(0L);
+    }
+
+    private FileStatus status(String relative) throws Exception {
+        return fs.getFileStatus(new Path(path(relative)));
+    }
+
+    private String path(String relative) {
+        return tempDir.resolve(relative).toString();
+    }
+
+    private long metric(String name) {
+        Map<String, Object> metrics = cache.getMetrics();
+        return ((Number) metrics.get(name)).longValue();
+    }
+}
@@ -0,0 +1,167 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 元数据缓存的TTL、容量淘汰、失效范围以及与加载并发的失效
+ */
+class HDFSMetadataCacheTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private FileSystem fs;
+    private HDFSMetadataCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        fs = provider.getFileSystem();
+        cache = newCache(60000, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    void cachedUntilTtlExpires() throws Exception {
+        cache = newCache(200, 100);
+        Path file = path("a");
+        assertThat(cache.getFileStatus(fs, file)).isNull();
+        Files.write(tempDir.resolve("a"), new byte[]{1});
+        // 不存在的结果同样被缓存
+        assertThat(cache.getFileStatus(fs, file)).isNull();
+        assertThat(metric("negativeHitCount")).isEqualTo(1L);
+        Thread.sleep(300);
+        assertThat(cache.getFileStatus(fs, file)).isNotNull();
+        assertThat(metric("missCount")).isEqualTo(2L);
+    }
+
+    @Test
+    void latestFileStatusBypassesCache() throws Exception {
+        Files.write(tempDir.resolve("a"), new byte[]{1});
+        Path file = path("a");
+        assertThat(cache.getFileStatus(fs, file).getLen()).isEqualTo(1);
+        Files.write(tempDir.resolve("a"), new byte[]{1, 2, 3});
+        assertThat(cache.getFileStatus(fs, file).getLen()).isEqualTo(1);
+        assertThat(cache.getLatestFileStatus(fs, file).getLen()).isEqualTo(3);
+        // 最新状态同时刷新缓存
+        assertThat(cache.getFileStatus(fs, file).getLen()).isEqualTo(3);
+    }
+
+    @Test
+    void evictsOldestWhenFull() throws Exception {
+        cache = newCache(60000, 10);
+        for (int i = 0; i < 11; i++) {
+            cache.getFileStatus(fs, path("f" + i));
+            Thread.sleep(2);
+        }
+        long entries = metric("statusEntries");
+        assertThat(entries).isLessThanOrEqualTo(10);
+        assertThat(metric("evictionCount")).isEqualTo(11 - entries);
+        // 最早写入的条目被淘汰，最后写入的仍然命中
+        cache.getFileStatus(fs, path("f10"));
+        assertThat(metric("hitCount")).isEqualTo(1L);
+        cache.getFileStatus(fs, path("f0"));
+        assertThat(metric("hitCount")).isEqualTo(1L);
+    }
+
+    @Test
+    void invalidateRemovesPathParentAndChildrenOnly() throws Exception {
+        Files.createDirectories(tempDir.resolve("d/sub"));
+        Files.createDirectories(tempDir.resolve("d0"));
+        Files.createDirectories(tempDir.resolve("d-x"));
+        cache.listStatus(fs, path(""));
+        cache.getFileStatus(fs, path("d"));
+        cache.listStatus(fs, path("d"));
+        cache.getFileStatus(fs, path("d/sub"));
+        cache.getFileStatus(fs, path("d/sub/x"));
+        cache.getFileStatus(fs, path("d0"));
+        cache.getFileStatus(fs, path("d-x"));
+        assertThat(metric("statusEntries")).isEqualTo(5L);
+        assertThat(metric("listingEntries")).isEqualTo(2L);
+
+        cache.invalidate(fs, path("d"));
+        // 同名前缀的兄弟目录d0、d-x不受影响
+        assertThat(metric("statusEntries")).isEqualTo(2L);
+        assertThat(metric("listingEntries")).isEqualTo(0L);
+        long hits = metric("hitCount");
+        cache.getFileStatus(fs, path("d0"));
+        cache.getFileStatus(fs, path("d-x"));
+        assertThat(metric("hitCount")).isEqualTo(hits + 2);
+
+        cache.invalidate(fs, new Path("/"));
+        assertThat(metric("statusEntries")).isEqualTo(0L);
+    }
+
+    @Test
+    void disabledCacheAlwaysReadsFileSystem() throws Exception {
+        ReflectionTestUtils.setField(cache, "enabled", false);
+        Files.write(tempDir.resolve("a"), new byte[]{1});
+        FileStatus status = cache.getFileStatus(fs, path("a"));
+        assertThat(status.getLen()).isEqualTo(1);
+        Files.write(tempDir.resolve("a"), new byte[]{1, 2});
+        assertThat(cache.getFileStatus(fs, path("a")).getLen()).isEqualTo(2);
+        assertThat(metric("statusEntries")).isEqualTo(0L);
+    }
+
+    @Test
+    void loadRacingInvalidateDoesNotCacheStaleStatus() throws Exception {
+        Files.createDirectories(tempDir.resolve("d"));
+        Path file = path("d/a");
+        FileSystem spy = Mockito.spy(fs);
+        // 向NameNode查询的结果返回前，文件被创建并失效了上级目录
+        Mockito.doAnswer(invocation -> {
+            FileStatus status;
+            try {
+                status = fs.getFileStatus(file);
+            } catch (FileNotFoundException e) {
+                status = null;
+            }
+            Files.write(tempDir.resolve("d/a"), new byte[]{1});
+            cache.invalidate(fs, path("d"));
+            if (status == null) {
+                throw new FileNotFoundException(file.toString());
+            }
+            return status;
+        }).when(spy).getFileStatus(file);
+        assertThat(cache.getFileStatus(spy, file)).isNull();
+        // 旧的不存在结果没有留在缓存中
+        assertThat(cache.getFileStatus(fs, file)).isNotNull();
+        assertThat(metric("negativeHitCount")).isEqualTo(0L);
+    }
+
+    private HDFSMetadataCache newCache(long ttlMillis, int maxEntries) {
+        HDFSMetadataCache metadataCache = new HDFSMetadataCache();
+        ReflectionTestUtils.setField(metadataCache, "enabled", true);
+        ReflectionTestUtils.setField(metadataCache, "ttlMillis", ttlMillis);
+        ReflectionTestUtils.setField(metadataCache, "maxEntries", maxEntries);
+        return metadataCache;
+    }
+
+    private Path path(String relative) {
+        return new Path(tempDir.resolve(relative).toString());
+    }
+
+    private long metric(String name) {
+        Map<String, Object> metrics = cache.getMetrics();
+        return ((Number) metrics.get(name)).longValue();
+    }
+}
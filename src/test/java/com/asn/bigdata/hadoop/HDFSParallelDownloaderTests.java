@@ -0,0 +1,90 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 并行下载先写临时文件，完成后才替换本地已有的文件
+ */
+class HDFSParallelDownloaderTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSSmallFilePacker packer;
+    private HDFSParallelDownloader downloader;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        HDFSReadLatencyTracker latencyTracker = new HDFSReadLatencyTracker();
+        ReflectionTestUtils.setField(latencyTracker, "fileSystemProvider", provider);
+        latencyTracker.init();
+        packer = new HDFSSmallFilePacker();
+        ReflectionTestUtils.setField(packer, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(packer, "metadataCache", LocalFileSystems.metadataCache());
+        ReflectionTestUtils.setField(packer, "readerCacheSize", 8);
+        packer.init();
+        downloader = new HDFSParallelDownloader();
+        ReflectionTestUtils.setField(downloader, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(downloader, "latencyTracker", latencyTracker);
+        ReflectionTestUtils.setField(downloader, "smallFilePacker", packer);
+        ReflectionTestUtils.setField(downloader, "threads", 2);
+        ReflectionTestUtils.setField(downloader, "defaultParallelism", 2);
+        ReflectionTestUtils.setField(downloader, "maxRetries", 1);
+        downloader.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        downloader.shutdown();
+        packer.shutdown();
+        provider.close();
+    }
+
+    @Test
+    void downloadReplacesExistingFile() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        Files.write(tempDir.resolve("src"), data);
+        java.nio.file.Path local = Files.createDirectories(tempDir.resolve("local"));
+        Files.write(local.resolve("src"), new byte[]{1});
+
+        HDFSDownloadResult result = downloader.download(tempDir.resolve("src").toString(), local.toString(), null);
+        assertThat(result.getBytes()).isEqualTo(data.length);
+        assertThat(Files.readAllBytes(local.resolve("src"))).isEqualTo(data);
+        assertThat(local.toFile().list()).containsExactly("src");
+    }
+
+    @Test
+    void failedDownloadKeepsExistingFile() throws Exception {
+        Files.write(tempDir.resolve("src"), new byte[]{1, 2, 3});
+        java.nio.file.Path local = Files.createDirectories(tempDir.resolve("local"));
+        Files.write(local.resolve("src"), new byte[]{1});
+        // 读取HDFS时失败
+        FileSystem fs = Mockito.spy(provider.getFileSystem());
+        Mockito.doThrow(new IOException("read failed")).when(fs).open(Mockito.any(Path.class));
+        HDFSFileSystemProvider failingProvider = Mockito.mock(HDFSFileSystemProvider.class);
+        Mockito.when(failingProvider.getFileSystem()).thenReturn(fs);
+        ReflectionTestUtils.setField(downloader, "fileSystemProvider", failingProvider);
+
+        assertThatThrownBy(() -> downloader.download(tempDir.resolve("src").toString(), local.toString(), null))
+                .isInstanceOf(IOException.class);
+        assertThat(Files.readAllBytes(local.resolve("src"))).containsExactly(1);
+        assertThat(local.toFile().list()).containsExactly("src");
+    }
+}
@@ -0,0 +1,236 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+/**
+ * 小文件打包后的读取、删除标记和多级容器文件的版本选择
+ */
+class HDFSSmallFilePackerTests {
+
+    @TempDir
+    java.nio.file.Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private FileSystem fs;
+    private HDFSSmallFilePacker packer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        fs = provider.getFileSystem();
+        packer = new HDFSSmallFilePacker();
+        ReflectionTestUtils.setField(packer, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(packer, "metadataCache", LocalFileSystems.metadataCache());
+        ReflectionTestUtils.setField(packer, "smallFileThreshold", 1024L);
+        ReflectionTestUtils.setField(packer, "maxPackBytes", 1024L * 1024);
+        ReflectionTestUtils.setField(packer, "minFiles", 1);
+        ReflectionTestUtils.setField(packer, "readerCacheSize", 8);
+        packer.init();
+        write("d/a", "a");
+        write("d/b", "b");
+        write("d/sub/c", "c");
+    }
+
+    @AfterEach
+    void tearDown() {
+        packer.shutdown();
+        provider.close();
+    }
+
+    @Test
+    void packedFilesAreReadableAfterOriginalsDeleted() throws Exception {
+        HDFSPackResult result = packer.pack(path("d"), true, true);
+        assertThat(result.getPackedFiles()).isEqualTo(3);
+        assertThat(result.getDeletedFiles()).isEqualTo(3);
+        assertThat(Files.exists(tempDir.resolve("d/a"))).isFalse();
+        assertThat(read("d/a")).isEqualTo("a");
+        assertThat(read("d/sub/c")).isEqualTo("c");
+        assertThat(packer.read(path("d/missing"))).isNull();
+        assertThat(packer.read(path("d/sub"))).isNull();
+    }
+
+    @Test
+    void existsLooksUpVisibleKeys() throws Exception {
+        packer.pack(path("d"), true, true);
+        assertThat(packer.exists(path("d/a"))).isTrue();
+        assertThat(packer.exists(path("d/sub/c"))).isTrue();
+        assertThat(packer.exists(path("d/missing"))).isFalse();
+        // 目录不是打包的key
+        assertThat(packer.exists(path("d/sub"))).isFalse();
+        packer.remove(path("d/a"));
+        assertThat(packer.exists(path("d/a"))).isFalse();
+    }
+
+    @Test
+    void openFallsBackToPack() throws Exception {
+        packer.pack(path("d"), false, true);
+        try (InputStream in = packer.open(fs, new Path(path("d/a")), 4096)) {
+            assertThat(StreamUtils.copyToString(in, StandardCharsets.UTF_8)).isEqualTo("a");
+        }
+        assertThatThrownBy(() -> packer.open(fs, new Path(path("d/missing")), 4096))
+                .isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void grepReadsPackedFile() throws Exception {
+        write("d/lines", "x1\ny2\nx3");
+        packer.pack(path("d"), false, true);
+        HDFSSplitReader splitReader = new HDFSSplitReader(2);
+        try {
+            ReflectionTestUtils.setField(splitReader, "fileSystemProvider", provider);
+            ReflectionTestUtils.setField(splitReader, "smallFilePacker", packer);
+            ReflectionTestUtils.setField(splitReader, "maxLineLength", 1024);
+            ReflectionTestUtils.setField(splitReader, "bufferSize", 4);
+            ReflectionTestUtils.setField(splitReader, "grepMaxMatches", 1000);
+            HDFSSplitResult<HDFSGrepResult> result = splitReader.grep(path("d/lines"), "^x", null);
+            assertThat(result.getResult().getLines()).isEqualTo(3);
+            assertThat(result.getResult().getMatches()).isEqualTo(2);
+            assertThat(result.getResult().getSamples().get(1).getOffset()).isEqualTo(6);
+        } finally {
+            splitReader.shutdown();
+        }
+    }
+
+    @Test
+    void packsWrittenInTheSameMillisecondAreNotNested() throws Exception {
+        // 每个文件一个容器文件，连续生成的容器文件名时间部分相同
+        ReflectionTestUtils.setField(packer, "maxPackBytes", 1L);
+        HDFSPackResult result = packer.pack(path("d"), false, true);
+        assertThat(result.getPacks()).hasSize(2).doesNotHaveDuplicates();
+        for (String pack : result.getPacks()) {
+            assertThat(Files.isDirectory(tempDir.resolve(pack))).isTrue();
+        }
+        assertThat(read("d/a")).isEqualTo("a");
+        assertThat(read("d/b")).isEqualTo("b");
+    }
+
+    @Test
+    void renameWithoutOverwriteRejectsExistingDirectory() throws Exception {
+        Files.createDirectories(tempDir.resolve("target"));
+        assertThatThrownBy(() -> HDFSUtils.rename(fs, new Path(path("d/a")), new Path(path("target")), false))
+                .isInstanceOf(org.apache.hadoop.fs.FileAlreadyExistsException.class);
+        assertThat(Files.exists(tempDir.resolve("d/a"))).isTrue();
+    }
+
+    @Test
+    void removedFileIsNoLongerReadable() throws Exception {
+        packer.pack(path("d"), false, true);
+        assertThat(packer.remove(path("d/a"))).isTrue();
+        assertThat(packer.read(path("d/a"))).isNull();
+        assertThat(read("d/b")).isEqualTo("b");
+        // 没有打包过的路径不记录删除标记
+        assertThat(packer.remove(path("d/missing"))).isFalse();
+    }
+
+    @Test
+    void recreatedThenDeletedFileDoesNotServeOldPackedBytes() throws Exception {
+        packer.pack(path("d"), false, true);
+        write("d/a", "new");
+        Files.delete(tempDir.resolve("d/a"));
+        assertThat(packer.remove(path("d/a"))).isTrue();
+        assertThat(packer.read(path("d/a"))).isNull();
+    }
+
+    @Test
+    void packAfterRemoveIsVisibleAgain() throws Exception {
+        packer.pack(path("d"), false, true);
+        packer.remove(path("d/a"));
+        Thread.sleep(5);
+        write("d/a", "again");
+        packer.pack(path("d"), false, true);
+        assertThat(read("d/a")).isEqualTo("again");
+    }
+
+    @Test
+    void newerPackInAncestorWinsOverNearerPack() throws Exception {
+        packer.pack(path("d/sub"), false, true);
+        Thread.sleep(5);
+        write("d/sub/c", "newer");
+        packer.pack(path("d"), true, true);
+        HDFSPackedFile packedFile = packer.read(path("d/sub/c"));
+        assertThat(new String(packedFile.getData(), StandardCharsets.UTF_8)).isEqualTo("newer");
+        assertThat(packedFile.getPackPath()).startsWith(path("d/" + HDFSSmallFilePacker.PACK_DIR));
+    }
+
+    @Test
+    void removedDirectoryHidesChildrenInAncestorPacks() throws Exception {
+        packer.pack(path("d"), true, true);
+        assertThat(packer.remove(path("d/sub"))).isTrue();
+        assertThat(packer.read(path("d/sub/c"))).isNull();
+        assertThat(read("d/a")).isEqualTo("a");
+    }
+
+    @Test
+    void removeDoesNotHidePacksInsideRemovedDirectory() throws Exception {
+        // 目录自身的容器文件随目录移动（如放入回收站后恢复），不受上级目录删除标记影响
+        packer.pack(path("d"), true, false);
+        Thread.sleep(5);
+        packer.pack(path("d/sub"), false, true);
+        assertThat(packer.remove(path("d/sub"))).isTrue();
+        HDFSPackedFile packedFile = packer.read(path("d/sub/c"));
+        assertThat(packedFile.getPackPath()).startsWith(path("d/sub/" + HDFSSmallFilePacker.PACK_DIR));
+    }
+
+    @Test
+    void packedDirectoryCanBeRenamed() throws Exception {
+        packer.pack(path("d/sub"), false, true);
+        Files.move(tempDir.resolve("d/sub"), tempDir.resolve("d/moved"));
+        assertThat(read("d/moved/c")).isEqualTo("c");
+    }
+
+    @Test
+    void unpackRestoresVisibleEntriesOnly() throws Exception {
+        write("d/sub/e", "e");
+        packer.pack(path("d"), true, true);
+        packer.remove(path("d/sub/e"));
+        assertThat(packer.unpack(path("d/sub"))).isEqualTo(1);
+        assertThat(new String(Files.readAllBytes(tempDir.resolve("d/sub/c")), StandardCharsets.UTF_8))
+                .isEqualTo("c");
+        assertThat(Files.exists(tempDir.resolve("d/sub/e"))).isFalse();
+        // 已存在的普通文件不覆盖
+        assertThat(packer.unpack(path("d/sub"))).isEqualTo(0);
+    }
+
+    @Test
+    void deleteOriginalsSkipsConcurrentlyDeletedFiles() throws Exception {
+        FileStatus status = fs.getFileStatus(new Path(path("d/a")));
+        Files.delete(tempDir.resolve("d/a"));
+        HDFSPackResult result = new HDFSPackResult();
+        ReflectionTestUtils.invokeMethod(packer, "deleteOriginals", fs, Collections.singletonList(status), result);
+        assertThat(result.getSkippedFiles()).isEqualTo(1);
+        assertThat(result.getDeletedFiles()).isEqualTo(0);
+    }
+
+    private void write(String relative, String content) throws Exception {
+        java.nio.file.Path file = tempDir.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String relative) throws Exception {
+        HDFSPackedFile packedFile = packer.read(path(relative));
+        assertThat(packedFile).isNotNull();
+        return new String(packedFile.getData(), StandardCharsets.UTF_8);
+    }
+
+    private String path(String relative) {
+        return tempDir.resolve(relative).toString();
+    }
+}
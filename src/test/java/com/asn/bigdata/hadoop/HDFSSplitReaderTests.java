@@ -0,0 +1,166 @@
+package com.asn.bigdata.hadoop;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 分片边界上的行归属：每一行只被一个分片处理，且与顺序读取的结果一致
+ * 本地文件系统整个文件只有一个块，通过max-split-size把分片边界放到文件的每一个偏移量上；以及中断和参数校验
+ */
+class HDFSSplitReaderTests {
+
+    @TempDir
+    Path tempDir;
+
+    private HDFSFileSystemProvider provider;
+    private HDFSSplitReader reader;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        provider = LocalFileSystems.provider();
+        reader = new HDFSSplitReader(4);
+        ReflectionTestUtils.setField(reader, "fileSystemProvider", provider);
+        ReflectionTestUtils.setField(reader, "maxLineLength", 1024);
+        ReflectionTestUtils.setField(reader, "bufferSize", 4);
+        ReflectionTestUtils.setField(reader, "grepMaxMatches", 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reader.shutdown();
+        provider.close();
+    }
+
+    @Test
+    void everyLineOwnedByExactlyOneSplit() throws Exception {
+        // 空行、Windows换行、比分片长的行，最后一行没有换行符
+        String content = "a\n\nbb\r\nccc\nlong line spanning several splits\n\r\nx\ny";
+        String path = write(content);
+        List<String> expected = lines(content);
+        for (long splitSize = 1; splitSize <= content.length() + 1; splitSize++) {
+            ReflectionTestUtils.setField(reader, "maxSplitSize", splitSize);
+            HDFSSplitResult<List<String>> result = reader.process(path, new Collector());
+            assertThat(result.getResult()).as("splitSize=%d", splitSize).isEqualTo(expected);
+            long lines = 0;
+            for (HDFSSplitResult.Split split : result.getSplits()) {
+                lines += split.getLines();
+            }
+            assertThat(lines).isEqualTo(expected.size());
+        }
+    }
+
+    @Test
+    void splitsCoverFileInOrder() throws Exception {
+        String path = write("0123456789\n0123456789\n01234");
+        ReflectionTestUtils.setField(reader, "maxSplitSize", 10L);
+        List<HDFSSplitResult.Split> splits = reader.process(path, new Collector()).getSplits();
+        assertThat(splits).extracting(HDFSSplitResult.Split::getStart).containsExactly(0L, 10L, 20L);
+        assertThat(splits).extracting(HDFSSplitResult.Split::getLength).containsExactly(10L, 10L, 7L);
+        // 第一行结束在第二个分片内，由第一个分片读完
+        assertThat(splits).extracting(HDFSSplitResult.Split::getLines).containsExactly(1L, 1L, 1L);
+    }
+
+    @Test
+    void grepMergesSplitsInFileOrder() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(i % 3 == 0 ? "match " : "skip ").append(i).append('\n');
+        }
+        String path = write(content.toString());
+        ReflectionTestUtils.setField(reader, "maxSplitSize", 64L);
+        HDFSGrepResult result = reader.grep(path, "^match", 10).getResult();
+        assertThat(result.getLines()).isEqualTo(200);
+        assertThat(result.getMatches()).isEqualTo(67);
+        assertThat(result.isTruncated()).isTrue();
+        assertThat(result.getSamples()).extracting(HDFSGrepResult.Match::getLine)
+                .containsExactly("match 0", "match 3", "match 6", "match 9", "match 12",
+                        "match 15", "match 18", "match 21", "match 24", "match 27");
+        long offset = content.indexOf("match 27");
+        assertThat(result.getSamples().get(9).getOffset()).isEqualTo(offset);
+    }
+
+    @Test
+    void negativeMaxMatchesIsRejected() throws Exception {
+        String path = write("a\n");
+        assertThatThrownBy(() -> reader.grep(path, "a", -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void interruptedGrepStopsSplits() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        String path = write(content.toString());
+        ReflectionTestUtils.setField(reader, "maxSplitSize", 64L);
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> reader.grep(path, "line", 10)).isInstanceOf(InterruptedIOException.class);
+        } finally {
+            Thread.interrupted();
+        }
+        // 取消后线程池仍可继续处理其他请求
+        assertThat(reader.grep(path, "line", 10).getResult().getLines()).isEqualTo(200);
+    }
+
+    private String write(String content) throws Exception {
+        Path file = tempDir.resolve("split.txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file.toString();
+    }
+
+    /**
+     * 顺序读取的结果，行内容加上行首偏移量
+     */
+    private static List<String> lines(String content) {
+        List<String> lines = new ArrayList<>();
+        int offset = 0;
+        while (offset < content.length()) {
+            int end = offset;
+            while (end < content.length() && content.charAt(end) != '\n' && content.charAt(end) != '\r') {
+                end++;
+            }
+            lines.add(offset + ":" + content.substring(offset, end));
+            if (end < content.length() && content.charAt(end) == '\r') {
+                end++;
+            }
+            if (end < content.length() && content.charAt(end) == '\n') {
+                end++;
+            }
+            offset = end;
+        }
+        return lines;
+    }
+
+    private static class Collector implements HDFSSplitReader.LineProcessor<List<String>> {
+        @Override
+        public List<String> newResult() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void process(List<String> result, long offset, Text line) {
+            result.add(offset + ":" + line);
+        }
+
+        @Override
+        public List<String> merge(List<String> left, List<String> right) {
+            left.addAll(right);
+            return left;
+        }
+    }
+}
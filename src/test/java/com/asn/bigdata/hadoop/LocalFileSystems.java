@@ -0,0 +1,38 @@
+package com.asn.bigdata.hadoop;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 单元测试使用的本地文件系统
+ */
+final class LocalFileSystems {
+
+    private LocalFileSystems() {
+    }
+
+    /**
+     * 创建一个指向本地文件系统的HDFSFileSystemProvider
+     * @return
+     * @throws Exception
+     */
+    static HDFSFileSystemProvider provider() throws Exception {
+        HDFSFileSystemProvider provider = new HDFSFileSystemProvider();
+        ReflectionTestUtils.setField(provider, "path", "file:///");
+        ReflectionTestUtils.setField(provider, "username", System.getProperty("user.name"));
+        ReflectionTestUtils.setField(provider, "hadoopHome", "");
+        provider.init();
+        return provider;
+    }
+
+    /**
+     * 创建一个开启的元数据缓存
+     * @return
+     */
+    static HDFSMetadataCache metadataCache() {
+        HDFSMetadataCache metadataCache = new HDFSMetadataCache();
+        ReflectionTestUtils.setField(metadataCache, "enabled", true);
+        ReflectionTestUtils.setField(metadataCache, "ttlMillis", 60000L);
+        ReflectionTestUtils.setField(metadataCache, "maxEntries", 1000);
+        return metadataCache;
+    }
+}